@@ -21,6 +21,8 @@ import org.alienchain.config.Constants;
 import org.alienchain.consensus.AlienchainBft;
 import org.alienchain.consensus.AlienchainSync;
 import org.alienchain.core.BftManager;
+import org.alienchain.core.Block;
+import org.alienchain.core.BlockPruner;
 import org.alienchain.core.Blockchain;
 import org.alienchain.core.BlockchainImpl;
 import org.alienchain.core.Genesis;
@@ -30,9 +32,9 @@ import org.alienchain.core.Wallet;
 import org.alienchain.crypto.Hex;
 import org.alienchain.crypto.Key;
 import org.alienchain.db.DatabaseFactory;
-import org.alienchain.db.DatabaseName;
+import org.alienchain.db.InstrumentedDatabase.InstrumentedFactory;
 import org.alienchain.db.LeveldbDatabase;
-import org.alienchain.db.LeveldbDatabase.LeveldbFactory;
+import org.alienchain.db.SegmentDatabase.SegmentFactory;
 import org.alienchain.event.KernelBootingEvent;
 import org.alienchain.event.PubSub;
 import org.alienchain.event.PubSubFactory;
@@ -89,6 +91,7 @@ public class Kernel {
 
     protected ChannelManager channelMgr;
     protected PendingManager pendingMgr;
+    protected BlockPruner pruner;
     protected NodeManager nodeMgr;
 
     protected PeerServer p2p;
@@ -140,8 +143,10 @@ public class Kernel {
         // initialize blockchain database
         // ====================================
         relocateDatabaseIfNeeded();
-        dbFactory = new LeveldbFactory(config.databaseDir());
+        InstrumentedFactory instrumentedFactory = createDatabaseFactory(config);
+        dbFactory = instrumentedFactory;
         chain = new BlockchainImpl(config, genesis, dbFactory);
+        instrumentedFactory.startLogging(config.dbStatsLogInterval());
         long number = chain.getLatestBlockNumber();
         logger.info("Latest block number = {}", number);
 
@@ -160,6 +165,11 @@ public class Kernel {
         pendingMgr.start();
         nodeMgr.start();
 
+        pruner = new BlockPruner(this);
+        if (config.dbPruneBlocks() > 0) {
+            pruner.start();
+        }
+
         // ====================================
         // start p2p module
         // ====================================
@@ -354,9 +364,10 @@ public class Kernel {
         api.stop();
         p2p.stop();
 
-        // stop pending manager and node manager
+        // stop pending manager, node manager and block pruner
         pendingMgr.stop();
         nodeMgr.stop();
+        pruner.stop();
 
         // close client
         client.close();
@@ -365,9 +376,8 @@ public class Kernel {
         ReentrantReadWriteLock.WriteLock lock = stateLock.writeLock();
         lock.lock();
         try {
-            for (DatabaseName name : DatabaseName.values()) {
-                dbFactory.getDB(name).close();
-            }
+            chain.close();
+            dbFactory.close();
         } finally {
             lock.unlock();
         }
@@ -504,4 +514,24 @@ public class Kernel {
     public DatabaseFactory getDbFactory() {
         return dbFactory;
     }
+
+    /**
+     * Opens the blockchain databases, as configured. Once the blocks have been
+     * moved into segments, segments are used even if they are disabled, as the
+     * key-value copy of the blocks is gone.
+     *
+     * @param config
+     * @return
+     */
+    public static InstrumentedFactory createDatabaseFactory(Config config) {
+        DatabaseFactory factory = config.dbEngine().createFactory(config.databaseDir());
+        boolean imported = SegmentFactory.isImported(factory.getDataDir());
+        if (imported && !config.dbBlockSegmentsEnabled()) {
+            logger.warn("The blocks are stored in segments, db.blockSegments can't be turned off");
+        }
+        if (config.dbBlockSegmentsEnabled() || imported) {
+            factory = new SegmentFactory(factory, Block.BlockPart.values().length);
+        }
+        return new InstrumentedFactory(factory);
+    }
 }
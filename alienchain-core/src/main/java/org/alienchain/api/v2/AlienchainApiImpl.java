@@ -15,6 +15,8 @@ import java.nio.charset.Charset;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -36,6 +38,7 @@ import org.alienchain.api.v2.model.GetAccountResponse;
 import org.alienchain.api.v2.model.GetAccountTransactionsResponse;
 import org.alienchain.api.v2.model.GetAccountVotesResponse;
 import org.alienchain.api.v2.model.GetBlockResponse;
+import org.alienchain.api.v2.model.GetDatabaseStatsResponse;
 import org.alienchain.api.v2.model.GetDelegateResponse;
 import org.alienchain.api.v2.model.GetDelegatesResponse;
 import org.alienchain.api.v2.model.GetInfoResponse;
@@ -55,6 +58,7 @@ import org.alienchain.api.v2.model.SignMessageResponse;
 import org.alienchain.api.v2.model.SignRawTransactionResponse;
 import org.alienchain.api.v2.model.SyncingProgressType;
 import org.alienchain.api.v2.model.VerifyMessageResponse;
+import org.alienchain.core.Amount;
 import org.alienchain.core.Block;
 import org.alienchain.core.Blockchain;
 import org.alienchain.core.BlockchainImpl;
@@ -66,13 +70,17 @@ import org.alienchain.core.TransactionType;
 import org.alienchain.core.exception.WalletLockedException;
 import org.alienchain.core.state.Account;
 import org.alienchain.core.state.Delegate;
+import org.alienchain.core.state.DelegateState;
 import org.alienchain.crypto.CryptoException;
 import org.alienchain.crypto.Hash;
 import org.alienchain.crypto.Hex;
 import org.alienchain.crypto.Key;
 import org.alienchain.crypto.cache.PublicKeyCache;
+import org.alienchain.db.DatabaseName;
+import org.alienchain.db.InstrumentedDatabase.InstrumentedFactory;
 import org.alienchain.net.NodeManager;
 import org.alienchain.net.filter.AlienchainIpFilter;
+import org.alienchain.util.ByteArray;
 import org.alienchain.vm.client.AlienchainBlock;
 import org.alienchain.vm.client.AlienchainBlockStore;
 import org.alienchain.vm.client.AlienchainRepository;
@@ -622,7 +630,7 @@ public final class AlienchainApiImpl implements AlienchainApi {
     }
 
     @Override
-    public Response getVotes(String delegate) {
+    public Response getVotes(String delegate, String from, String limit) {
         GetVotesResponse resp = new GetVotesResponse();
         if (!isSet(delegate)) {
             return badRequest(resp, "Parameter `delegate` is required");
@@ -635,10 +643,31 @@ public final class AlienchainApiImpl implements AlienchainApi {
             return badRequest(resp, "Parameter `delegate` is not a valid hexadecimal string");
         }
 
-        resp.setResult(kernel.getBlockchain().getDelegateState().getVotes(delegateBytes).entrySet().parallelStream()
-                .collect(Collectors.toMap(
-                        entry -> Hex.PREF + entry.getKey().toString(),
-                        entry -> TypeFactory.encodeAmount(entry.getValue()))));
+        byte[] fromBytes = null;
+        if (isSet(from)) {
+            try {
+                fromBytes = Hex.decode0x(from);
+            } catch (CryptoException ex) {
+                return badRequest(resp, "Parameter `from` is not a valid hexadecimal string");
+            }
+        }
+
+        int limitInt = Integer.MAX_VALUE;
+        if (isSet(limit)) {
+            try {
+                limitInt = Integer.parseInt(limit);
+            } catch (NumberFormatException ex) {
+                return badRequest(resp, "Parameter `limit` is not a valid integer");
+            }
+        }
+
+        DelegateState ds = kernel.getBlockchain().getDelegateState();
+        Map<String, String> votes = new LinkedHashMap<>();
+        for (Map.Entry<ByteArray, Amount> e : ds.getVotes(delegateBytes, fromBytes, limitInt).entrySet()) {
+            votes.put(Hex.PREF + e.getKey().toString(), TypeFactory.encodeAmount(e.getValue()));
+        }
+        resp.setResult(votes);
+        resp.setTotal(String.valueOf(ds.getVoterCount(delegateBytes)));
 
         return success(resp);
     }
@@ -873,6 +902,21 @@ public final class AlienchainApiImpl implements AlienchainApi {
         return success(resp);
     }
 
+    @Override
+    public Response getDatabaseStats() {
+        GetDatabaseStatsResponse resp = new GetDatabaseStatsResponse();
+        if (!(kernel.getDbFactory() instanceof InstrumentedFactory)) {
+            return badRequest(resp, "Database statistics are not available");
+        }
+
+        InstrumentedFactory factory = (InstrumentedFactory) kernel.getDbFactory();
+        resp.setResult(Arrays.stream(DatabaseName.values())
+                .map(name -> TypeFactory.databaseStatsType(factory, name))
+                .collect(Collectors.toList()));
+
+        return success(resp);
+    }
+
     /**
      * Constructs a success response.
      *
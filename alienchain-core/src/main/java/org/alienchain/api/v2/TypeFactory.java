@@ -18,6 +18,8 @@ import org.alienchain.Kernel;
 import org.alienchain.api.v2.model.AccountType;
 import org.alienchain.api.v2.model.AccountVoteType;
 import org.alienchain.api.v2.model.BlockType;
+import org.alienchain.api.v2.model.DatabaseOperationType;
+import org.alienchain.api.v2.model.DatabaseStatsType;
 import org.alienchain.api.v2.model.DelegateType;
 import org.alienchain.api.v2.model.InfoType;
 import org.alienchain.api.v2.model.LogInfoType;
@@ -34,7 +36,11 @@ import org.alienchain.core.TransactionResult;
 import org.alienchain.core.state.Account;
 import org.alienchain.core.state.Delegate;
 import org.alienchain.crypto.Hex;
+import org.alienchain.db.DatabaseName;
+import org.alienchain.db.InstrumentedDatabase;
+import org.alienchain.db.InstrumentedDatabase.InstrumentedFactory;
 import org.alienchain.net.Peer;
+import org.alienchain.util.LatencyHistogram;
 import org.ethereum.vm.LogInfo;
 
 public class TypeFactory {
@@ -128,6 +134,31 @@ public class TypeFactory {
                 .capabilities(Arrays.asList(peer.getCapabilities()));
     }
 
+    public static DatabaseStatsType databaseStatsType(InstrumentedFactory factory, DatabaseName name) {
+        InstrumentedDatabase.Stats stats = factory.getStats(name);
+        return new DatabaseStatsType()
+                .name(name.name())
+                .operations(Arrays.stream(InstrumentedDatabase.Op.values())
+                        .map(op -> databaseOperationType(op, stats.getLatency(op)))
+                        .collect(Collectors.toList()))
+                .bytesRead(String.valueOf(stats.getBytesRead()))
+                .bytesWritten(String.valueOf(stats.getBytesWritten()))
+                .batchedPairs(String.valueOf(stats.getBatchedPairs()))
+                .approximateSize(String.valueOf(factory.getApproximateSize(name)))
+                .engineStats(factory.getEngineStats(name));
+    }
+
+    public static DatabaseOperationType databaseOperationType(InstrumentedDatabase.Op op, LatencyHistogram latency) {
+        return new DatabaseOperationType()
+                .operation(DatabaseOperationType.OperationEnum.fromValue(op.name()))
+                .count(String.valueOf(latency.getCount()))
+                .mean(String.valueOf(latency.getMean() / 1000))
+                .p50(String.valueOf(latency.getPercentile(50) / 1000))
+                .p99(String.valueOf(latency.getPercentile(99) / 1000))
+                .p999(String.valueOf(latency.getPercentile(99.9) / 1000))
+                .max(String.valueOf(latency.getMax() / 1000));
+    }
+
     public static TransactionLimitsType transactionLimitsType(Kernel kernel,
             org.alienchain.core.TransactionType transactionType) {
         return new TransactionLimitsType()
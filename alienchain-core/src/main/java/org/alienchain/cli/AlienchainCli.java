@@ -16,13 +16,16 @@ import org.alienchain.Launcher;
 import org.alienchain.config.Config;
 import org.alienchain.config.Constants;
 import org.alienchain.config.exception.ConfigException;
+import org.alienchain.core.BlockchainReindexer;
 import org.alienchain.core.Genesis;
 import org.alienchain.core.Wallet;
 import org.alienchain.core.bip39.Language;
 import org.alienchain.core.bip39.MnemonicGenerator;
+import org.alienchain.core.exception.BlockchainException;
 import org.alienchain.core.exception.WalletLockedException;
 import org.alienchain.crypto.Hex;
 import org.alienchain.crypto.Key;
+import org.alienchain.db.DatabaseFactory;
 import org.alienchain.exception.LauncherException;
 import org.alienchain.message.CliMessages;
 import org.alienchain.net.filter.exception.IpFilterJsonParseException;
@@ -113,6 +116,13 @@ public class AlienchainCli extends Launcher {
                 .hasArg(true).optionalArg(false).argName("key").type(String.class)
                 .build();
         addOption(importPrivateKeyOption);
+
+        Option reindexOption = Option.builder()
+                .longOpt(AlienchainOption.REINDEX.toString())
+                .desc(CliMessages.get("ReindexDatabase"))
+                .hasArg(true).optionalArg(true).argName("threads").type(Integer.class)
+                .build();
+        addOption(reindexOption);
     }
 
     public void start(String[] args) throws ParseException, IOException {
@@ -143,6 +153,10 @@ public class AlienchainCli extends Launcher {
         } else if (cmd.hasOption(AlienchainOption.IMPORT_PRIVATE_KEY.toString())) {
             importPrivateKey(cmd.getOptionValue(AlienchainOption.IMPORT_PRIVATE_KEY.toString()).trim());
 
+        } else if (cmd.hasOption(AlienchainOption.REINDEX.toString())) {
+            String threads = cmd.getOptionValue(AlienchainOption.REINDEX.toString());
+            reindex(threads == null ? Runtime.getRuntime().availableProcessors() : parseThreads(threads.trim()));
+
         } else {
             start();
         }
@@ -280,6 +294,27 @@ public class AlienchainCli extends Launcher {
         }
     }
 
+    protected int parseThreads(String threads) throws ParseException {
+        try {
+            return Integer.parseInt(threads);
+        } catch (NumberFormatException e) {
+            throw new ParseException(CliMessages.get("InvalidThreads", threads));
+        }
+    }
+
+    protected void reindex(int threads) {
+        DatabaseFactory factory = Kernel.createDatabaseFactory(getConfig());
+        try {
+            long number = new BlockchainReindexer(getConfig(), factory, Math.max(1, threads)).reindex();
+            logger.info(CliMessages.get("ReindexCompleted", number));
+        } catch (BlockchainException e) {
+            logger.error(CliMessages.get("ReindexFailed", e.getMessage()), e);
+            exit(SystemUtil.Code.FAILED_TO_REPAIR_DB);
+        } finally {
+            factory.close();
+        }
+    }
+
     protected void exit(int code) {
         SystemUtil.exit(code);
     }
@@ -29,6 +29,8 @@ public enum AlienchainOption {
 
     IMPORT_PRIVATE_KEY("importprivatekey"),
 
+    REINDEX("reindex"),
+
     NETWORK("network");
 
     private final String name;
@@ -13,6 +13,7 @@ import static org.alienchain.core.Amount.ZERO;
 import java.io.File;
 import java.io.FileInputStream;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -28,6 +29,8 @@ import org.alienchain.config.exception.ConfigException;
 import org.alienchain.core.Amount;
 import org.alienchain.core.TransactionType;
 import org.alienchain.crypto.Hash;
+import org.alienchain.db.DatabaseEngine;
+import org.alienchain.net.Capability;
 import org.alienchain.net.CapabilitySet;
 import org.alienchain.net.NodeManager.Node;
 import org.alienchain.net.msg.MessageCode;
@@ -94,6 +97,15 @@ public abstract class AbstractConfig implements Config {
     protected int maxPendingJobs = 256;
     protected int maxPendingBlocks = 512;
 
+    // =========================
+    // Database
+    // =========================
+    protected DatabaseEngine dbEngine = DatabaseEngine.LEVELDB;
+    protected boolean dbBlockSegmentsEnabled = false;
+    protected long dbBlockCacheSize = 64L * 1024L * 1024L;
+    protected long dbPruneBlocks = 0;
+    protected long dbStatsLogInterval = 10L * 60L * 1000L;
+
     // =========================
     // API
     // =========================
@@ -114,6 +126,11 @@ public abstract class AbstractConfig implements Config {
     protected long bftFinalizeTimeout = 3000L;
     protected long maxBlockTimeDrift = TimeUnit.SECONDS.toMillis(30);
 
+    // =========================
+    // Transactions
+    // =========================
+    protected int txExecutionThreads = 0;
+
     // =========================
     // Virtual machine
     // =========================
@@ -244,6 +261,11 @@ public abstract class AbstractConfig implements Config {
 
     @Override
     public CapabilitySet getClientCapabilities() {
+        if (dbPruneBlocks > 0) {
+            List<String> capabilities = new ArrayList<>(Constants.CLIENT_CAPABILITIES.toList());
+            capabilities.add(Capability.PRUNED.name());
+            return CapabilitySet.of(capabilities.toArray(new String[0]));
+        }
         return Constants.CLIENT_CAPABILITIES;
     }
 
@@ -422,6 +444,31 @@ public abstract class AbstractConfig implements Config {
         return maxPendingBlocks;
     }
 
+    @Override
+    public DatabaseEngine dbEngine() {
+        return dbEngine;
+    }
+
+    @Override
+    public boolean dbBlockSegmentsEnabled() {
+        return dbBlockSegmentsEnabled;
+    }
+
+    @Override
+    public long dbBlockCacheSize() {
+        return dbBlockCacheSize;
+    }
+
+    @Override
+    public long dbPruneBlocks() {
+        return dbPruneBlocks;
+    }
+
+    @Override
+    public long dbStatsLogInterval() {
+        return dbStatsLogInterval;
+    }
+
     @Override
     public boolean apiEnabled() {
         return apiEnabled;
@@ -482,6 +529,11 @@ public abstract class AbstractConfig implements Config {
         return maxBlockTimeDrift;
     }
 
+    @Override
+    public int txExecutionThreads() {
+        return txExecutionThreads;
+    }
+
     @Override
     public int vmMaxStackSize() {
         return vmMaxStackSize;
@@ -609,6 +661,32 @@ public abstract class AbstractConfig implements Config {
                     maxPendingBlocks = Integer.parseInt(props.getProperty(name).trim());
                     break;
 
+                case "db.engine": {
+                    DatabaseEngine engine = DatabaseEngine.of(props.getProperty(name).trim());
+                    if (engine == null) {
+                        logger.error("Unsupported database engine: {}", props.getProperty(name));
+                    } else {
+                        dbEngine = engine;
+                    }
+                    break;
+                }
+                case "db.blockSegments":
+                    dbBlockSegmentsEnabled = Boolean.parseBoolean(props.getProperty(name).trim());
+                    break;
+                case "db.blockCacheSize":
+                    dbBlockCacheSize = Long.parseLong(props.getProperty(name).trim()) * 1024L * 1024L;
+                    break;
+                case "db.pruneBlocks":
+                    dbPruneBlocks = Long.parseLong(props.getProperty(name).trim());
+                    if (dbPruneBlocks > 0 && dbPruneBlocks < Constants.MIN_PRUNED_BLOCKS) {
+                        logger.warn("db.pruneBlocks is too small, using {}", Constants.MIN_PRUNED_BLOCKS);
+                        dbPruneBlocks = Constants.MIN_PRUNED_BLOCKS;
+                    }
+                    break;
+                case "db.statsLogInterval":
+                    dbStatsLogInterval = Long.parseLong(props.getProperty(name).trim()) * 60L * 1000L;
+                    break;
+
                 case "api.enabled":
                     apiEnabled = Boolean.parseBoolean(props.getProperty(name).trim());
                     break;
@@ -640,6 +718,10 @@ public abstract class AbstractConfig implements Config {
                     uiFractionDigits = Integer.parseInt(props.getProperty(name).trim());
                     break;
                 }
+                case "tx.executionThreads": {
+                    txExecutionThreads = Integer.parseInt(props.getProperty(name).trim());
+                    break;
+                }
                 case "vm.blockGasLimit": {
                     vmBlockGasLimit = Integer.parseInt(props.getProperty(name).trim());
                     break;
@@ -17,6 +17,7 @@ import org.alienchain.Network;
 import org.alienchain.core.Amount;
 import org.alienchain.core.Fork;
 import org.alienchain.core.TransactionType;
+import org.alienchain.db.DatabaseEngine;
 import org.alienchain.net.CapabilitySet;
 import org.alienchain.net.NodeManager.Node;
 import org.alienchain.net.msg.MessageCode;
@@ -312,6 +313,48 @@ public interface Config {
      */
     int syncMaxPendingBlocks();
 
+    // =========================
+    // Database
+    // =========================
+
+    /**
+     * Returns the storage engine of the database.
+     *
+     * @return
+     */
+    DatabaseEngine dbEngine();
+
+    /**
+     * Returns whether blocks are stored in append-only segment files instead of
+     * the key-value database.
+     *
+     * @return
+     */
+    boolean dbBlockSegmentsEnabled();
+
+    /**
+     * Returns the maximum size of the in-memory block cache, in bytes.
+     *
+     * @return
+     */
+    long dbBlockCacheSize();
+
+    /**
+     * Returns the number of recent blocks whose bodies are kept, or 0 to keep all
+     * the blocks.
+     *
+     * @return
+     */
+    long dbPruneBlocks();
+
+    /**
+     * Returns the interval of logging the database I/O statistics, in
+     * milliseconds, or 0 if disabled.
+     *
+     * @return
+     */
+    long dbStatsLogInterval();
+
     // =========================
     // API
     // =========================
@@ -405,6 +448,18 @@ public interface Config {
      */
     long maxBlockTimeDrift();
 
+    // =========================
+    // Transactions
+    // =========================
+
+    /**
+     * Returns the number of threads executing the transactions of a block in
+     * parallel, or 0 to execute them sequentially.
+     *
+     * @return
+     */
+    int txExecutionThreads();
+
     // =========================
     // Virtual machine
     // =========================
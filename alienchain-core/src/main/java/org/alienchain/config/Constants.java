@@ -47,7 +47,7 @@ public class Constants {
      * Capability of this client.
      */
     public static final CapabilitySet CLIENT_CAPABILITIES = CapabilitySet.of(Capability.ALIENCHAIN, Capability.CORE,
-            Capability.LIGHT);
+            Capability.LIGHT, Capability.FAST_SYNC);
 
     /**
      * Algorithm name for the 256-bit hash.
@@ -99,6 +99,11 @@ public class Constants {
      */
     public static final long BLOCKS_PER_YEAR = 2L * 60L * 24L * 365L;
 
+    /**
+     * The minimum number of recent blocks whose bodies are kept by a pruned node.
+     */
+    public static final long MIN_PRUNED_BLOCKS = BLOCKS_PER_DAY * 7;
+
     /**
      * The public-private key pair for signing coinbase transactions.
      */
@@ -10,11 +10,21 @@ import static org.alienchain.core.Fork.UNIFORM_DISTRIBUTION;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 import java.util.stream.Collectors;
 
@@ -37,7 +47,6 @@ import org.alienchain.core.TransactionResult;
 import org.alienchain.core.TransactionType;
 import org.alienchain.core.state.AccountState;
 import org.alienchain.core.state.DelegateState;
-import org.alienchain.crypto.Hash;
 import org.alienchain.crypto.Hex;
 import org.alienchain.crypto.Key;
 import org.alienchain.crypto.Key.Signature;
@@ -95,6 +104,8 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 public class AlienchainBft implements BftManager {
     private static final Logger logger = LoggerFactory.getLogger(AlienchainBft.class);
 
+    private static final int MAX_EVENT_BATCH = 256;
+
     protected Kernel kernel;
     protected Config config;
 
@@ -114,6 +125,9 @@ public class AlienchainBft implements BftManager {
     protected Broadcaster broadcaster;
     protected BlockingQueue<Event> events = new LinkedBlockingQueue<>();
 
+    // bumped whenever the queued events are dropped
+    private long eventEpoch;
+
     protected Status status;
     protected State state;
 
@@ -123,8 +137,17 @@ public class AlienchainBft implements BftManager {
     protected Proposal proposal;
 
     protected Cache<ByteArray, Block> validBlocks = Caffeine.newBuilder().maximumSize(8).build();
+    protected Cache<ByteArray, ExecutedBlock> executedBlocks = Caffeine.newBuilder().maximumSize(8).build();
+
+    protected ExecutorService preparer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "bft-prepare");
+        t.setDaemon(true);
+        return t;
+    });
+    protected volatile Future<BlockCandidate> preparedBlock;
 
     protected List<String> validators;
+    protected VoteSet.Validators validatorSet;
     protected List<Channel> activeValidators;
     protected long lastUpdate;
 
@@ -179,50 +202,79 @@ public class AlienchainBft implements BftManager {
     }
 
     /**
-     * Main loop that processes all the BFT events.
+     * Main loop that processes all the BFT events. The events are taken from the
+     * queue in batches.
      */
     protected void eventLoop() {
+        List<Event> batch = new ArrayList<>();
         while (!Thread.currentThread().isInterrupted() && status != Status.STOPPED) {
             try {
-                Event ev = events.take();
-                if (status != Status.RUNNING) {
-                    continue;
-                }
+                batch.add(events.take());
+                events.drainTo(batch, MAX_EVENT_BATCH - 1);
+            } catch (InterruptedException e) {
+                logger.info("BftManager got interrupted");
+                Thread.currentThread().interrupt();
+                break;
+            }
 
-                // in case we get stuck at one height for too long
-                if (lastUpdate + 2 * 60 * 1000L < TimeUtil.currentTimeMillis()) {
-                    updateValidators();
+            long epoch = eventEpoch;
+            for (Event ev : batch) {
+                // the rest of the batch is dropped along with the queued events
+                if (eventEpoch != epoch) {
+                    break;
                 }
-
-                switch (ev.getType()) {
-                case STOP:
+                if (!processEvent(ev)) {
                     return;
-                case TIMEOUT:
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Processes one BFT event.
+     *
+     * @param ev
+     * @return false if the event loop should stop, otherwise true
+     */
+    protected boolean processEvent(Event ev) {
+        try {
+            if (status != Status.RUNNING) {
+                return true;
+            }
+
+            // in case we get stuck at one height for too long
+            if (lastUpdate + 2 * 60 * 1000L < TimeUtil.currentTimeMillis()) {
+                updateValidators();
+            }
+
+            switch (ev.getType()) {
+            case STOP:
+                return false;
+            case TIMEOUT:
+                if (timer.isCurrent(ev.getData())) {
                     onTimeout();
-                    break;
-                case NEW_HEIGHT:
-                    onNewHeight(ev.getData());
-                    break;
-                case NEW_VIEW:
-                    onNewView(ev.getData());
-                    break;
-                case PROPOSAL:
-                    onProposal(ev.getData());
-                    break;
-                case VOTE:
-                    onVote(ev.getData());
-                    break;
-                default:
-                    break;
                 }
-            } catch (InterruptedException e) {
-                logger.info("BftManager got interrupted");
-                Thread.currentThread().interrupt();
                 break;
-            } catch (Exception e) {
-                logger.warn("Unexpected exception in event loop", e);
+            case NEW_HEIGHT:
+                onNewHeight(ev.getData());
+                break;
+            case NEW_VIEW:
+                onNewView(ev.getData());
+                break;
+            case PROPOSAL:
+                onProposal(ev.getData());
+                break;
+            case VOTE:
+                onVote(ev.getData());
+                break;
+            default:
+                break;
             }
+        } catch (Exception e) {
+            logger.warn("Unexpected exception in event loop", e);
         }
+        return true;
     }
 
     @Override
@@ -250,6 +302,7 @@ public class AlienchainBft implements BftManager {
 
             timer.stop();
             broadcaster.stop();
+            preparer.shutdown();
 
             status = Status.STOPPED;
             Event ev = new Event(Type.STOP);
@@ -403,6 +456,9 @@ public class AlienchainBft implements BftManager {
             // always broadcast vote directly.
             commitVotes.addVote(vote);
             broadcaster.broadcast(new VoteMessage(vote));
+
+            // use the wait for the finalization to assemble the next block
+            prepareNextBlock(blockHash.get());
         }
     }
 
@@ -503,7 +559,7 @@ public class AlienchainBft implements BftManager {
                 && p.getView() > view && state != State.COMMIT && state != State.FINALIZE) {// larger view
 
             // check proof-of-unlock
-            VoteSet vs = new VoteSet(VoteType.PRECOMMIT, p.getHeight(), p.getView() - 1, validators);
+            VoteSet vs = new VoteSet(VoteType.PRECOMMIT, p.getHeight(), p.getView() - 1, getValidatorSet());
             vs.addVotes(p.getVotes());
             if (!vs.isRejected()) {
                 return;
@@ -526,7 +582,7 @@ public class AlienchainBft implements BftManager {
 
             // check proof-of-unlock
             if (p.getView() != 0) {
-                VoteSet vs = new VoteSet(VoteType.PRECOMMIT, p.getHeight(), p.getView() - 1, validators);
+                VoteSet vs = new VoteSet(VoteType.PRECOMMIT, p.getHeight(), p.getView() - 1, getValidatorSet());
                 vs.addVotes(p.getProof().getVotes());
                 if (!vs.isRejected()) {
                     return;
@@ -743,16 +799,30 @@ public class AlienchainBft implements BftManager {
      * @return
      */
     protected boolean isFromValidator(Signature sig) {
-        return validators.contains(Hex.encode(Hash.h160(sig.getPublicKey())));
+        return getValidatorSet().contains(sig);
+    }
+
+    /**
+     * Returns the index of the current validators, rebuilt only when the
+     * validators change.
+     *
+     * @return
+     */
+    protected VoteSet.Validators getValidatorSet() {
+        if (validatorSet == null || !validatorSet.getList().equals(validators)) {
+            validatorSet = new VoteSet.Validators(validators);
+        }
+        return validatorSet;
     }
 
     /**
      * Reset all vote sets. This should be invoked whenever height or view changes.
      */
     protected void clearVotes() {
-        validateVotes = new VoteSet(VoteType.VALIDATE, height, view, validators);
-        precommitVotes = new VoteSet(VoteType.PRECOMMIT, height, view, validators);
-        commitVotes = new VoteSet(VoteType.COMMIT, height, view, validators);
+        VoteSet.Validators set = getValidatorSet();
+        validateVotes = new VoteSet(VoteType.VALIDATE, height, view, set);
+        precommitVotes = new VoteSet(VoteType.PRECOMMIT, height, view, set);
+        commitVotes = new VoteSet(VoteType.COMMIT, height, view, set);
     }
 
     /**
@@ -761,6 +831,7 @@ public class AlienchainBft implements BftManager {
     protected void clearTimerAndEvents() {
         timer.clear();
         events.clear();
+        eventEpoch++;
     }
 
     /**
@@ -771,74 +842,115 @@ public class AlienchainBft implements BftManager {
     protected Block proposeBlock() {
         long t1 = TimeUtil.currentTimeMillis();
 
-        // construct block
+        // construct block, from the one prepared while committing the parent if any
         BlockHeader parent = chain.getBlockHeader(height - 1);
-        long number = height;
-        byte[] prevHash = parent.getHash();
-        long timestamp = TimeUtil.currentTimeMillis();
-        /*
-         * in case the previous block timestamp is drifted too munch, adjust this block
-         * timestamp to avoid invalid blocks (triggered by timestamp rule).
-         *
-         */
-        timestamp = timestamp > parent.getTimestamp() ? timestamp : parent.getTimestamp() + 1;
+        BlockCandidate candidate = takePreparedBlock(parent);
+        if (candidate == null) {
+            long timestamp = TimeUtil.currentTimeMillis();
+            /*
+             * in case the previous block timestamp is drifted too munch, adjust this block
+             * timestamp to avoid invalid blocks (triggered by timestamp rule).
+             *
+             */
+            timestamp = timestamp > parent.getTimestamp() ? timestamp : parent.getTimestamp() + 1;
 
-        byte[] data = chain.constructBlockData();
+            candidate = new BlockCandidate(height, parent.getHash(), timestamp, accountState.track(),
+                    delegateState.track(), blockStore, false);
+        }
 
-        // fetch pending transactions
-        final List<PendingManager.PendingTransaction> pending = pendingMgr
-                .getPendingTransactions(config.maxBlockTransactionsSize());
-        final List<Transaction> pendingTxs = new ArrayList<>();
-        final List<TransactionResult> pendingResults = new ArrayList<>();
+        // fetch pending transactions, on top of the prepared ones
+        candidate.addTransactions(pendingMgr.getPendingTransactions(config.maxBlockTransactionsSize()),
+                Collections.emptySet());
 
-        // for any VM requests, actually need to execute them
-        AccountState as = accountState.track();
-        DelegateState ds = delegateState.track();
-        TransactionExecutor exec = new TransactionExecutor(config, blockStore);
-        BlockHeader tempHeader = new BlockHeader(height, coinbase.toAddress(), prevHash, timestamp, new byte[0],
-                new byte[0], new byte[0], data);
+        Block block = candidate.toBlock(chain.constructBlockData());
+
+        long t2 = TimeUtil.currentTimeMillis();
+        logger.debug("Block creation: # txs = {}, time = {} ms", block.getTransactions().size(), t2 - t1);
 
-        // only propose gas used up to configured block gas limit
-        AlienchainBlock alienchainBlock = new AlienchainBlock(tempHeader, config.vmBlockGasLimit());
+        return block;
+    }
 
-        long gasUsed = 0;
+    /**
+     * Starts assembling the next block in background, if this node is likely to
+     * be its primary, on top of the execution of a block being committed.
+     *
+     * @param blockHash
+     *            hash of the block being committed
+     */
+    protected void prepareNextBlock(byte[] blockHash) {
+        Block block = validBlocks.getIfPresent(ByteArray.of(blockHash));
+        ExecutedBlock executed = executedBlocks.getIfPresent(ByteArray.of(blockHash));
+        if (block == null || executed == null
+                || !Arrays.equals(executed.parentHash, chain.getLatestBlock().getHash())
+                || !isPrimary(height + 1, 0, coinbase.toAddressString())) {
+            return;
+        }
 
-        for (PendingManager.PendingTransaction tx : pending) {
-            if (tx.transaction.getType() == TransactionType.CALL
-                    || tx.transaction.getType() == TransactionType.CREATE) {
-                long pendingGasForBlock = tx.transaction.getGas() + gasUsed;
+        long timestamp = Math.max(TimeUtil.currentTimeMillis(), block.getTimestamp() + 1);
+        List<PendingManager.PendingTransaction> pending = pendingMgr
+                .getPendingTransactions(config.maxBlockTransactionsSize());
+        Set<ByteArray> included = block.getTransactions().stream().map(tx -> ByteArray.of(tx.getHash()))
+                .collect(Collectors.toSet());
 
-                if (tx.transaction.getGasPrice() >= config.vmMinGasPrice()
-                        && pendingGasForBlock < config.vmBlockGasLimit()) {
-                    TransactionResult result = exec.execute(tx.transaction, as, ds, alienchainBlock, chain);
-                    gasUsed += result.getGasUsed();
+        // the parent is not in the chain yet
+        BlockStore store = number -> number == block.getNumber() ? block.getHash()
+                : blockStore.getBlockHashByNumber(number);
 
-                    if (result.getCode().isAcceptable() && gasUsed < config.vmBlockGasLimit()) {
-                        pendingResults.add(result);
-                        pendingTxs.add(tx.transaction);
-                    } else {
-                        gasUsed -= result.getGasUsed();
-                    }
-                }
-            } else {
-                pendingResults.add(tx.result);
-                pendingTxs.add(tx.transaction);
-            }
+        // the reward is added now, as applyBlock adds it to the executed state too,
+        // possibly before the task runs
+        AccountState as = executed.accountState.track();
+        DelegateState ds = executed.delegateState.track();
+        Amount reward = Block.getBlockReward(block, config);
+        if (reward.gt0()) {
+            as.adjustAvailable(block.getCoinbase(), reward);
         }
 
-        // compute roots
-        byte[] transactionsRoot = MerkleUtil.computeTransactionsRoot(pendingTxs);
-        byte[] resultsRoot = MerkleUtil.computeResultsRoot(pendingResults);
-        byte[] stateRoot = Bytes.EMPTY_HASH;
+        Future<BlockCandidate> f = preparedBlock;
+        if (f != null) {
+            f.cancel(false);
+        }
+        preparedBlock = preparer.submit(() -> {
+            long t1 = TimeUtil.currentTimeMillis();
 
-        BlockHeader header = new BlockHeader(number, coinbase.toAddress(), prevHash, timestamp, transactionsRoot,
-                resultsRoot, stateRoot, data);
-        Block block = new Block(header, pendingTxs, pendingResults);
+            BlockCandidate candidate = new BlockCandidate(block.getNumber() + 1, block.getHash(), timestamp, as, ds,
+                    store, true);
+            candidate.addTransactions(pending, included);
 
-        long t2 = TimeUtil.currentTimeMillis();
-        logger.debug("Block creation: # txs = {}, time = {} ms", pendingTxs.size(), t2 - t1);
+            long t2 = TimeUtil.currentTimeMillis();
+            logger.debug("Block preparation: # txs = {}, time = {} ms", candidate.transactions.size(), t2 - t1);
 
-        return block;
+            return candidate;
+        });
+    }
+
+    /**
+     * Returns the block prepared on top of the given parent, if ready, or null.
+     *
+     * @param parent
+     * @return
+     */
+    protected BlockCandidate takePreparedBlock(BlockHeader parent) {
+        Future<BlockCandidate> f = preparedBlock;
+        preparedBlock = null;
+        if (f == null) {
+            return null;
+        }
+        if (!f.isDone()) {
+            f.cancel(false);
+            return null;
+        }
+
+        try {
+            BlockCandidate candidate = f.get();
+            return candidate.number == height && Arrays.equals(candidate.parentHash, parent.getHash()) ? candidate
+                    : null;
+        } catch (ExecutionException | CancellationException e) {
+            logger.warn("Failed to prepare block", e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
     }
 
     /**
@@ -878,10 +990,9 @@ public class AlienchainBft implements BftManager {
             return false;
         }
 
-        // [2] check transactions and results (skipped)
-        List<Transaction> unvalidatedTransactions = getUnvalidatedTransactions(transactions);
-
-        if (!block.validateTransactions(header, unvalidatedTransactions, transactions, config.network())) {
+        // [2] check transactions and results (skipped); the signatures verified by the
+        // pending manager are not verified again
+        if (!block.validateTransactions(header, transactions, config.network())) {
             logger.warn("Invalid block transactions");
             return false;
         }
@@ -891,7 +1002,7 @@ public class AlienchainBft implements BftManager {
             return false;
         }
 
-        if (transactions.stream().anyMatch(tx -> chain.hasTransaction(tx.getHash()))) {
+        if (chain.hasAnyTransaction(transactions.stream().map(Transaction::getHash).collect(Collectors.toList()))) {
             logger.warn("Duplicated transaction hash is not allowed");
             return false;
         }
@@ -917,34 +1028,10 @@ public class AlienchainBft implements BftManager {
         logger.debug("Block validation: # txs = {}, time = {} ms", transactions.size(), t2 - t1);
 
         validBlocks.put(ByteArray.of(block.getHash()), block);
+        executedBlocks.put(ByteArray.of(block.getHash()), new ExecutedBlock(latest.getHash(), as, ds));
         return true;
     }
 
-    /**
-     * Filter transactions to find ones that have not already been validated via the
-     * pending manager.
-     *
-     * @param transactions
-     * @return
-     */
-    protected List<Transaction> getUnvalidatedTransactions(List<Transaction> transactions) {
-
-        Set<Transaction> pendingValidatedTransactions = pendingMgr.getPendingTransactions()
-                .stream()
-                .map(pendingTx -> pendingTx.transaction)
-                .collect(Collectors.toSet());
-
-        List<Transaction> unvalidatedTransactions = transactions
-                .stream()
-                .filter(it -> !pendingValidatedTransactions.contains(it))
-                .collect(Collectors.toList());
-
-        logger.debug("Block validation: # txs = {}, # txs unvalidated = {}", transactions.size(),
-                unvalidatedTransactions.size());
-
-        return unvalidatedTransactions;
-    }
-
     /**
      * Apply a block to the chain.
      *
@@ -966,16 +1053,27 @@ public class AlienchainBft implements BftManager {
 
         // [2] check transactions and results, skipped
 
-        AccountState as = chain.getAccountState().track();
-        DelegateState ds = chain.getDelegateState().track();
-        TransactionExecutor exec = new TransactionExecutor(config, blockStore);
+        AccountState as;
+        DelegateState ds;
 
-        // [3] evaluate all transactions
-        List<TransactionResult> results = exec.execute(transactions, as, ds,
-                new AlienchainBlock(block.getHeader(), Long.MAX_VALUE), chain);
-        if (!block.validateResults(header, results)) {
-            logger.debug("Invalid transactions");
-            return;
+        // [3] evaluate all transactions, unless already done by the validation of
+        // the proposal on the same parent
+        ExecutedBlock executed = executedBlocks.getIfPresent(ByteArray.of(block.getHash()));
+        executedBlocks.invalidate(ByteArray.of(block.getHash()));
+        if (executed != null && Arrays.equals(executed.parentHash, chain.getLatestBlock().getHash())) {
+            as = executed.accountState;
+            ds = executed.delegateState;
+        } else {
+            as = chain.getAccountState().track();
+            ds = chain.getDelegateState().track();
+            TransactionExecutor exec = new TransactionExecutor(config, blockStore);
+
+            List<TransactionResult> results = exec.execute(transactions, as, ds,
+                    new AlienchainBlock(block.getHeader(), Long.MAX_VALUE), chain);
+            if (!block.validateResults(header, results)) {
+                logger.debug("Invalid transactions");
+                return;
+            }
         }
 
         // [4] evaluate votes, skipped
@@ -1014,54 +1112,167 @@ public class AlienchainBft implements BftManager {
     }
 
     /**
-     * Timer used by consensus. It's designed to be single timeout; previous timeout
-     * get cleared when new one being added.
-     *
-     * NOTE: it's possible that a Timeout event has been emitted when setting a new
-     * timeout.
+     * A block being assembled: the transactions selected so far, and the state
+     * updates of their execution.
      */
-    public class Timer implements Runnable {
-        private long timeout;
+    protected class BlockCandidate {
+        private final long number;
+        private final byte[] parentHash;
+        private final long timestamp;
+        private final AccountState as;
+        private final DelegateState ds;
+        private final TransactionExecutor exec;
+        private final AlienchainBlock alienchainBlock;
+        private final boolean speculative;
+
+        private final List<Transaction> transactions = new ArrayList<>();
+        private final List<TransactionResult> results = new ArrayList<>();
+        private final Set<ByteArray> hashes = new HashSet<>();
+        private long gasUsed = 0;
+        private int size = 0;
+
+        /**
+         * @param speculative
+         *            whether the state is ahead of the pending state, in which case
+         *            the results of the pending manager are not reused
+         */
+        public BlockCandidate(long number, byte[] parentHash, long timestamp, AccountState as, DelegateState ds,
+                BlockStore blockStore, boolean speculative) {
+            this.number = number;
+            this.parentHash = parentHash;
+            this.timestamp = timestamp;
+            this.as = as;
+            this.ds = ds;
+            this.exec = new TransactionExecutor(config, blockStore);
+            this.speculative = speculative;
+
+            // only propose gas used up to configured block gas limit
+            BlockHeader tempHeader = new BlockHeader(number, coinbase.toAddress(), parentHash, timestamp,
+                    new byte[0], new byte[0], new byte[0], new byte[0]);
+            this.alienchainBlock = new AlienchainBlock(tempHeader, config.vmBlockGasLimit());
+        }
 
-        private Thread t;
+        /**
+         * Adds the pending transactions which fit in the block, in order.
+         *
+         * @param pending
+         *            pending transactions
+         * @param skipped
+         *            hashes of the transactions to skip
+         */
+        public void addTransactions(List<PendingManager.PendingTransaction> pending, Set<ByteArray> skipped) {
+            for (PendingManager.PendingTransaction tx : pending) {
+                ByteArray hash = ByteArray.of(tx.transaction.getHash());
+                if (hashes.contains(hash) || skipped.contains(hash)
+                        || size + tx.transaction.size() > config.maxBlockTransactionsSize()) {
+                    continue;
+                }
 
-        @Override
-        public void run() {
-            while (!Thread.currentThread().isInterrupted()) {
-                synchronized (this) {
-                    if (timeout != -1 && timeout < TimeUtil.currentTimeMillis()) {
-                        events.add(new Event(Type.TIMEOUT));
-                        timeout = -1;
-                        continue;
-                    }
+                boolean isVmCall = tx.transaction.getType() == TransactionType.CALL
+                        || tx.transaction.getType() == TransactionType.CREATE;
+                if (!isVmCall && !speculative) {
+                    add(tx.transaction, tx.result);
+                    continue;
                 }
 
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
+                // for any VM requests, actually need to execute them
+                if (isVmCall && (tx.transaction.getGasPrice() < config.vmMinGasPrice()
+                        || tx.transaction.getGas() + gasUsed >= config.vmBlockGasLimit())) {
+                    continue;
+                }
+
+                // execute on a track, to leave out the effects of the excluded ones
+                AccountState txAs = as.track();
+                DelegateState txDs = ds.track();
+                TransactionResult result = exec.execute(tx.transaction, txAs, txDs, alienchainBlock, chain);
+                long txGasUsed = isVmCall ? result.getGasUsed() : 0;
+
+                if (result.getCode().isAcceptable() && gasUsed + txGasUsed < config.vmBlockGasLimit()) {
+                    txAs.commit();
+                    txDs.commit();
+                    gasUsed += txGasUsed;
+                    add(tx.transaction, result);
                 }
             }
         }
 
+        private void add(Transaction tx, TransactionResult result) {
+            transactions.add(tx);
+            results.add(result);
+            hashes.add(ByteArray.of(tx.getHash()));
+            size += tx.size();
+        }
+
+        /**
+         * Builds the block.
+         *
+         * @param data
+         *            the block header data
+         * @return
+         */
+        public Block toBlock(byte[] data) {
+            // compute roots
+            byte[] transactionsRoot = MerkleUtil.computeTransactionsRoot(transactions);
+            byte[] resultsRoot = MerkleUtil.computeResultsRoot(results);
+            byte[] stateRoot = Bytes.EMPTY_HASH;
+
+            BlockHeader header = new BlockHeader(number, coinbase.toAddress(), parentHash, timestamp,
+                    transactionsRoot, resultsRoot, stateRoot, data);
+            return new Block(header, new ArrayList<>(transactions), new ArrayList<>(results));
+        }
+    }
+
+    /**
+     * The state updates of a validated block proposal, on top of the parent it was
+     * validated against.
+     */
+    protected static class ExecutedBlock {
+        private final byte[] parentHash;
+        private final AccountState accountState;
+        private final DelegateState delegateState;
+
+        public ExecutedBlock(byte[] parentHash, AccountState accountState, DelegateState delegateState) {
+            this.parentHash = parentHash;
+            this.accountState = accountState;
+            this.delegateState = delegateState;
+        }
+    }
+
+    /**
+     * Posts a TIMEOUT event when the deadline is reached. The deadline is
+     * scheduled on a dedicated thread, which sleeps until it's due; each deadline
+     * has a generation, so that the event of a replaced deadline is ignored.
+     */
+    public class Timer {
+        private ScheduledThreadPoolExecutor executor;
+        private ScheduledFuture<?> task;
+        private long generation;
+
         public synchronized void start() {
-            if (t == null) {
-                t = new Thread(this, "bft-timer");
-                t.start();
+            if (executor == null) {
+                executor = new ScheduledThreadPoolExecutor(1, r -> new Thread(r, "bft-timer"));
+                executor.setRemoveOnCancelPolicy(true);
             }
         }
 
-        public synchronized void stop() {
-            if (t != null) {
-                try {
-                    t.interrupt();
-                    t.join(10000);
-                } catch (InterruptedException e) {
-                    logger.warn("Failed to stop consensus timer");
-                    Thread.currentThread().interrupt();
+        public void stop() {
+            ScheduledThreadPoolExecutor e;
+            synchronized (this) {
+                if (executor == null) {
+                    return;
                 }
-                t = null;
+                cancel();
+                e = executor;
+                executor = null;
+                e.shutdownNow();
+            }
+
+            // a firing deadline needs the lock to finish
+            try {
+                e.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                logger.warn("Failed to stop consensus timer");
+                Thread.currentThread().interrupt();
             }
         }
 
@@ -1069,11 +1280,41 @@ public class AlienchainBft implements BftManager {
             if (milliseconds < 0) {
                 throw new IllegalArgumentException("Timeout can not be negative");
             }
-            timeout = TimeUtil.currentTimeMillis() + milliseconds;
+            cancel();
+            long gen = ++generation;
+            if (executor != null) {
+                task = executor.schedule(() -> fire(gen), milliseconds, TimeUnit.MILLISECONDS);
+            }
         }
 
         public synchronized void clear() {
-            timeout = -1;
+            cancel();
+            generation++;
+        }
+
+        /**
+         * Returns whether a TIMEOUT event belongs to the current deadline.
+         *
+         * @param gen
+         *            the generation carried by the event
+         * @return
+         */
+        public synchronized boolean isCurrent(Object gen) {
+            return gen instanceof Long && (Long) gen == generation;
+        }
+
+        private synchronized void fire(long gen) {
+            if (gen == generation) {
+                task = null;
+                events.add(new Event(Type.TIMEOUT, gen));
+            }
+        }
+
+        private void cancel() {
+            if (task != null) {
+                task.cancel(false);
+                task = null;
+            }
         }
     }
 
@@ -1084,21 +1325,26 @@ public class AlienchainBft implements BftManager {
 
         @Override
         public void run() {
+            List<Message> batch = new ArrayList<>();
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    Message msg = queue.take();
+                    batch.add(queue.take());
+                    queue.drainTo(batch);
 
                     // thread-safety via volatile
                     List<Channel> channels = activeValidators;
                     if (channels != null) {
-                        int[] indices = ArrayUtil.permutation(channels.size());
-                        for (int i = 0; i < indices.length && i < config.netRelayRedundancy(); i++) {
-                            Channel c = channels.get(indices[i]);
-                            if (c.isActive()) {
-                                c.getMessageQueue().sendMessage(msg);
+                        for (Message msg : batch) {
+                            int[] indices = ArrayUtil.permutation(channels.size());
+                            for (int i = 0; i < indices.length && i < config.netRelayRedundancy(); i++) {
+                                Channel c = channels.get(indices[i]);
+                                if (c.isActive()) {
+                                    c.getMessageQueue().sendMessage(msg);
+                                }
                             }
                         }
                     }
+                    batch.clear();
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                     break;
@@ -12,8 +12,11 @@ import java.math.MathContext;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -24,7 +27,11 @@ import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
@@ -41,6 +48,7 @@ import org.alienchain.config.Config;
 import org.alienchain.config.Constants;
 import org.alienchain.core.Amount;
 import org.alienchain.core.Block;
+import org.alienchain.core.Block.BlockPart;
 import org.alienchain.core.BlockHeader;
 import org.alienchain.core.Blockchain;
 import org.alienchain.core.SyncManager;
@@ -49,15 +57,23 @@ import org.alienchain.core.TransactionExecutor;
 import org.alienchain.core.TransactionResult;
 import org.alienchain.core.state.AccountState;
 import org.alienchain.core.state.DelegateState;
+import org.alienchain.crypto.BatchVerifier;
 import org.alienchain.crypto.Hex;
-import org.alienchain.crypto.Key;
+import org.alienchain.crypto.Key.Signature;
+import org.alienchain.net.Capability;
+import org.alienchain.net.CapabilitySet;
 import org.alienchain.net.Channel;
 import org.alienchain.net.ChannelManager;
+import org.alienchain.net.Peer;
 import org.alienchain.net.msg.Message;
 import org.alienchain.net.msg.ReasonCode;
 import org.alienchain.net.msg.consensus.BlockMessage;
+import org.alienchain.net.msg.consensus.BlockPartsMessage;
 import org.alienchain.net.msg.consensus.GetBlockMessage;
+import org.alienchain.net.msg.consensus.GetBlockPartsMessage;
 import org.alienchain.util.ByteArray;
+import org.alienchain.util.MerkleUtil;
+import org.alienchain.util.SimpleDecoder;
 import org.alienchain.util.TimeUtil;
 import org.alienchain.vm.client.AlienchainBlock;
 import org.alienchain.vm.client.AlienchainBlockStore;
@@ -74,6 +90,26 @@ import org.slf4j.LoggerFactory;
  * synchronized and need to be executed by one single thread at anytime.
  * <p>
  * The download/unfinished/pending queues are protected by lock.
+ * <p>
+ * Blocks are imported in stages: the stateless checks of each downloaded block,
+ * i.e. header, Merkle roots and signatures, run on a pool of checkers as soon
+ * as the block arrives, while {@link #process()} executes and commits the
+ * blocks in order. The number of blocks being checked is bounded, and
+ * {@link #download()} stops requesting blocks when the bound is reached.
+ * <p>
+ * Peers supporting {@link Capability#FAST_SYNC} are asked for the parts of a
+ * block rather than the whole block. Headers, with their votes, are downloaded
+ * first; the body of a block is requested, usually from another peer, once its
+ * header is linked to the chain, and verified against the roots of the header
+ * on arrival. Headers are linked back from the last header of the validator
+ * set, or the one before the target, whose votes are verified first. Every idle
+ * peer gets a request on each round, so the download scales with the number of
+ * peers.
+ * <p>
+ * The response time and throughput of each peer are tracked as moving
+ * averages. The fastest peers get the first blocks, each request times out
+ * according to the response times of its peer, and the first block of the
+ * window is requested from a second peer when it is late.
  */
 public class AlienchainSync implements SyncManager {
 
@@ -91,12 +127,31 @@ public class AlienchainSync implements SyncManager {
     private static final ScheduledExecutorService timer1 = Executors.newSingleThreadScheduledExecutor(factory);
     private static final ScheduledExecutorService timer2 = Executors.newSingleThreadScheduledExecutor(factory);
 
+    private static final int CHECK_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int MAX_PENDING_CHECKS = CHECK_THREADS * 4;
+
+    private static final ExecutorService checker = Executors.newFixedThreadPool(CHECK_THREADS, new ThreadFactory() {
+        private AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "sync-check-" + cnt.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private static final long MIN_DOWNLOAD_TIMEOUT = 200L;
+
     private final long DOWNLOAD_TIMEOUT;
 
     private final int MAX_QUEUED_JOBS;
     private final int MAX_PENDING_JOBS;
     private final int MAX_PENDING_BLOCKS;
 
+    private static final int HEADER_PARTS = BlockPart.parts(BlockPart.HEADER, BlockPart.VOTES);
+    private static final int BODY_PARTS = BlockPart.parts(BlockPart.TRANSACTIONS, BlockPart.RECEIPTS);
+
     private static final Random random = new Random();
 
     private Kernel kernel;
@@ -109,13 +164,36 @@ public class AlienchainSync implements SyncManager {
     // task queues
     private AtomicLong latestQueuedTask = new AtomicLong();
     private TreeSet<Long> toDownload = new TreeSet<>();
-    private Map<Long, Long> toComplete = new HashMap<>();
+    private Map<Long, Request> toComplete = new HashMap<>();
     private TreeSet<Pair<Block, Channel>> toProcess = new TreeSet<>(
             Comparator.comparingLong(o -> o.getKey().getNumber()));
     private TreeSet<Pair<Block, Channel>> currentSet = new TreeSet<>(
             Comparator.comparingLong(o -> o.getKey().getNumber()));
     private TreeMap<Long, Pair<Block, Channel>> toFinalize = new TreeMap<>();
 
+    // header-first download: the headers of the pending blocks, the blocks waiting
+    // for their body, and the body tasks
+    private TreeMap<Long, BlockHeader> headers = new TreeMap<>();
+    private TreeMap<Long, BlockParts> toAssemble = new TreeMap<>();
+    private TreeSet<Long> bodiesToDownload = new TreeSet<>();
+    private Map<Long, Request> bodiesToComplete = new HashMap<>();
+
+    // response times and throughput, by peer id
+    private Map<String, PeerStats> peerStats = new ConcurrentHashMap<>();
+
+    // the last header linked to the chain, and the header whose votes were verified
+    private long linkedNumber;
+    private byte[] linkedHash;
+    private BlockHeader proof;
+
+    // the peers which sent the dropped headers, by block number
+    private TreeMap<Long, String> dropped = new TreeMap<>();
+
+    // stateless checks of the downloaded blocks, by identity
+    private Map<Block, Future<Boolean>> checks = new ConcurrentHashMap<>();
+    private Set<Block> votesVerified = ConcurrentHashMap.newKeySet();
+    private AtomicInteger pendingChecks = new AtomicInteger();
+
     private long lastBlockInSet;
     private boolean fastSync;
     private final Object lock = new Object();
@@ -156,6 +234,16 @@ public class AlienchainSync implements SyncManager {
                 toProcess.clear();
                 currentSet.clear();
                 toFinalize.clear();
+                checks.clear();
+                votesVerified.clear();
+                headers.clear();
+                toAssemble.clear();
+                bodiesToDownload.clear();
+                bodiesToComplete.clear();
+                dropped.clear();
+                peerStats.clear();
+                proof = null;
+                resetLink();
 
                 begin.set(chain.getLatestBlockNumber() + 1);
                 current.set(chain.getLatestBlockNumber() + 1);
@@ -215,15 +303,30 @@ public class AlienchainSync implements SyncManager {
         case BLOCK: {
             BlockMessage blockMsg = (BlockMessage) msg;
             Block block = blockMsg.getBlock();
+            observe(channel, block.getNumber(), msg.getBody().length);
             synchronized (lock) {
                 if (toDownload.remove(block.getNumber())) {
                     growToDownloadQueue();
                 }
                 toComplete.remove(block.getNumber());
-                toProcess.add(Pair.of(block, channel));
+                if (toProcess.add(Pair.of(block, channel))) {
+                    check(block);
+                }
+
+                // the block replaces any download in parts
+                toAssemble.remove(block.getNumber());
+                bodiesToDownload.remove(block.getNumber());
+                bodiesToComplete.remove(block.getNumber());
+                headers.putIfAbsent(block.getNumber(), block.getHeader());
+                link();
             }
             break;
         }
+        case BLOCK_PARTS: {
+            observe(channel, ((BlockPartsMessage) msg).getNumber(), msg.getBody().length);
+            onBlockParts(channel, (BlockPartsMessage) msg);
+            break;
+        }
         case BLOCK_HEADER: {
             // TODO implement block header
             break;
@@ -242,61 +345,561 @@ public class AlienchainSync implements SyncManager {
         synchronized (lock) {
             // filter all expired tasks
             long now = TimeUtil.currentTimeMillis();
-            Iterator<Entry<Long, Long>> itr = toComplete.entrySet().iterator();
-            while (itr.hasNext()) {
-                Entry<Long, Long> entry = itr.next();
-
-                if (entry.getValue() + DOWNLOAD_TIMEOUT < now) {
-                    logger.debug("Downloading of block #{} has expired", entry.getKey());
-                    toDownload.add(entry.getKey());
-                    itr.remove();
+            expire(toComplete, toDownload, now);
+            expire(bodiesToComplete, bodiesToDownload, now);
+
+            // send one request to each idle peer, the fastest first; peers not measured
+            // yet go first, so they get measured
+            List<Channel> channels = channelMgr.getIdleChannels();
+            Collections.shuffle(channels, random);
+            channels.sort(Comparator.comparingDouble(c -> -stats(c.getRemotePeer()).getThroughput()));
+            logger.trace("Idle peers = {}", channels.size());
+
+            hedge(channels, now);
+
+            for (Channel c : channels) {
+                // quit if too many unfinished jobs
+                if (toComplete.size() + bodiesToComplete.size() > MAX_PENDING_JOBS) {
+                    logger.trace("Max pending jobs reached");
+                    return;
+                }
+
+                // quit if too many blocks being checked
+                if (pendingChecks.get() > MAX_PENDING_CHECKS) {
+                    logger.trace("Max pending checks reached");
+                    return;
                 }
+
+                request(c, now);
             }
+        }
+    }
+
+    /**
+     * Moves the expired tasks back to their download queue.
+     *
+     * @param unfinished
+     * @param queue
+     * @param now
+     */
+    private void expire(Map<Long, Request> unfinished, TreeSet<Long> queue, long now) {
+        Iterator<Entry<Long, Request>> itr = unfinished.entrySet().iterator();
+        while (itr.hasNext()) {
+            Entry<Long, Request> entry = itr.next();
+            Request r = entry.getValue();
+
+            if (r.time + r.timeout < now) {
+                logger.debug("Downloading of block #{} has expired", entry.getKey());
+                stats(r.peerId).onTimeout(r.timeout);
+                queue.add(entry.getKey());
+                itr.remove();
+            }
+        }
+    }
 
-            // quit if too many unfinished jobs
-            if (toComplete.size() > MAX_PENDING_JOBS) {
-                logger.trace("Max pending jobs reached");
+    /**
+     * Requests the first block of the window from a second peer, the fastest idle
+     * one, if the first peer is late.
+     *
+     * @param channels
+     *            the idle channels, the fastest first; the one used is removed
+     * @param now
+     */
+    private void hedge(List<Channel> channels, long now) {
+        Long number = null;
+        Request r = null;
+        for (Map<Long, Request> unfinished : Arrays.asList(toComplete, bodiesToComplete)) {
+            for (Entry<Long, Request> e : unfinished.entrySet()) {
+                if (number == null || e.getKey() < number) {
+                    number = e.getKey();
+                    r = e.getValue();
+                }
+            }
+        }
+        if (r == null || r.hedgePeerId != null || r.time + r.timeout / 2 >= now) {
+            return;
+        }
+
+        for (Iterator<Channel> itr = channels.iterator(); itr.hasNext();) {
+            Channel c = itr.next();
+            Peer peer = c.getRemotePeer();
+            if (!peer.getPeerId().equals(r.peerId) && canServe(peer, number)
+                    && (supportsParts(peer) || !(r.msg instanceof GetBlockPartsMessage))) {
+                logger.debug("Request block #{} again from {}", number, c.getRemoteIp());
+                c.getMessageQueue().sendMessage(r.msg);
+                r.hedgePeerId = peer.getPeerId();
+                r.hedgeTime = now;
+                itr.remove();
                 return;
             }
+        }
+    }
+
+    /**
+     * Sends a request to a peer.
+     *
+     * @param c
+     * @param msg
+     * @param now
+     * @return the request
+     */
+    private Request send(Channel c, Message msg, long now) {
+        String peerId = c.getRemotePeer().getPeerId();
+        c.getMessageQueue().sendMessage(msg);
+        return new Request(msg, peerId, now, stats(peerId).getTimeout(MIN_DOWNLOAD_TIMEOUT, DOWNLOAD_TIMEOUT));
+    }
+
+    /**
+     * Records the response time and size of a response to a request.
+     *
+     * @param channel
+     * @param number
+     * @param bytes
+     */
+    private void observe(Channel channel, long number, int bytes) {
+        String peerId = channel.getRemotePeer().getPeerId();
+        long sent;
+        synchronized (lock) {
+            Request r = toComplete.containsKey(number) ? toComplete.get(number) : bodiesToComplete.get(number);
+            if (r == null) {
+                return;
+            }
+            sent = peerId.equals(r.peerId) ? r.time : (peerId.equals(r.hedgePeerId) ? r.hedgeTime : -1);
+        }
+        if (sent >= 0) {
+            stats(peerId).onResponse(TimeUtil.currentTimeMillis() - sent, bytes);
+        }
+    }
+
+    private PeerStats stats(Peer peer) {
+        return stats(peer.getPeerId());
+    }
+
+    private PeerStats stats(String peerId) {
+        return peerStats.computeIfAbsent(peerId, k -> new PeerStats());
+    }
+
+    /**
+     * Sends the next request the peer can serve: the body of a block whose header
+     * is linked, or else the header of the next block, if the peer serves block
+     * parts; the whole block otherwise.
+     *
+     * @param c
+     * @param now
+     */
+    private void request(Channel c, long now) {
+        Peer peer = c.getRemotePeer();
+        boolean parts = supportsParts(peer);
+
+        if (!bodiesToDownload.isEmpty() && canServe(peer, bodiesToDownload.first())) {
+            long task = bodiesToDownload.pollFirst();
+            if (parts) {
+                logger.debug("Request body of block #{} from {}", task, c.getRemoteIp());
+                bodiesToComplete.put(task, send(c, new GetBlockPartsMessage(task, BODY_PARTS), now));
+            } else {
+                logger.debug("Request block #{} from {}", task, c.getRemoteIp());
+                bodiesToComplete.put(task, send(c, new GetBlockMessage(task), now));
+            }
+            return;
+        }
+
+        // quit if no more tasks
+        if (toDownload.isEmpty() || !canServe(peer, toDownload.first())) {
+            return;
+        }
+        long task = toDownload.first();
+
+        // a dropped header goes to another peer, if there is one
+        if (peer.getPeerId().equals(dropped.get(task)) && channelMgr.size() > 1) {
+            return;
+        }
+
+        // quit if too many pending blocks, unless the task fills a gap
+        int pendingBlocks = toProcess.size() + currentSet.size() + toFinalize.size() + toAssemble.size();
+        if (pendingBlocks > MAX_PENDING_BLOCKS && task > firstPendingBlock()) {
+            logger.trace("Max pending blocks reached");
+            return;
+        }
+
+        Request r;
+        if (parts) {
+            logger.debug("Request header of block #{} from {}", task, c.getRemoteIp());
+            r = send(c, new GetBlockPartsMessage(task, HEADER_PARTS), now);
+        } else {
+            logger.debug("Request block #{} from {}", task, c.getRemoteIp());
+            r = send(c, new GetBlockMessage(task), now);
+        }
+
+        if (toDownload.remove(task)) {
+            growToDownloadQueue();
+        }
+        toComplete.put(task, r);
+    }
+
+    /**
+     * Returns the number of the first block downloaded but not imported yet.
+     *
+     * @return
+     */
+    private long firstPendingBlock() {
+        long first = Long.MAX_VALUE;
+        if (!toProcess.isEmpty()) {
+            first = Math.min(first, toProcess.first().getKey().getNumber());
+        }
+        if (!currentSet.isEmpty()) {
+            first = Math.min(first, currentSet.first().getKey().getNumber());
+        }
+        if (!toFinalize.isEmpty()) {
+            first = Math.min(first, toFinalize.firstKey());
+        }
+        if (!toAssemble.isEmpty()) {
+            first = Math.min(first, toAssemble.firstKey());
+        }
+        return first;
+    }
 
-            // quit if no more tasks
-            if (toDownload.isEmpty()) {
+    /**
+     * Returns whether the peer can serve the block.
+     *
+     * @param peer
+     * @param number
+     * @return
+     */
+    private boolean canServe(Peer peer, long number) {
+        // skip pruned peers unless the block is recent enough
+        return peer.getLatestBlockNumber() >= number
+                && (!isPruned(peer) || peer.getLatestBlockNumber() - number < Constants.MIN_PRUNED_BLOCKS);
+    }
+
+    /**
+     * Returns whether the peer serves the parts of blocks.
+     *
+     * @param peer
+     * @return
+     */
+    protected boolean supportsParts(Peer peer) {
+        return CapabilitySet.of(peer.getCapabilities()).isSupported(Capability.FAST_SYNC);
+    }
+
+    /**
+     * Handles the parts of a block: a header with its votes, or a body.
+     *
+     * @param channel
+     * @param msg
+     */
+    protected void onBlockParts(Channel channel, BlockPartsMessage msg) {
+        long number = msg.getNumber();
+        List<BlockPart> list = BlockPart.parts(msg.getParts());
+        if (list.size() != msg.getData().size()) {
+            channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
+            return;
+        }
+        Map<BlockPart, byte[]> parts = new EnumMap<>(BlockPart.class);
+        for (int i = 0; i < list.size(); i++) {
+            parts.put(list.get(i), msg.getData().get(i));
+        }
+
+        if (parts.containsKey(BlockPart.HEADER)) {
+            onHeader(channel, number, parts.get(BlockPart.HEADER), parts.get(BlockPart.VOTES));
+        } else if (parts.containsKey(BlockPart.TRANSACTIONS) && parts.containsKey(BlockPart.RECEIPTS)) {
+            onBody(channel, number, parts.get(BlockPart.TRANSACTIONS), parts.get(BlockPart.RECEIPTS));
+        } else {
+            // the peer doesn't have the block, try another one
+            synchronized (lock) {
+                if (toComplete.remove(number) != null) {
+                    toDownload.add(number);
+                }
+                if (bodiesToComplete.remove(number) != null) {
+                    bodiesToDownload.add(number);
+                }
+            }
+        }
+    }
+
+    private void onHeader(Channel channel, long number, byte[] encodedHeader, byte[] votes) {
+        BlockParts parts;
+        try {
+            parts = new BlockParts(BlockHeader.fromBytes(encodedHeader), encodedHeader, votes, channel);
+        } catch (Exception e) {
+            parts = null;
+        }
+
+        synchronized (lock) {
+            if (number <= chain.getLatestBlockNumber() || headers.containsKey(number)) {
+                toComplete.remove(number);
                 return;
             }
-            Long task = toDownload.first();
 
-            // quit if too many pending blocks
-            int pendingBlocks = toProcess.size() + currentSet.size() + toFinalize.size();
-            if (pendingBlocks > MAX_PENDING_BLOCKS && task > toProcess.first().getKey().getNumber()) {
-                logger.trace("Max pending blocks reached");
+            // a header without votes is invalid
+            if (parts == null || parts.header.getNumber() != number || !parts.header.validate()) {
+                if (toComplete.remove(number) != null) {
+                    toDownload.add(number);
+                }
+                channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
                 return;
             }
 
-            // get idle channels
-            List<Channel> channels = channelMgr.getIdleChannels().stream()
-                    .filter(channel -> channel.getRemotePeer().getLatestBlockNumber() >= task)
-                    .collect(Collectors.toList());
-            logger.trace("Idle peers = {}", channels.size());
+            toComplete.remove(number);
+            if (toDownload.remove(number)) {
+                growToDownloadQueue();
+            }
+            dropped.remove(number);
+            headers.put(number, parts.header);
+            toAssemble.put(number, parts);
+            link();
+        }
+    }
+
+    private void onBody(Channel channel, long number, byte[] transactions, byte[] results) {
+        BlockParts parts;
+        synchronized (lock) {
+            if (bodiesToComplete.remove(number) == null) {
+                return;
+            }
+            parts = toAssemble.get(number);
+            if (parts == null) {
+                return;
+            }
+        }
+
+        // verify the body against the linked header
+        Block block;
+        try {
+            block = Block.fromComponents(parts.encodedHeader, transactions, results, parts.encodedVotes);
+        } catch (Exception e) {
+            block = null;
+        }
+        boolean valid = block != null
+                && Arrays.equals(MerkleUtil.computeTransactionsRoot(block.getTransactions()),
+                        parts.header.getTransactionsRoot())
+                && Arrays.equals(MerkleUtil.computeResultsRoot(block.getResults()), parts.header.getResultsRoot());
 
-            // quit if no idle channels.
-            if (channels.isEmpty()) {
+        synchronized (lock) {
+            if (toAssemble.get(number) != parts) {
+                return;
+            }
+            // the body doesn't match the header, download both again
+            if (!valid) {
+                logger.debug("Invalid body of block #{}", number);
+                drop(number);
+                resetLink();
+                link();
                 return;
             }
 
-            // pick a random channel
-            Channel c = channels.get(random.nextInt(channels.size()));
+            toAssemble.remove(number);
+            if (toProcess.add(Pair.of(block, parts.channel))) {
+                check(block);
+            }
+        }
+    }
 
-            // request the block
-            if (c.getRemotePeer().getLatestBlockNumber() >= task) {
-                logger.debug("Request block #{} from {}", task, c.getRemoteIp());
-                c.getMessageQueue().sendMessage(new GetBlockMessage(task));
+    /**
+     * Links the downloaded headers to the chain, and queues the bodies of the
+     * linked headers. The headers are linked back from the proof, the last header
+     * of the current validator set or the one before the target, whose votes are
+     * verified first. A header which doesn't match its child, or a proof with
+     * invalid votes, is dropped.
+     */
+    private void link() {
+        long latest = chain.getLatestBlockNumber();
+        if (linkedNumber < latest) {
+            resetLink();
+        }
 
-                if (toDownload.remove(task)) {
-                    growToDownloadQueue();
+        long interval = config.getValidatorUpdateInterval();
+        long end = Math.min((latest / interval + 1) * interval, target.get() - 1);
+        BlockHeader header = headers.get(end);
+        if (linkedNumber >= end || header == null) {
+            return;
+        }
+        if (header != proof) {
+            if (!validateProof(end)) {
+                drop(end);
+                return;
+            }
+            proof = header;
+        }
+
+        byte[] hash = header.getParentHash();
+        for (long n = end - 1; n > linkedNumber; n--) {
+            BlockHeader h = headers.get(n);
+            if (h == null) {
+                return;
+            }
+            if (!Arrays.equals(h.getHash(), hash)) {
+                drop(n);
+                return;
+            }
+            hash = h.getParentHash();
+        }
+        if (!Arrays.equals(hash, linkedHash)) {
+            drop(end);
+            return;
+        }
+
+        for (long n = linkedNumber + 1; n <= end; n++) {
+            if (toAssemble.containsKey(n) && !bodiesToComplete.containsKey(n)) {
+                bodiesToDownload.add(n);
+            }
+        }
+        linkedNumber = end;
+        linkedHash = header.getHash();
+    }
+
+    /**
+     * Verifies the votes of the proof against the current validators.
+     *
+     * @param number
+     * @return
+     */
+    private boolean validateProof(long number) {
+        BlockParts parts = toAssemble.get(number);
+        if (parts != null) {
+            return validateVotes(number, parts.view, parts.header.getHash(), parts.votes, false);
+        }
+
+        // whole blocks are verified when processed
+        Pair<Block, Channel> p = pending(number);
+        return p == null || validateBlockVotes(p.getKey());
+    }
+
+    /**
+     * Drops an invalid header and downloads it again, from another peer if there
+     * is one. The peer which sent it is pushed back, or disconnected if it sent the
+     * whole block.
+     *
+     * @param number
+     */
+    private void drop(long number) {
+        BlockParts parts = toAssemble.remove(number);
+        if (parts == null) {
+            Pair<Block, Channel> p = pending(number);
+            if (p != null) {
+                handleInvalidBlock(p.getKey(), p.getValue());
+            }
+            return;
+        }
+
+        logger.debug("Invalid header of block #{} from {}", number, parts.channel.getRemoteIp());
+        headers.remove(number);
+        bodiesToDownload.remove(number);
+        bodiesToComplete.remove(number);
+        toComplete.remove(number);
+        toDownload.add(number);
+        dropped.put(number, parts.channel.getRemotePeer().getPeerId());
+        stats(parts.channel.getRemotePeer()).onInvalid();
+    }
+
+    /**
+     * Returns the whole block downloaded at the given height, if any.
+     *
+     * @param number
+     * @return
+     */
+    private Pair<Block, Channel> pending(long number) {
+        for (TreeSet<Pair<Block, Channel>> set : Arrays.asList(toProcess, currentSet)) {
+            for (Pair<Block, Channel> p : set) {
+                if (p.getKey().getNumber() == number) {
+                    return p;
                 }
-                toComplete.put(task, TimeUtil.currentTimeMillis());
             }
         }
+        return null;
+    }
+
+    private void resetLink() {
+        Block latest = chain.getLatestBlock();
+        linkedNumber = latest.getNumber();
+        linkedHash = latest.getHash();
+    }
+
+    /**
+     * Returns whether the peer only keeps the bodies of recent blocks.
+     *
+     * @param peer
+     * @return
+     */
+    protected boolean isPruned(Peer peer) {
+        return CapabilitySet.of(peer.getCapabilities()).isSupported(Capability.PRUNED);
+    }
+
+    /**
+     * Submits the stateless checks of a downloaded block to the checkers.
+     *
+     * @param block
+     */
+    protected void check(Block block) {
+        pendingChecks.incrementAndGet();
+        checks.put(block, checker.submit(() -> {
+            try {
+                return checkBlock(block);
+            } finally {
+                pendingChecks.decrementAndGet();
+            }
+        }));
+    }
+
+    /**
+     * Checks what can be checked without the parent state: the header format, the
+     * Merkle roots and the transaction signatures, which are cached for the
+     * validation that follows. Vote signatures are verified as well, but only
+     * recorded, as fast sync doesn't require the votes of every block.
+     *
+     * @param block
+     * @return
+     */
+    protected boolean checkBlock(Block block) {
+        BlockHeader header = block.getHeader();
+        if (!header.validate()
+                || !block.validateTransactions(header, block.getTransactions(), config.network())
+                || !block.validateResults(header, block.getResults())) {
+            return false;
+        }
+
+        byte[] encoded = new Vote(VoteType.PRECOMMIT, Vote.VALUE_APPROVE, block.getNumber(), block.getView(),
+                block.getHash()).getEncoded();
+        List<Signature> votes = block.getVotes();
+        if (BatchVerifier.verifyAll(Collections.nCopies(votes.size(), encoded), votes)) {
+            votesVerified.add(block);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the checks of a block have passed, or null if they are still
+     * running. Blocks never submitted pass.
+     *
+     * @param block
+     * @return
+     */
+    protected Boolean isChecked(Block block) {
+        Future<Boolean> f = checks.get(block);
+        if (f == null) {
+            return true;
+        } else if (!f.isDone()) {
+            return null;
+        }
+
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("Failed to check block #{}", block.getNumber(), e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * Drops the check results of the blocks up to the given height.
+     *
+     * @param number
+     */
+    private void forgetChecks(long number) {
+        checks.keySet().removeIf(b -> b.getNumber() <= number);
+        votesVerified.removeIf(b -> b.getNumber() <= number);
     }
 
     /**
@@ -392,6 +995,10 @@ public class AlienchainSync implements SyncManager {
                 if (p.getKey().getNumber() <= latest) {
                     blocksToApplyIterator.remove();
                 } else if (p.getKey().getNumber() == latest + 1) {
+                    // wait until the block is checked
+                    if (isChecked(p.getKey()) == null) {
+                        break;
+                    }
                     toFinalize.remove(p.getKey().getNumber());
                     toProcess.remove(p);
                     pair = p;
@@ -405,8 +1012,13 @@ public class AlienchainSync implements SyncManager {
         // Validate and apply block to the chain
         if (pair != null) {
             // If fastSync is true - skip vote validation
-            if (validateApplyBlock(pair.getKey(), !fastSync)) {
+            if (isChecked(pair.getKey()) && validateApplyBlock(pair.getKey(), !fastSync)) {
+                forgetChecks(pair.getKey().getNumber());
                 synchronized (lock) {
+                    headers.headMap(pair.getKey().getNumber(), true).clear();
+                    dropped.headMap(pair.getKey().getNumber(), true).clear();
+                    // the next validator set can be linked once the current one is imported
+                    link();
                     if (toDownload.remove(pair.getKey().getNumber())) {
                         growToDownloadQueue();
                     }
@@ -477,7 +1089,15 @@ public class AlienchainSync implements SyncManager {
             currentSet.remove(Pair.of(block, channel));
             toFinalize.remove(block.getNumber(), Pair.of(block, channel));
             toProcess.remove(Pair.of(block, channel));
+            toAssemble.remove(block.getNumber());
+            bodiesToDownload.remove(block.getNumber());
+            bodiesToComplete.remove(block.getNumber());
+            headers.remove(block.getNumber(), block.getHeader());
+            resetLink();
+            link();
         }
+        checks.remove(block);
+        votesVerified.remove(block);
         // disconnect if the peer sends us invalid block
         channel.getMessageQueue().disconnect(ReasonCode.BAD_PEER);
     }
@@ -557,7 +1177,7 @@ public class AlienchainSync implements SyncManager {
             return false;
         }
 
-        if (transactions.stream().anyMatch(tx -> chain.hasTransaction(tx.getHash()))) {
+        if (chain.hasAnyTransaction(transactions.stream().map(Transaction::getHash).collect(Collectors.toList()))) {
             logger.error("Duplicated transaction hash is not allowed");
             return false;
         }
@@ -585,7 +1205,27 @@ public class AlienchainSync implements SyncManager {
     }
 
     protected boolean validateBlockVotes(Block block) {
-        int maxValidators = config.getNumberOfValidators(block.getNumber());
+        if (!validateVotes(block.getNumber(), block.getView(), block.getHash(), block.getVotes(),
+                votesVerified.contains(block))) {
+            logger.warn("Invalid votes of block = {}", block);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Validates the votes of a block against the current validators.
+     *
+     * @param number
+     * @param view
+     * @param hash
+     * @param votes
+     * @param verified
+     *            whether the signatures are verified already
+     * @return
+     */
+    protected boolean validateVotes(long number, int view, byte[] hash, List<Signature> votes, boolean verified) {
+        int maxValidators = config.getNumberOfValidators(number);
 
         List<String> validatorList = chain.getValidators();
 
@@ -596,22 +1236,21 @@ public class AlienchainSync implements SyncManager {
 
         int twoThirds = (int) Math.ceil(validators.size() * 2.0 / 3.0);
 
-        Vote vote = new Vote(VoteType.PRECOMMIT, Vote.VALUE_APPROVE, block.getNumber(), block.getView(),
-                block.getHash());
+        Vote vote = new Vote(VoteType.PRECOMMIT, Vote.VALUE_APPROVE, number, view, hash);
         byte[] encoded = vote.getEncoded();
 
         // check validity of votes
-        if (!block.getVotes().stream()
-                .allMatch(sig -> Key.verify(encoded, sig) && validators.contains(Hex.encode(sig.getAddress())))) {
+        if (!votes.stream().allMatch(sig -> validators.contains(Hex.encode(sig.getAddress())))
+                || (!verified && !BatchVerifier.verifyAll(Collections.nCopies(votes.size(), encoded), votes))) {
             logger.warn("Block votes are invalid");
             return false;
         }
 
         // at least two thirds voters
-        if (block.getVotes().stream()
+        if (votes.stream()
                 .map(sig -> new ByteArray(sig.getA()))
                 .collect(Collectors.toSet()).size() < twoThirds) {
-            logger.warn("Not enough votes, needs 2/3+ twoThirds = {}, block = {}", twoThirds, block);
+            logger.warn("Not enough votes, needs 2/3+ twoThirds = {}, block #{}", twoThirds, number);
             return false;
         }
 
@@ -656,6 +1295,138 @@ public class AlienchainSync implements SyncManager {
                 Duration.between(beginningInstant != null ? beginningInstant : Instant.now(), Instant.now()));
     }
 
+    /**
+     * A request sent to a peer, and possibly to a second one.
+     */
+    private static class Request {
+        final Message msg;
+        final String peerId;
+        final long time;
+        final long timeout;
+
+        String hedgePeerId;
+        long hedgeTime;
+
+        Request(Message msg, String peerId, long time, long timeout) {
+            this.msg = msg;
+            this.peerId = peerId;
+            this.time = time;
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * Moving averages of the response time, its deviation and the throughput of a
+     * peer.
+     */
+    static class PeerStats {
+        private static final double ALPHA = 0.125;
+        private static final double BETA = 0.25;
+
+        private double responseTime = -1;
+        private double deviation;
+        private double throughput = Double.MAX_VALUE;
+
+        /**
+         * Records a response.
+         *
+         * @param millis
+         *            the response time
+         * @param bytes
+         *            the size of the response
+         */
+        synchronized void onResponse(long millis, int bytes) {
+            millis = Math.max(millis, 1);
+            double rate = bytes * 1000.0 / millis;
+            if (responseTime < 0) {
+                responseTime = millis;
+                deviation = millis / 2.0;
+                throughput = rate;
+            } else {
+                deviation += BETA * (Math.abs(millis - responseTime) - deviation);
+                responseTime += ALPHA * (millis - responseTime);
+                throughput += ALPHA * (rate - throughput);
+            }
+        }
+
+        /**
+         * Records a request which timed out.
+         *
+         * @param timeout
+         */
+        synchronized void onTimeout(long timeout) {
+            if (responseTime < 0) {
+                responseTime = timeout;
+                deviation = timeout / 2.0;
+                throughput = 0;
+            } else {
+                responseTime = Math.max(responseTime, timeout);
+                throughput /= 2;
+            }
+        }
+
+        /**
+         * Records an invalid response; the peer goes last until it responds again.
+         */
+        synchronized void onInvalid() {
+            throughput = 0;
+        }
+
+        /**
+         * Returns the bytes per second, or {@link Double#MAX_VALUE} if unknown.
+         *
+         * @return
+         */
+        synchronized double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * Returns the timeout for the next request.
+         *
+         * @param min
+         * @param max
+         *            the timeout if unknown
+         * @return
+         */
+        synchronized long getTimeout(long min, long max) {
+            if (responseTime < 0) {
+                return max;
+            }
+            return Math.max(min, Math.min(max, (long) (responseTime + 4 * deviation)));
+        }
+    }
+
+    /**
+     * A block downloaded in parts, waiting for its body.
+     */
+    private static class BlockParts {
+        final BlockHeader header;
+        final byte[] encodedHeader;
+        final byte[] encodedVotes;
+        final int view;
+        final List<Signature> votes = new ArrayList<>();
+        final Channel channel;
+
+        /**
+         * @throws RuntimeException
+         *             if the votes are missing or malformed
+         */
+        BlockParts(BlockHeader header, byte[] encodedHeader, byte[] encodedVotes, Channel channel) {
+            this.header = header;
+            this.encodedHeader = encodedHeader;
+            this.encodedVotes = encodedVotes;
+            this.channel = channel;
+
+            SimpleDecoder dec = new SimpleDecoder(encodedVotes);
+            this.view = dec.readInt();
+            int n = dec.readInt();
+            for (int i = 0; i < n; i++) {
+                votes.add(Signature.fromBytes(dec.readBytes()));
+            }
+        }
+    }
+
     public static class AlienchainSyncProgress implements Progress {
 
         final long startingHeight;
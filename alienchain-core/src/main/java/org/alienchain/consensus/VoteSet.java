@@ -7,14 +7,17 @@
 package org.alienchain.consensus;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.alienchain.crypto.BatchVerifier;
+import org.alienchain.crypto.CryptoException;
 import org.alienchain.crypto.Hex;
 import org.alienchain.crypto.Key.Signature;
 import org.alienchain.util.ByteArray;
@@ -26,18 +29,26 @@ import org.alienchain.util.ByteArray;
  * votes are not. This class is not thread-safe.
  * </p>
  *
+ * <p>
+ * Voters are identified by their index in the validator list, see
+ * {@link Validators}; each group of votes keeps a bit set of its voters and a
+ * count, so the quorum checks take constant time.
+ * </p>
  */
 public class VoteSet {
 
-    private final Map<ByteArray, Map<String, Vote>> approvals;
-    private final Map<String, Vote> rejections;
+    private final Map<ByteArray, Votes> approvals;
+    private final Votes rejections;
     private final VoteType type;
     private final long height;
     private final int view;
 
-    private final Set<String> validators;
+    private final Validators validators;
     private final int twoThirds;
 
+    // the first block hash approved by +2/3 validators
+    private byte[] approved;
+
     /**
      * Create a vote set.
      * 
@@ -46,13 +57,24 @@ public class VoteSet {
      * @param validators
      */
     public VoteSet(VoteType type, long height, int view, List<String> validators) {
+        this(type, height, view, new Validators(validators));
+    }
+
+    /**
+     * Create a vote set.
+     *
+     * @param height
+     * @param view
+     * @param validators
+     */
+    public VoteSet(VoteType type, long height, int view, Validators validators) {
         this.approvals = new HashMap<>();
-        this.rejections = new HashMap<>();
+        this.rejections = new Votes(validators.size());
         this.type = type;
         this.height = height;
         this.view = view;
 
-        this.validators = new HashSet<>(validators);
+        this.validators = validators;
         this.twoThirds = (int) Math.ceil(validators.size() * 2.0 / 3.0);
     }
 
@@ -67,37 +89,47 @@ public class VoteSet {
     public boolean addVote(Vote vote) {
         Signature sig = vote.getSignature();
 
-        if (vote.getType() == type &&
-                vote.getHeight() == height
-                && vote.getView() == view
-                && vote.getBlockHash() != null
-                && vote.validate()
-                && sig != null
-                && validators.contains(Hex.encode(sig.getAddress()))) {
-            String peerId = Hex.encode(sig.getAddress());
-
-            if (vote.getValue() == Vote.VALUE_APPROVE) {
-                ByteArray key = ByteArray.of(vote.getBlockHash());
-                Map<String, Vote> map = approvals.computeIfAbsent(key, k -> new HashMap<>());
-                return map.put(peerId, vote) == null;
-            } else {
-                return rejections.put(peerId, vote) == null;
-            }
+        if (vote.getType() != type
+                || vote.getHeight() != height
+                || vote.getView() != view
+                || vote.getBlockHash() == null
+                || sig == null) {
+            return false;
+        }
+
+        int index = validators.indexOf(sig);
+        if (index < 0) {
+            return false;
         }
 
-        return false;
+        if (vote.getValue() == Vote.VALUE_APPROVE) {
+            ByteArray key = ByteArray.of(vote.getBlockHash());
+            Votes votes = approvals.computeIfAbsent(key, k -> new Votes(validators.size()));
+            if (!votes.add(index, vote)) {
+                return false;
+            }
+            if (approved == null && votes.count >= getTwoThirds()) {
+                approved = vote.getBlockHash();
+            }
+            return true;
+        } else {
+            return rejections.add(index, vote);
+        }
     }
 
     /**
-     * Add votes to this set, by iteratively calling {@link #addVote(Vote)}.
+     * Add votes to this set, after verifying their signatures in batch.
      * 
      * @param votes
      * @return Number of votes added
      */
     public int addVotes(Collection<Vote> votes) {
+        List<Vote> list = new ArrayList<>(votes);
+        boolean[] valid = BatchVerifier.validate(list, Vote::validate);
+
         int n = 0;
-        for (Vote v : votes) {
-            n += addVote(v) ? 1 : 0;
+        for (int i = 0; i < list.size(); i++) {
+            n += valid[i] && addVote(list.get(i)) ? 1 : 0;
         }
         return n;
     }
@@ -109,8 +141,8 @@ public class VoteSet {
      * @return
      */
     public boolean isApproved(byte[] blockHash) {
-        Map<String, Vote> v = approvals.get(ByteArray.of(blockHash));
-        return v != null && v.size() >= getTwoThirds();
+        Votes v = approvals.get(ByteArray.of(blockHash));
+        return v != null && v.count >= getTwoThirds();
     }
 
     /**
@@ -119,7 +151,7 @@ public class VoteSet {
      * @return
      */
     public boolean isRejected() {
-        return rejections.size() >= getTwoThirds();
+        return rejections.count >= getTwoThirds();
     }
 
     /**
@@ -128,14 +160,7 @@ public class VoteSet {
      * @return
      */
     public Optional<byte[]> anyApproved() {
-        for (Map.Entry<ByteArray, Map<String, Vote>> e : approvals.entrySet()) {
-            Map<String, Vote> v = e.getValue();
-            if (v.size() >= getTwoThirds()) {
-                return Optional.of(e.getKey().getData());
-            }
-        }
-
-        return Optional.empty();
+        return Optional.ofNullable(approved);
     }
 
     /**
@@ -144,6 +169,7 @@ public class VoteSet {
     public void clear() {
         approvals.clear();
         rejections.clear();
+        approved = null;
     }
 
     /**
@@ -152,8 +178,8 @@ public class VoteSet {
      * @return
      */
     public List<Vote> getApprovals(byte[] blockHash) {
-        Map<String, Vote> map = approvals.get(ByteArray.of(blockHash));
-        return map == null ? new ArrayList<>() : new ArrayList<>(map.values());
+        Votes votes = approvals.get(ByteArray.of(blockHash));
+        return votes == null ? new ArrayList<>() : votes.toList();
     }
 
     /**
@@ -162,7 +188,7 @@ public class VoteSet {
      * @return
      */
     public List<Vote> getRejections() {
-        return new ArrayList<>(rejections.values());
+        return rejections.toList();
     }
 
     /**
@@ -180,15 +206,123 @@ public class VoteSet {
      * @return
      */
     public int size() {
-        return approvals.size() + rejections.size();
+        return approvals.size() + rejections.count;
     }
 
     @Override
     public String toString() {
         int count = 0;
-        for (Map<String, Vote> map : approvals.values()) {
-            count = Math.max(count, map.size());
+        for (Votes votes : approvals.values()) {
+            count = Math.max(count, votes.count);
+        }
+        return "[" + count + ", " + rejections.count + "]";
+    }
+
+    /**
+     * The votes of a group, indexed by validator.
+     */
+    private static class Votes {
+        private final BitSet voters = new BitSet();
+        private final Vote[] votes;
+        private int count;
+
+        Votes(int size) {
+            this.votes = new Vote[size];
+        }
+
+        boolean add(int index, Vote vote) {
+            if (voters.get(index)) {
+                votes[index] = vote;
+                return false;
+            }
+            voters.set(index);
+            votes[index] = vote;
+            count++;
+            return true;
+        }
+
+        void clear() {
+            voters.clear();
+            Arrays.fill(votes, null);
+            count = 0;
+        }
+
+        List<Vote> toList() {
+            List<Vote> list = new ArrayList<>(count);
+            for (int i = voters.nextSetBit(0); i >= 0; i = voters.nextSetBit(i + 1)) {
+                list.add(votes[i]);
+            }
+            return list;
+        }
+    }
+
+    /**
+     * A validator set, mapping each validator to its index in the list. It is built
+     * once per validator set and shared by the vote sets.
+     */
+    public static class Validators {
+        private final List<String> list;
+        private final Map<ByteArray, Integer> addresses = new HashMap<>();
+
+        // index by public key, filled as the validators sign
+        private final Map<ByteArray, Integer> keys = new ConcurrentHashMap<>();
+
+        public Validators(List<String> list) {
+            this.list = new ArrayList<>(list);
+            for (int i = 0; i < list.size(); i++) {
+                try {
+                    addresses.putIfAbsent(ByteArray.of(Hex.decode0x(list.get(i))), i);
+                } catch (CryptoException e) {
+                    // not an address, no vote can match it
+                }
+            }
+        }
+
+        /**
+         * Returns the index of the signer, or -1 if not a validator.
+         *
+         * @param sig
+         * @return
+         */
+        public int indexOf(Signature sig) {
+            ByteArray key = ByteArray.of(sig.getA());
+            Integer index = keys.get(key);
+            if (index == null) {
+                index = addresses.get(ByteArray.of(sig.getAddress()));
+                if (index == null) {
+                    return -1;
+                }
+                keys.put(key, index);
+            }
+            return index;
+        }
+
+        /**
+         * Returns whether the signer is a validator.
+         *
+         * @param sig
+         * @return
+         */
+        public boolean contains(Signature sig) {
+            return indexOf(sig) >= 0;
+        }
+
+        /**
+         * Returns the validator list.
+         *
+         * @return
+         */
+        public List<String> getList() {
+            return list;
+        }
+
+        /**
+         * Returns the number of validators.
+         *
+         * @return
+         */
+        public int size() {
+            return list.size();
         }
-        return "[" + count + ", " + rejections.size() + "]";
     }
 }
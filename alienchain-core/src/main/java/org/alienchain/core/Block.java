@@ -16,6 +16,7 @@ import java.util.List;
 
 import org.alienchain.Network;
 import org.alienchain.config.Config;
+import org.alienchain.crypto.BatchVerifier;
 import org.alienchain.crypto.Hex;
 import org.alienchain.crypto.Key.Signature;
 import org.alienchain.util.MerkleUtil;
@@ -47,7 +48,7 @@ public class Block {
             return result;
         }
 
-        public List<BlockPart> parts(int parts) {
+        public static List<BlockPart> parts(int parts) {
             List<BlockPart> result = new ArrayList<>();
             // NOTE: values() returns an array containing all of the values of the enum type
             // in the order they are declared.
@@ -170,7 +171,7 @@ public class Block {
     }
 
     /**
-     * Validates transactions in parallel.
+     * Validates transactions in parallel, on the verification pool.
      *
      * @param header
      * @param transactions
@@ -198,7 +199,8 @@ public class Block {
     public boolean validateTransactions(BlockHeader header, Collection<Transaction> unvalidatedTransactions,
             List<Transaction> allTransactions, Network network) {
         // validate transactions
-        boolean valid = unvalidatedTransactions.parallelStream().allMatch(tx -> tx.validate(network));
+        boolean valid = BatchVerifier.validateAll(new ArrayList<>(unvalidatedTransactions),
+                tx -> tx.validate(network));
         if (!valid) {
             return false;
         }
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.core;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.alienchain.Kernel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Block pruner deletes the bodies of old blocks in background, a small batch at
+ * a time, so that pruning never competes with block processing for disk I/O.
+ */
+public class BlockPruner implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockPruner.class);
+
+    private static final ThreadFactory factory = r -> new Thread(r, "pruner");
+
+    /**
+     * Max number of blocks pruned per run.
+     */
+    private static final int BATCH_SIZE = 64;
+
+    /**
+     * Interval between runs, in milliseconds.
+     */
+    private static final long INTERVAL = 500;
+
+    private final Kernel kernel;
+
+    private final ScheduledExecutorService exec;
+
+    private ScheduledFuture<?> pruneFuture;
+
+    private volatile boolean isRunning;
+
+    /**
+     * Creates a block pruner.
+     */
+    public BlockPruner(Kernel kernel) {
+        this.kernel = kernel;
+        this.exec = Executors.newSingleThreadScheduledExecutor(factory);
+    }
+
+    /**
+     * Starts this block pruner.
+     */
+    public synchronized void start() {
+        if (!isRunning) {
+            this.pruneFuture = exec.scheduleWithFixedDelay(this, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+
+            logger.info("Block pruner started, keeping the last {} blocks", kernel.getConfig().dbPruneBlocks());
+            this.isRunning = true;
+        }
+    }
+
+    /**
+     * Shuts down this block pruner.
+     */
+    public synchronized void stop() {
+        if (isRunning) {
+            pruneFuture.cancel(false);
+            exec.shutdown();
+            try {
+                exec.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            logger.debug("Block pruner stopped");
+            isRunning = false;
+        }
+    }
+
+    /**
+     * Returns whether the block pruner is running or not.
+     *
+     * @return
+     */
+    public synchronized boolean isRunning() {
+        return isRunning;
+    }
+
+    @Override
+    public void run() {
+        try {
+            int n = kernel.getBlockchain().pruneBlocks(BATCH_SIZE);
+            if (n > 0) {
+                logger.debug("Pruned {} blocks", n);
+            }
+        } catch (Exception e) {
+            logger.error("Failed to prune blocks", e);
+        }
+    }
+}
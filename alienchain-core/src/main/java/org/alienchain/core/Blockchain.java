@@ -66,6 +66,17 @@ public interface Blockchain {
      */
     Block getBlock(byte[] hash);
 
+    /**
+     * Returns the encoded parts of a block.
+     *
+     * @param number
+     * @param parts
+     *            the parts, see {@link Block.BlockPart#parts(Block.BlockPart...)}
+     * @return the encoded parts in the order of {@link Block.BlockPart}, null for
+     *         a part that doesn't exist, e.g. pruned
+     */
+    List<byte[]> getBlockParts(long number, int parts);
+
     /**
      * Returns block header by block number.
      * 
@@ -74,6 +85,14 @@ public interface Blockchain {
      */
     BlockHeader getBlockHeader(long number);
 
+    /**
+     * Returns the hash of a block by block number.
+     *
+     * @param number
+     * @return the block hash, or null if the block doesn't exist
+     */
+    byte[] getBlockHash(long number);
+
     /**
      * Returns block header by block hash.
      * 
@@ -116,6 +135,14 @@ public interface Blockchain {
      */
     boolean hasTransaction(byte[] hash);
 
+    /**
+     * Returns whether any of the transactions is in the blockchain.
+     *
+     * @param hashes
+     * @return
+     */
+    boolean hasAnyTransaction(List<byte[]> hashes);
+
     /**
      * Returns transaction result.
      * 
@@ -213,4 +240,21 @@ public interface Blockchain {
     boolean isForkActivated(Fork fork);
 
     byte[] constructBlockData();
+
+    /**
+     * Persists the in-memory indices of the blockchain. The databases are closed
+     * by their factory.
+     */
+    void close();
+
+    /**
+     * Deletes the transactions, results and votes of the blocks which are out of
+     * the pruning window, along with their transaction indices. Headers are always
+     * kept. Does nothing if pruning is disabled.
+     *
+     * @param limit
+     *            the maximum number of blocks to prune
+     * @return the number of blocks pruned
+     */
+    int pruneBlocks(int limit);
 }
@@ -9,8 +9,11 @@ package org.alienchain.core;
 import static org.alienchain.core.Fork.UNIFORM_DISTRIBUTION;
 import static org.alienchain.core.Fork.VIRTUAL_MACHINE;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -19,11 +22,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.alienchain.config.Config;
 import org.alienchain.config.Constants;
 import org.alienchain.core.Genesis.Premine;
-import org.alienchain.core.event.BlockchainDatabaseUpgradingEvent;
 import org.alienchain.core.exception.BlockchainException;
 import org.alienchain.core.state.AccountState;
 import org.alienchain.core.state.AccountStateImpl;
@@ -31,17 +34,23 @@ import org.alienchain.core.state.Delegate;
 import org.alienchain.core.state.DelegateState;
 import org.alienchain.core.state.DelegateStateImpl;
 import org.alienchain.crypto.Hex;
+import org.alienchain.db.BatchedDatabase.BatchedFactory;
 import org.alienchain.db.Database;
 import org.alienchain.db.DatabaseFactory;
 import org.alienchain.db.DatabaseName;
-import org.alienchain.db.LeveldbDatabase;
-import org.alienchain.db.Migration;
-import org.alienchain.event.PubSub;
-import org.alienchain.event.PubSubFactory;
+import org.alienchain.db.PipelinedMigration;
+import org.alienchain.db.exception.DatabaseException;
+import org.alienchain.util.ByteArray;
 import org.alienchain.util.Bytes;
+import org.alienchain.util.ClosableIterator;
+import org.alienchain.util.IOUtil;
+import org.alienchain.util.MerkleUtil;
+import org.alienchain.util.ScalableBloomFilter;
 import org.alienchain.util.SimpleDecoder;
 import org.alienchain.util.SimpleEncoder;
+import org.alienchain.util.SystemUtil;
 import org.alienchain.util.TimeUtil;
+import org.alienchain.util.exception.UnreachableException;
 import org.alienchain.vm.client.AlienchainBlock;
 import org.alienchain.vm.client.AlienchainBlockStore;
 import org.apache.commons.lang3.tuple.Pair;
@@ -49,6 +58,10 @@ import org.ethereum.vm.client.BlockStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
 /**
  * Blockchain implementation.
  *
@@ -63,7 +76,9 @@ import org.slf4j.LoggerFactory;
  * [4, transaction_hash] => [block_number, from, to] | [coinbase_transaction]
  * [5, address, n] => [transaction_hash]
  * [7] => [activated forks]
+ * [8] => [first_unpruned_block_number]
  *
+ * [0xfe] => [commit journal]
  * [0xff] => [database version]
  * </pre>
  *
@@ -90,6 +105,8 @@ public class BlockchainImpl implements Blockchain {
     protected static final byte TYPE_ACCOUNT_TRANSACTION = 0x05;
     protected static final byte TYPE_ACTIVATED_FORKS = 0x06;
     protected static final byte TYPE_COINBASE_TRANSACTION_HASH = 0x07;
+    protected static final byte TYPE_FIRST_UNPRUNED_BLOCK = 0x08;
+    protected static final byte TYPE_COMMIT_JOURNAL = (byte) 0xfe;
     protected static final byte TYPE_DATABASE_VERSION = (byte) 0xff;
 
     protected static final byte TYPE_BLOCK_HEADER = 0x00;
@@ -97,6 +114,22 @@ public class BlockchainImpl implements Blockchain {
     protected static final byte TYPE_BLOCK_RESULTS = 0x02;
     protected static final byte TYPE_BLOCK_VOTES = 0x03;
 
+    /**
+     * Number of recent block hashes kept in memory, which covers the window of the
+     * BLOCKHASH opcode.
+     */
+    protected static final int RECENT_HASHES = 256;
+
+    protected static final String TX_FILTER_FILE = "tx_filter.dat";
+    protected static final long TX_FILTER_CAPACITY = 1_000_000;
+    protected static final double TX_FILTER_FPP = 0.001;
+
+    /**
+     * Max number of blocks replayed into a stale transaction filter, before
+     * rebuilding it from the index instead.
+     */
+    protected static final long TX_FILTER_MAX_REPLAY = 10_000;
+
     private BlockStore blockStore = new AlienchainBlockStore(this);
 
     protected enum StatsType {
@@ -107,16 +140,34 @@ public class BlockchainImpl implements Blockchain {
     private final Config config;
     private final Genesis genesis;
 
+    private BatchedFactory batchedFactory;
+    private DatabaseFactory dbFactory;
+
     private Database indexDB;
     private Database blockDB;
 
-    private AccountState accountState;
-    private DelegateState delegateState;
+    private AccountStateImpl accountState;
+    private DelegateStateImpl delegateState;
 
     private Block latestBlock;
 
     private ActivatedForks forks;
 
+    /**
+     * Blocks are immutable once added, so the caches are only invalidated by
+     * {@link #addBlock(Block)}.
+     */
+    private final Cache<Long, BlockHeader> headerCache;
+    private final Cache<ByteArray, byte[]> blockPartCache;
+    private final AtomicReferenceArray<BlockHeader> recentHeaders = new AtomicReferenceArray<>(RECENT_HASHES);
+
+    /**
+     * Bloom filter of all the transaction hashes, so that most negative lookups
+     * don't touch the database.
+     */
+    private ScalableBloomFilter txFilter;
+    private File txFilterFile;
+
     public BlockchainImpl(Config config, DatabaseFactory dbFactory) {
         this(config, Genesis.load(config.network()), dbFactory);
     }
@@ -124,16 +175,38 @@ public class BlockchainImpl implements Blockchain {
     public BlockchainImpl(Config config, Genesis genesis, DatabaseFactory dbFactory) {
         this.config = config;
         this.genesis = genesis;
+
+        // 1/8 of the cache for decoded headers, the rest for encoded block parts
+        long cacheSize = config.dbBlockCacheSize();
+        this.headerCache = Caffeine.newBuilder()
+                .maximumWeight(cacheSize / 8)
+                .weigher((Long k, BlockHeader v) -> 256 + v.getData().length)
+                .recordStats()
+                .build();
+        this.blockPartCache = Caffeine.newBuilder()
+                .maximumWeight(cacheSize - cacheSize / 8)
+                .weigher((ByteArray k, byte[] v) -> 64 + v.length)
+                .recordStats()
+                .build();
+
         openDb(dbFactory);
     }
 
     private synchronized void openDb(DatabaseFactory factory) {
-        this.indexDB = factory.getDB(DatabaseName.INDEX);
-        this.blockDB = factory.getDB(DatabaseName.BLOCK);
+        // all writes are staged until the block is committed by addBlock(); the block
+        // parts are only reachable through the index, and are written ahead of it
+        this.dbFactory = factory;
+        this.batchedFactory = new BatchedFactory(factory, DatabaseName.INDEX, Bytes.of(TYPE_COMMIT_JOURNAL),
+                DatabaseName.BLOCK);
+
+        this.indexDB = batchedFactory.getDB(DatabaseName.INDEX);
+        this.blockDB = batchedFactory.getDB(DatabaseName.BLOCK);
 
-        this.accountState = new AccountStateImpl(factory.getDB(DatabaseName.ACCOUNT));
-        this.delegateState = new DelegateStateImpl(this, factory.getDB(DatabaseName.DELEGATE),
-                factory.getDB(DatabaseName.VOTE));
+        this.txFilterFile = new File(factory.getDataDir().toFile(), TX_FILTER_FILE);
+
+        this.accountState = new AccountStateImpl(batchedFactory.getDB(DatabaseName.ACCOUNT));
+        this.delegateState = new DelegateStateImpl(this, batchedFactory.getDB(DatabaseName.DELEGATE),
+                batchedFactory.getDB(DatabaseName.VOTE));
 
         // checks if the database needs to be initialized
         byte[] number = indexDB.get(Bytes.of(TYPE_LATEST_BLOCK_NUMBER));
@@ -143,6 +216,7 @@ public class BlockchainImpl implements Blockchain {
 
         // initialize the database for the first time
         if (number == null || number.length == 0) {
+            txFilter = new ScalableBloomFilter(TX_FILTER_CAPACITY, TX_FILTER_FPP);
             initializeDb();
             return;
         }
@@ -150,6 +224,19 @@ public class BlockchainImpl implements Blockchain {
         // load the latest block
         latestBlock = getBlock(Bytes.toLong(number));
 
+        // drop the parts written ahead by an interrupted commit
+        byte[] next = Bytes.of(latestBlock.getNumber() + 1);
+        if (blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER, next)) != null) {
+            for (byte type : new byte[] { TYPE_BLOCK_HEADER, TYPE_BLOCK_TRANSACTIONS, TYPE_BLOCK_RESULTS,
+                    TYPE_BLOCK_VOTES }) {
+                blockDB.delete(Bytes.merge(type, next));
+            }
+            batchedFactory.commit();
+        }
+
+        // load the transaction filter
+        txFilter = loadTransactionFilter();
+
         // checks if the database needs to be upgraded
         if (getDatabaseVersion() == 0) {
             upgradeDb0(factory);
@@ -210,12 +297,43 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public Block getBlock(long number) {
-        byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER, Bytes.of(number)));
-        byte[] transactions = blockDB.get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS, Bytes.of(number)));
-        byte[] results = blockDB.get(Bytes.merge(TYPE_BLOCK_RESULTS, Bytes.of(number)));
-        byte[] votes = blockDB.get(Bytes.merge(TYPE_BLOCK_VOTES, Bytes.of(number)));
+        byte[] header = getBlockPart(TYPE_BLOCK_HEADER, number);
+        if (header == null) {
+            return null;
+        }
+        byte[] transactions = getBlockPart(TYPE_BLOCK_TRANSACTIONS, number);
+        if (transactions == null) {
+            // the block body has been pruned
+            return null;
+        }
+        byte[] results = getBlockPart(TYPE_BLOCK_RESULTS, number);
+        byte[] votes = getBlockPart(TYPE_BLOCK_VOTES, number);
 
-        return (header == null) ? null : Block.fromComponents(header, transactions, results, votes);
+        return Block.fromComponents(header, transactions, results, votes);
+    }
+
+    @Override
+    public List<byte[]> getBlockParts(long number, int parts) {
+        List<byte[]> result = new ArrayList<>();
+        for (Block.BlockPart part : Block.BlockPart.parts(parts)) {
+            switch (part) {
+            case HEADER:
+                result.add(getBlockPart(TYPE_BLOCK_HEADER, number));
+                break;
+            case TRANSACTIONS:
+                result.add(getBlockPart(TYPE_BLOCK_TRANSACTIONS, number));
+                break;
+            case RECEIPTS:
+                result.add(getBlockPart(TYPE_BLOCK_RESULTS, number));
+                break;
+            case VOTES:
+                result.add(getBlockPart(TYPE_BLOCK_VOTES, number));
+                break;
+            default:
+                throw new UnreachableException();
+            }
+        }
+        return result;
     }
 
     @Override
@@ -226,8 +344,28 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public BlockHeader getBlockHeader(long number) {
-        byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER, Bytes.of(number)));
-        return (header == null) ? null : BlockHeader.fromBytes(header);
+        return headerCache.get(number, n -> {
+            byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER, Bytes.of(n)));
+            return (header == null) ? null : BlockHeader.fromBytes(header);
+        });
+    }
+
+    @Override
+    public byte[] getBlockHash(long number) {
+        if (number < 0) {
+            return null;
+        }
+
+        int slot = (int) (number % RECENT_HASHES);
+        BlockHeader header = recentHeaders.get(slot);
+        if (header == null || header.getNumber() != number) {
+            header = getBlockHeader(number);
+            if (header == null) {
+                return null;
+            }
+            recentHeaders.set(slot, header);
+        }
+        return header.getHash();
     }
 
     @Override
@@ -238,7 +376,7 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public boolean hasBlock(long number) {
-        return blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER, Bytes.of(number))) != null;
+        return getBlockHeader(number) != null;
     }
 
     @Override
@@ -255,7 +393,7 @@ public class BlockchainImpl implements Blockchain {
             int start = dec.readInt();
             dec.readInt();
 
-            byte[] transactions = blockDB.get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS, Bytes.of(number)));
+            byte[] transactions = getBlockPart(TYPE_BLOCK_TRANSACTIONS, number);
             dec = new SimpleDecoder(transactions, start);
             return Transaction.fromBytes(dec.readBytes());
         }
@@ -272,7 +410,18 @@ public class BlockchainImpl implements Blockchain {
 
     @Override
     public boolean hasTransaction(final byte[] hash) {
-        return indexDB.get(Bytes.merge(TYPE_TRANSACTION_HASH, hash)) != null;
+        return txFilter.mightContain(hash) && indexDB.get(Bytes.merge(TYPE_TRANSACTION_HASH, hash)) != null;
+    }
+
+    @Override
+    public boolean hasAnyTransaction(List<byte[]> hashes) {
+        List<byte[]> keys = new ArrayList<>(hashes.size());
+        for (byte[] hash : hashes) {
+            if (txFilter.mightContain(hash)) {
+                keys.add(Bytes.merge(TYPE_TRANSACTION_HASH, hash));
+            }
+        }
+        return !keys.isEmpty() && indexDB.multiGet(keys).stream().anyMatch(v -> v != null);
     }
 
     @Override
@@ -289,7 +438,7 @@ public class BlockchainImpl implements Blockchain {
             dec.readInt();
             int start = dec.readInt();
 
-            byte[] results = blockDB.get(Bytes.merge(TYPE_BLOCK_RESULTS, Bytes.of(number)));
+            byte[] results = getBlockPart(TYPE_BLOCK_RESULTS, number);
             dec = new SimpleDecoder(results, start);
             return TransactionResult.fromBytes(dec.readBytes());
         }
@@ -320,6 +469,10 @@ public class BlockchainImpl implements Blockchain {
 
         if (number != genesis.getNumber() && number != latestBlock.getNumber() + 1) {
             logger.error("Adding wrong block: number = {}, expected = {}", number, latestBlock.getNumber() + 1);
+            // discard the state updates staged for this block
+            batchedFactory.rollback();
+            accountState.invalidateCache();
+            delegateState.invalidateCache();
             throw new BlockchainException("Blocks can only be added sequentially");
         }
 
@@ -333,19 +486,13 @@ public class BlockchainImpl implements Blockchain {
 
         // [2] update transaction indices
         List<Transaction> txs = block.getTransactions();
-        Pair<byte[], List<Integer>> transactionIndices = block.getEncodedTransactionsAndIndices();
-        Pair<byte[], List<Integer>> resultIndices = block.getEncodedTransactionsAndIndices();
-        Amount reward = Block.getBlockReward(block, config);
+        List<byte[]> locations = getTransactionLocations(block);
 
         for (int i = 0; i < txs.size(); i++) {
             Transaction tx = txs.get(i);
 
-            SimpleEncoder enc = new SimpleEncoder();
-            enc.writeLong(number);
-            enc.writeInt(transactionIndices.getRight().get(i));
-            enc.writeInt(resultIndices.getRight().get(i));
-
-            indexDB.put(Bytes.merge(TYPE_TRANSACTION_HASH, tx.getHash()), enc.toBytes());
+            indexDB.put(Bytes.merge(TYPE_TRANSACTION_HASH, tx.getHash()), locations.get(i));
+            txFilter.add(tx.getHash());
 
             // [3] update transaction_by_account index
             addTransactionToAccount(tx, tx.getFrom());
@@ -356,16 +503,9 @@ public class BlockchainImpl implements Blockchain {
 
         if (number != genesis.getNumber()) {
             // [4] coinbase transaction
-            Transaction tx = new Transaction(config.network(),
-                    TransactionType.COINBASE,
-                    block.getCoinbase(),
-                    reward,
-                    Amount.ZERO,
-                    block.getNumber(),
-                    block.getTimestamp(),
-                    Bytes.EMPTY_BYTES);
-            tx.sign(Constants.COINBASE_KEY);
+            Transaction tx = createCoinbaseTransaction(config, block);
             indexDB.put(Bytes.merge(TYPE_TRANSACTION_HASH, tx.getHash()), tx.toBytes());
+            txFilter.add(tx.getHash());
             indexDB.put(Bytes.merge(TYPE_COINBASE_TRANSACTION_HASH, Bytes.of(block.getNumber())), tx.getHash());
             addTransactionToAccount(tx, block.getCoinbase());
 
@@ -389,11 +529,65 @@ public class BlockchainImpl implements Blockchain {
         latestBlock = block;
         indexDB.put(Bytes.of(TYPE_LATEST_BLOCK_NUMBER), Bytes.of(number));
 
+        // [8] activate forks for the next block
+        activateForks(number + 1);
+
+        // [9] flush the state updates and the block atomically
+        batchedFactory.commit();
+        invalidateCaches(block);
+
         for (BlockchainListener listener : listeners) {
             listener.onBlockAdded(block);
         }
+    }
 
-        activateForks(number + 1);
+    @Override
+    public void close() {
+        saveTransactionFilter();
+    }
+
+    @Override
+    public synchronized int pruneBlocks(int limit) {
+        long keep = config.dbPruneBlocks();
+        if (keep <= 0) {
+            return 0;
+        }
+
+        /*
+         * The deletions are staged, and flushed with the next block by the single
+         * commit of addBlock(), so the indices and the bodies go away together.
+         * Only one batch is staged at a time.
+         */
+        byte[] progress = Bytes.of(TYPE_FIRST_UNPRUNED_BLOCK);
+        byte[] value = indexDB.get(progress);
+        if (!Arrays.equals(value, dbFactory.getDB(DatabaseName.INDEX).get(progress))) {
+            return 0;
+        }
+        long first = (value == null) ? 1 : Bytes.toLong(value);
+        long end = Math.min(latestBlock.getNumber() - keep + 1, first + limit);
+        if (end <= first) {
+            return 0;
+        }
+
+        // read the bodies from the database directly, bypassing the caches
+        Database rawBlockDB = dbFactory.getDB(DatabaseName.BLOCK);
+        for (long n = first; n < end; n++) {
+            byte[] header = rawBlockDB.get(Bytes.merge(TYPE_BLOCK_HEADER, Bytes.of(n)));
+            byte[] transactions = rawBlockDB.get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS, Bytes.of(n)));
+            if (header != null && transactions != null) {
+                for (Transaction tx : Block.fromComponents(header, transactions, null, null).getTransactions()) {
+                    indexDB.delete(Bytes.merge(TYPE_TRANSACTION_HASH, tx.getHash()));
+                }
+            }
+            for (byte type : new byte[] { TYPE_BLOCK_TRANSACTIONS, TYPE_BLOCK_RESULTS, TYPE_BLOCK_VOTES }) {
+                byte[] key = Bytes.merge(type, Bytes.of(n));
+                blockDB.delete(key);
+                blockPartCache.invalidate(ByteArray.of(key));
+            }
+        }
+        indexDB.put(progress, Bytes.of(end));
+
+        return (int) (end - first);
     }
 
     @Override
@@ -416,11 +610,55 @@ public class BlockchainImpl implements Blockchain {
     public List<Transaction> getTransactions(byte[] address, int from, int to) {
         List<Transaction> list = new ArrayList<>();
 
-        int total = getTransactionCount(address);
-        for (int i = from; i < total && i < to; i++) {
-            byte[] key = getNthTransactionIndexKey(address, i);
-            byte[] value = indexDB.get(key);
-            list.add(getTransaction(value));
+        from = Math.max(from, 0);
+        to = Math.min(to, getTransactionCount(address));
+        if (from >= to) {
+            return list;
+        }
+
+        // [1] scan the transaction hashes of the account
+        List<Entry<byte[], byte[]>> entries = indexDB.range(getNthTransactionIndexKey(address, from),
+                getNthTransactionIndexKey(address, to), to - from, false);
+        List<byte[]> keys = new ArrayList<>(entries.size());
+        for (Entry<byte[], byte[]> e : entries) {
+            keys.add(Bytes.merge(TYPE_TRANSACTION_HASH, e.getValue()));
+        }
+
+        // [2] look up the transaction locations
+        List<byte[]> locations = indexDB.multiGet(keys);
+
+        // [3] read the transactions of each block only once
+        Map<Long, Integer> numbers = new HashMap<>();
+        List<byte[]> blockKeys = new ArrayList<>();
+        for (byte[] location : locations) {
+            if (location != null && location.length <= 64) {
+                long number = new SimpleDecoder(location).readLong();
+                if (!numbers.containsKey(number)) {
+                    numbers.put(number, blockKeys.size());
+                    blockKeys.add(Bytes.merge(TYPE_BLOCK_TRANSACTIONS, Bytes.of(number)));
+                }
+            }
+        }
+        List<byte[]> blocks = blockDB.multiGet(blockKeys);
+
+        for (byte[] location : locations) {
+            // transaction of a pruned block
+            if (location == null) {
+                continue;
+            }
+
+            // coinbase transaction
+            if (location.length > 64) {
+                list.add(Transaction.fromBytes(location));
+                continue;
+            }
+
+            SimpleDecoder dec = new SimpleDecoder(location);
+            long number = dec.readLong();
+            int start = dec.readInt();
+
+            byte[] transactions = blocks.get(numbers.get(number));
+            list.add(Transaction.fromBytes(new SimpleDecoder(transactions, start).readBytes()));
         }
 
         return list;
@@ -458,10 +696,7 @@ public class BlockchainImpl implements Blockchain {
     public void updateValidators(long number) {
         List<String> validators = new ArrayList<>();
 
-        List<Delegate> delegates = delegateState.getDelegates();
-        int max = Math.min(delegates.size(), config.getNumberOfValidators(number));
-        for (int i = 0; i < max; i++) {
-            Delegate d = delegates.get(i);
+        for (Delegate d : delegateState.getDelegates(config.getNumberOfValidators(number))) {
             validators.add(Hex.encode(d.getAddress()));
         }
 
@@ -528,6 +763,165 @@ public class BlockchainImpl implements Blockchain {
         setTransactionCount(address, total + 1);
     }
 
+    /**
+     * Returns the encoded locations of the transactions of a block, which are
+     * stored in the transaction index.
+     *
+     * @param block
+     * @return
+     */
+    protected static List<byte[]> getTransactionLocations(Block block) {
+        Pair<byte[], List<Integer>> transactionIndices = block.getEncodedTransactionsAndIndices();
+        Pair<byte[], List<Integer>> resultIndices = block.getEncodedTransactionsAndIndices();
+
+        List<byte[]> locations = new ArrayList<>();
+        for (int i = 0; i < transactionIndices.getRight().size(); i++) {
+            SimpleEncoder enc = new SimpleEncoder();
+            enc.writeLong(block.getNumber());
+            enc.writeInt(transactionIndices.getRight().get(i));
+            enc.writeInt(resultIndices.getRight().get(i));
+            locations.add(enc.toBytes());
+        }
+        return locations;
+    }
+
+    /**
+     * Creates the coinbase transaction of a block, which pays the block reward.
+     *
+     * @param config
+     * @param block
+     * @return
+     */
+    protected static Transaction createCoinbaseTransaction(Config config, Block block) {
+        Transaction tx = new Transaction(config.network(),
+                TransactionType.COINBASE,
+                block.getCoinbase(),
+                Block.getBlockReward(block, config),
+                Amount.ZERO,
+                block.getNumber(),
+                block.getTimestamp(),
+                Bytes.EMPTY_BYTES);
+        return tx.sign(Constants.COINBASE_KEY);
+    }
+
+    /**
+     * Returns an encoded part of a block, through the block part cache.
+     *
+     * @param type
+     * @param number
+     * @return
+     */
+    protected byte[] getBlockPart(byte type, long number) {
+        byte[] key = Bytes.merge(type, Bytes.of(number));
+        return blockPartCache.get(ByteArray.of(key), k -> blockDB.get(key));
+    }
+
+    /**
+     * Drops the cached entries of a newly added block and remembers its header.
+     *
+     * @param block
+     */
+    protected void invalidateCaches(Block block) {
+        long number = block.getNumber();
+        for (byte type : new byte[] { TYPE_BLOCK_HEADER, TYPE_BLOCK_TRANSACTIONS, TYPE_BLOCK_RESULTS,
+                TYPE_BLOCK_VOTES }) {
+            blockPartCache.invalidate(ByteArray.of(Bytes.merge(type, Bytes.of(number))));
+        }
+
+        BlockHeader header = block.getHeader();
+        headerCache.put(number, header);
+        recentHeaders.set((int) (number % RECENT_HASHES), header);
+    }
+
+    /**
+     * Loads the transaction filter saved by {@link #close()}, and catches up with
+     * the blocks added after it was saved. The filter is rebuilt from the
+     * transaction index if missing or too far behind.
+     *
+     * @return
+     */
+    protected ScalableBloomFilter loadTransactionFilter() {
+        long latest = latestBlock.getNumber();
+
+        if (txFilterFile.exists()) {
+            try {
+                SimpleDecoder dec = new SimpleDecoder(IOUtil.readFile(txFilterFile));
+                long number = dec.readLong();
+                ScalableBloomFilter filter = ScalableBloomFilter.fromBytes(dec.readBytes());
+
+                if (number <= latest && latest - number <= TX_FILTER_MAX_REPLAY) {
+                    for (long n = number + 1; n <= latest; n++) {
+                        Block block = getBlock(n);
+                        if (block != null) {
+                            for (Transaction tx : block.getTransactions()) {
+                                filter.add(tx.getHash());
+                            }
+                        }
+                        byte[] coinbase = indexDB.get(Bytes.merge(TYPE_COINBASE_TRANSACTION_HASH, Bytes.of(n)));
+                        if (coinbase != null) {
+                            filter.add(coinbase);
+                        }
+                    }
+                    return filter;
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to load the transaction filter, rebuilding it", e);
+            }
+        }
+
+        logger.info("Building the transaction filter from the index");
+        ScalableBloomFilter filter = new ScalableBloomFilter(TX_FILTER_CAPACITY, TX_FILTER_FPP);
+        ClosableIterator<Entry<byte[], byte[]>> itr = indexDB.iterator(Bytes.of(TYPE_TRANSACTION_HASH),
+                Bytes.of((byte) (TYPE_TRANSACTION_HASH + 1)), false);
+        try {
+            while (itr.hasNext()) {
+                byte[] key = itr.next().getKey();
+                filter.add(Arrays.copyOfRange(key, 1, key.length));
+            }
+        } finally {
+            itr.close();
+        }
+        logger.info("Transaction filter built, # of transactions = {}", filter.size());
+
+        return filter;
+    }
+
+    /**
+     * Saves the transaction filter, along with the latest block number it covers.
+     */
+    protected synchronized void saveTransactionFilter() {
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeLong(latestBlock.getNumber());
+        enc.writeBytes(txFilter.toBytes());
+
+        try {
+            File tmp = new File(txFilterFile.getPath() + ".tmp");
+            IOUtil.writeToFile(enc.toBytes(), tmp);
+            Files.move(tmp.toPath(), txFilterFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Failed to save the transaction filter", e);
+        }
+    }
+
+    /**
+     * Returns the hit and miss counters of the decoded header cache.
+     *
+     * @return
+     */
+    public CacheStats getHeaderCacheStats() {
+        return headerCache.stats();
+    }
+
+    /**
+     * Returns the hit and miss counters of the encoded block part cache.
+     *
+     * @return
+     */
+    public CacheStats getBlockPartCacheStats() {
+        return blockPartCache.stats();
+    }
+
     /**
      * Returns the N-th transaction index key of an account.
      *
@@ -744,29 +1138,38 @@ public class BlockchainImpl implements Blockchain {
      * existing blockchain database to the created temporary blockchain database.
      * Once all blocks have been successfully migrated, the existing blockchain
      * database is replaced by the migrated temporary blockchain database.
+     *
+     * <p>
+     * Blocks are decoded and verified by the pipeline workers, and applied in
+     * order. The latest block of the temporary database is the checkpoint: it is
+     * committed atomically with the state by {@link #addBlock(Block)}, and an
+     * interrupted migration resumes from the block after it.
+     * </p>
      */
-    private class MigrationBlockDbVersion001 implements Migration {
-        private final PubSub pubSub = PubSubFactory.getDefault();
+    private class MigrationBlockDbVersion001 extends PipelinedMigration<Block> {
+        private static final int WINDOW_SIZE = 1024;
+
+        private Config config;
+        private MigrationBlockchain migrationBlockchain;
+
+        private MigrationBlockDbVersion001() {
+            super(SystemUtil.getNumberOfProcessors(), WINDOW_SIZE);
+        }
 
         @Override
         public void migrate(Config config, DatabaseFactory dbFactory) {
             try {
                 logger.info("Upgrading the database... DO NOT CLOSE THE WALLET!");
-                // recreate block db in a temporary folder
+                // recreate block db in a temporary folder, or reopen the one of an
+                // interrupted migration
                 String dbName = dbFactory.getDataDir().getFileName().toString();
                 Path tempPath = dbFactory
                         .getDataDir()
-                        .resolveSibling(dbName + "_tmp_" + TimeUtil.currentTimeMillis());
-                LeveldbDatabase.LeveldbFactory tempDb = new LeveldbDatabase.LeveldbFactory(tempPath.toFile());
-                MigrationBlockchain migrationBlockchain = new MigrationBlockchain(config, tempDb);
-                final long latestBlockNumber = getLatestBlockNumber();
-                for (long i = 1; i <= latestBlockNumber; i++) {
-                    migrationBlockchain.applyBlock(getBlock(i));
-                    if (i % 1000 == 0) {
-                        pubSub.publish(new BlockchainDatabaseUpgradingEvent(i, latestBlockNumber));
-                        logger.info("Loaded {} / {} blocks", i, latestBlockNumber);
-                    }
-                }
+                        .resolveSibling(dbName + "_tmp");
+                DatabaseFactory tempDb = config.dbEngine().createFactory(tempPath.toFile());
+                this.config = config;
+                this.migrationBlockchain = new MigrationBlockchain(config, tempDb);
+                run();
                 dbFactory.close();
                 tempDb.close();
                 // move the existing database to backup folder then replace the database folder
@@ -780,9 +1183,45 @@ public class BlockchainImpl implements Blockchain {
                 tempDb.moveTo(dbFactory.getDataDir());
                 dbFactory.open();
                 logger.info("Database upgraded to version 1.");
-            } catch (IOException e) {
+            } catch (IOException | DatabaseException e) {
                 logger.error("Failed to run migration " + MigrationBlockDbVersion001.class, e);
+                SystemUtil.exitAsync(SystemUtil.Code.FAILED_TO_REPAIR_DB);
+                throw new DatabaseException("Failed to upgrade the database", e);
+            }
+        }
+
+        @Override
+        protected long getCheckpoint() {
+            return migrationBlockchain.getLatestBlockNumber();
+        }
+
+        @Override
+        protected long getTotal() {
+            return getLatestBlockNumber();
+        }
+
+        @Override
+        protected Block load(long number) {
+            Block block = getBlock(number);
+            if (block == null) {
+                throw new DatabaseException("Missing block #" + number);
             }
+
+            BlockHeader header = block.getHeader();
+            List<Transaction> transactions = block.getTransactions();
+            if (!header.validate()
+                    || !transactions.stream().allMatch(tx -> tx.validate(config.network()))
+                    || !Arrays.equals(MerkleUtil.computeTransactionsRoot(transactions),
+                            header.getTransactionsRoot())) {
+                throw new DatabaseException("Invalid block #" + number);
+            }
+
+            return block;
+        }
+
+        @Override
+        protected void apply(long number, Block block) {
+            migrationBlockchain.applyBlock(block);
         }
     }
 }
@@ -0,0 +1,406 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.core;
+
+import static org.alienchain.core.BlockchainImpl.TYPE_ACCOUNT_TRANSACTION;
+import static org.alienchain.core.BlockchainImpl.TYPE_BLOCK_HASH;
+import static org.alienchain.core.BlockchainImpl.TYPE_BLOCK_HEADER;
+import static org.alienchain.core.BlockchainImpl.TYPE_BLOCK_RESULTS;
+import static org.alienchain.core.BlockchainImpl.TYPE_BLOCK_TRANSACTIONS;
+import static org.alienchain.core.BlockchainImpl.TYPE_BLOCK_VOTES;
+import static org.alienchain.core.BlockchainImpl.TYPE_COINBASE_TRANSACTION_HASH;
+import static org.alienchain.core.BlockchainImpl.TYPE_FIRST_UNPRUNED_BLOCK;
+import static org.alienchain.core.BlockchainImpl.TYPE_LATEST_BLOCK_NUMBER;
+import static org.alienchain.core.BlockchainImpl.TYPE_TRANSACTION_HASH;
+import static org.alienchain.core.BlockchainImpl.TYPE_VALIDATOR_STATS;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.alienchain.config.Config;
+import org.alienchain.core.BlockchainImpl.ValidatorStats;
+import org.alienchain.core.exception.BlockchainException;
+import org.alienchain.db.Database;
+import org.alienchain.db.DatabaseFactory;
+import org.alienchain.db.DatabaseName;
+import org.alienchain.util.ByteArray;
+import org.alienchain.util.Bytes;
+import org.alienchain.util.ClosableIterator;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebuilds the index database from the block database, while the node is
+ * offline.
+ *
+ * <p>
+ * Blocks are decoded in parallel, a window at a time, by a fork-join pool. The
+ * decoded blocks are then merged in order, which assigns the per-account
+ * transaction numbers, and written in large batches.
+ * </p>
+ *
+ * <p>
+ * The block hashes, transaction locations, coinbase transactions, account
+ * transaction lists and blocks forged are dropped and rebuilt. The validator
+ * set, the activated forks and the turns hit/missed of validators depend on the
+ * state at each height and are kept as they are.
+ * </p>
+ *
+ * <p>
+ * On a pruned node, the coinbase transactions of pruned blocks only exist in
+ * the index; they are kept, and dropped if they don't match the block header.
+ * The account transaction lists can't be rebuilt without the pruned bodies, and
+ * are kept as they are, so that their offsets stay stable.
+ * </p>
+ */
+public class BlockchainReindexer {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlockchainReindexer.class);
+
+    private static final int WINDOW_SIZE = 8 * 1024;
+    private static final int BATCH_SIZE = 64 * 1024;
+
+    private final Config config;
+    private final Database indexDB;
+    private final Database blockDB;
+    private final File txFilterFile;
+    private final int threads;
+
+    private final List<Pair<byte[], byte[]>> batch = new ArrayList<>();
+
+    private long firstUnpruned;
+
+    /**
+     * Creates a reindexer.
+     *
+     * @param config
+     * @param factory
+     *            the database factory, which must not be used by a running kernel
+     * @param threads
+     *            the number of threads decoding blocks
+     */
+    public BlockchainReindexer(Config config, DatabaseFactory factory, int threads) {
+        this.config = config;
+        this.indexDB = factory.getDB(DatabaseName.INDEX);
+        this.blockDB = factory.getDB(DatabaseName.BLOCK);
+        this.txFilterFile = new File(factory.getDataDir().toFile(), BlockchainImpl.TX_FILTER_FILE);
+        this.threads = threads;
+    }
+
+    /**
+     * Rebuilds the index.
+     *
+     * @return the latest block number
+     */
+    public long reindex() {
+        long latest = findLatestBlockNumber();
+        if (latest < 0) {
+            throw new BlockchainException("No block found in the database");
+        }
+        logger.info("Rebuilding the index of blocks #0 - #{} with {} threads", latest, threads);
+        long t1 = System.currentTimeMillis();
+
+        byte[] value = indexDB.get(Bytes.of(TYPE_FIRST_UNPRUNED_BLOCK));
+        firstUnpruned = (value == null) ? 1 : Bytes.toLong(value);
+        if (isPruned()) {
+            logger.info("Blocks before #{} are pruned, keeping the account transaction lists", firstUnpruned);
+        }
+
+        // [1] drop the stale entries, and reset blocks forged
+        deleteType(TYPE_BLOCK_HASH);
+        deleteType(TYPE_TRANSACTION_HASH);
+        deleteType(TYPE_COINBASE_TRANSACTION_HASH);
+        if (!isPruned()) {
+            deleteType(TYPE_ACCOUNT_TRANSACTION);
+        }
+        Map<ByteArray, ValidatorStats> stats = loadValidatorStats();
+        for (ValidatorStats s : stats.values()) {
+            s.setBlocksForged(0);
+        }
+
+        // [2] decode blocks in parallel, merge in order
+        Map<ByteArray, Integer> counts = new HashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (long start = 0; start <= latest; start += WINDOW_SIZE) {
+                final long from = start, to = Math.min(start + WINDOW_SIZE, latest + 1);
+                List<BlockIndex> indices = pool.submit(() -> LongStream.range(from, to).parallel()
+                        .mapToObj(this::indexBlock)
+                        .collect(Collectors.toList())).get();
+
+                for (BlockIndex index : indices) {
+                    merge(index, counts, stats);
+                }
+                logger.info("Reindexed {} / {} blocks", to, latest + 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BlockchainException("Reindexing interrupted", e);
+        } catch (ExecutionException e) {
+            throw new BlockchainException("Failed to reindex blocks", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        // [3] write the counters
+        for (Entry<ByteArray, Integer> e : counts.entrySet()) {
+            put(Bytes.merge(TYPE_ACCOUNT_TRANSACTION, e.getKey().getData()), Bytes.of(e.getValue()));
+        }
+        for (Entry<ByteArray, ValidatorStats> e : stats.entrySet()) {
+            put(Bytes.merge(TYPE_VALIDATOR_STATS, e.getKey().getData()), e.getValue().toBytes());
+        }
+        put(Bytes.of(TYPE_LATEST_BLOCK_NUMBER), Bytes.of(latest));
+        flush();
+
+        // the transaction filter is rebuilt on startup
+        if (txFilterFile.exists() && !txFilterFile.delete()) {
+            logger.warn("Failed to delete the transaction filter: {}", txFilterFile);
+        }
+
+        logger.info("Index rebuilt in {} s", (System.currentTimeMillis() - t1) / 1000);
+        return latest;
+    }
+
+    /**
+     * Decodes a block into its index entries. Runs in parallel.
+     *
+     * @param number
+     * @return
+     */
+    protected BlockIndex indexBlock(long number) {
+        byte[] header = blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER, Bytes.of(number)));
+        if (header == null) {
+            throw new BlockchainException("Missing block header #" + number);
+        }
+
+        BlockIndex index = new BlockIndex();
+        byte[] transactions = blockDB.get(Bytes.merge(TYPE_BLOCK_TRANSACTIONS, Bytes.of(number)));
+
+        if (transactions != null) {
+            byte[] results = blockDB.get(Bytes.merge(TYPE_BLOCK_RESULTS, Bytes.of(number)));
+            byte[] votes = blockDB.get(Bytes.merge(TYPE_BLOCK_VOTES, Bytes.of(number)));
+            Block block = Block.fromComponents(header, transactions, results, votes);
+            index.entries.add(Pair.of(Bytes.merge(TYPE_BLOCK_HASH, block.getHash()), Bytes.of(number)));
+
+            List<Transaction> txs = block.getTransactions();
+            List<byte[]> locations = BlockchainImpl.getTransactionLocations(block);
+            for (int i = 0; i < txs.size(); i++) {
+                Transaction tx = txs.get(i);
+                index.entries.add(Pair.of(Bytes.merge(TYPE_TRANSACTION_HASH, tx.getHash()), locations.get(i)));
+
+                index.accountTransactions.add(Pair.of(tx.getFrom(), tx.getHash()));
+                if (!Arrays.equals(tx.getFrom(), tx.getTo())) {
+                    index.accountTransactions.add(Pair.of(tx.getTo(), tx.getHash()));
+                }
+            }
+
+            if (number != 0) {
+                Transaction tx = BlockchainImpl.createCoinbaseTransaction(config, block);
+                index.entries.add(Pair.of(Bytes.merge(TYPE_TRANSACTION_HASH, tx.getHash()), tx.toBytes()));
+                index.entries.add(Pair.of(Bytes.merge(TYPE_COINBASE_TRANSACTION_HASH, Bytes.of(number)),
+                        tx.getHash()));
+                index.accountTransactions.add(Pair.of(block.getCoinbase(), tx.getHash()));
+                index.coinbase = block.getCoinbase();
+            }
+        } else {
+            // pruned block, the coinbase transaction is kept in the index
+            BlockHeader h = BlockHeader.fromBytes(header);
+            index.entries.add(Pair.of(Bytes.merge(TYPE_BLOCK_HASH, h.getHash()), Bytes.of(number)));
+            if (number != 0) {
+                checkCoinbase(h, index);
+                index.coinbase = h.getCoinbase();
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Drops the coinbase transaction of a pruned block if it doesn't match the
+     * block header.
+     *
+     * @param header
+     * @param index
+     */
+    protected void checkCoinbase(BlockHeader header, BlockIndex index) {
+        byte[] key = Bytes.merge(TYPE_COINBASE_TRANSACTION_HASH, Bytes.of(header.getNumber()));
+        byte[] hash = indexDB.get(key);
+        byte[] bytes = (hash == null) ? null : indexDB.get(Bytes.merge(TYPE_TRANSACTION_HASH, hash));
+
+        Transaction tx = (bytes == null || bytes.length <= 64) ? null : Transaction.fromBytes(bytes);
+        if (tx == null
+                || tx.getType() != TransactionType.COINBASE
+                || !Arrays.equals(tx.getHash(), hash)
+                || !Arrays.equals(tx.getTo(), header.getCoinbase())
+                || tx.getNonce() != header.getNumber()
+                || tx.getTimestamp() != header.getTimestamp()) {
+            logger.warn("Invalid coinbase transaction of pruned block #{}, dropping it", header.getNumber());
+            index.entries.add(Pair.of(key, null));
+            if (hash != null) {
+                index.entries.add(Pair.of(Bytes.merge(TYPE_TRANSACTION_HASH, hash), null));
+            }
+        }
+    }
+
+    /**
+     * Merges the index entries of a block, in block order.
+     *
+     * @param index
+     * @param counts
+     * @param stats
+     */
+    protected void merge(BlockIndex index, Map<ByteArray, Integer> counts, Map<ByteArray, ValidatorStats> stats) {
+        for (Pair<byte[], byte[]> p : index.entries) {
+            put(p.getLeft(), p.getRight());
+        }
+
+        // the account transaction lists of a pruned node are kept
+        if (!isPruned()) {
+            for (Pair<byte[], byte[]> p : index.accountTransactions) {
+                ByteArray address = ByteArray.of(p.getLeft());
+                int n = counts.getOrDefault(address, 0);
+                put(Bytes.merge(Bytes.of(TYPE_ACCOUNT_TRANSACTION), p.getLeft(), Bytes.of(n)), p.getRight());
+                counts.put(address, n + 1);
+            }
+        }
+
+        if (index.coinbase != null) {
+            ValidatorStats s = stats.computeIfAbsent(ByteArray.of(index.coinbase), k -> new ValidatorStats(0, 0, 0));
+            s.setBlocksForged(s.getBlocksForged() + 1);
+        }
+    }
+
+    /**
+     * Returns the number of the last block header, or -1 if there is none. Headers
+     * are never pruned, so they are dense, and the last one is found by a binary
+     * search rather than a reverse iteration, which some databases emulate by
+     * loading all the keys.
+     *
+     * @return
+     */
+    protected long findLatestBlockNumber() {
+        if (!hasHeader(0)) {
+            return -1;
+        }
+
+        // [1] find a missing header
+        long hi = 1;
+        while (hasHeader(hi)) {
+            hi *= 2;
+        }
+
+        // [2] the last header is in [hi / 2, hi)
+        long lo = hi / 2;
+        while (hi - lo > 1) {
+            long mid = lo + (hi - lo) / 2;
+            if (hasHeader(mid)) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private boolean hasHeader(long number) {
+        return blockDB.get(Bytes.merge(TYPE_BLOCK_HEADER, Bytes.of(number))) != null;
+    }
+
+    protected Map<ByteArray, ValidatorStats> loadValidatorStats() {
+        Map<ByteArray, ValidatorStats> stats = new HashMap<>();
+        ClosableIterator<Entry<byte[], byte[]>> itr = indexDB.iterator(Bytes.of(TYPE_VALIDATOR_STATS),
+                Bytes.of((byte) (TYPE_VALIDATOR_STATS + 1)), false);
+        try {
+            while (itr.hasNext()) {
+                Entry<byte[], byte[]> e = itr.next();
+                byte[] address = Arrays.copyOfRange(e.getKey(), 1, e.getKey().length);
+                stats.put(ByteArray.of(address), ValidatorStats.fromBytes(e.getValue()));
+            }
+        } finally {
+            itr.close();
+        }
+        return stats;
+    }
+
+    protected boolean isPruned() {
+        return firstUnpruned > 1;
+    }
+
+    /**
+     * Deletes all the entries of a type, except the coinbase transactions of
+     * pruned blocks.
+     *
+     * @param type
+     */
+    protected void deleteType(byte type) {
+        ClosableIterator<Entry<byte[], byte[]>> itr = indexDB.iterator(Bytes.of(type), Bytes.of((byte) (type + 1)),
+                false);
+        try {
+            while (itr.hasNext()) {
+                Entry<byte[], byte[]> e = itr.next();
+                if (!isPrunedCoinbase(type, e.getKey(), e.getValue())) {
+                    put(e.getKey(), null);
+                }
+            }
+        } finally {
+            itr.close();
+        }
+        flush();
+    }
+
+    private boolean isPrunedCoinbase(byte type, byte[] key, byte[] value) {
+        if (!isPruned()) {
+            return false;
+        }
+
+        switch (type) {
+        case TYPE_COINBASE_TRANSACTION_HASH:
+            return Bytes.toLong(Arrays.copyOfRange(key, 1, 9)) < firstUnpruned;
+        case TYPE_TRANSACTION_HASH:
+            if (value.length <= 64) {
+                return false;
+            }
+            Transaction tx = Transaction.fromBytes(value);
+            return tx.getType() == TransactionType.COINBASE && tx.getNonce() < firstUnpruned;
+        default:
+            return false;
+        }
+    }
+
+    private void put(byte[] key, byte[] value) {
+        batch.add(Pair.of(key, value));
+        if (batch.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (!batch.isEmpty()) {
+            indexDB.updateBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * The index entries of a block.
+     */
+    protected static class BlockIndex {
+        private final List<Pair<byte[], byte[]>> entries = new ArrayList<>();
+        private final List<Pair<byte[], byte[]>> accountTransactions = new ArrayList<>();
+        private byte[] coinbase;
+    }
+}
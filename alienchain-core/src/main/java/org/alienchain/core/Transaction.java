@@ -16,13 +16,29 @@ import org.alienchain.crypto.Hash;
 import org.alienchain.crypto.Hex;
 import org.alienchain.crypto.Key;
 import org.alienchain.crypto.Key.Signature;
+import org.alienchain.util.ByteArray;
+import org.alienchain.util.Bytes;
 import org.alienchain.util.SimpleDecoder;
 import org.alienchain.util.SimpleEncoder;
+import org.alienchain.util.TimeUtil;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 public class Transaction {
 
+    private static final int VERIFIED_CACHE_SIZE = 64 * 1024;
+
+    /**
+     * Recently verified signatures, by transaction hash and signature, with the
+     * time of verification. A transaction is verified when admitted to the pending
+     * pool, then again in every proposal and block which includes it.
+     */
+    private static final Cache<ByteArray, Long> verified = Caffeine.newBuilder().maximumSize(VERIFIED_CACHE_SIZE)
+            .build();
+
     private final byte networkId;
 
     private final TransactionType type;
@@ -145,6 +161,10 @@ public class Transaction {
      * {@link TransactionExecutor} for that purpose
      * </p>
      *
+     * <p>
+     * Signatures verified recently are not verified again.
+     * </p>
+     *
      * @param network
      * @return true if success, otherwise false
      */
@@ -162,7 +182,7 @@ public class Transaction {
                 && signature != null && !Arrays.equals(signature.getAddress(), EMPTY_ADDRESS)
 
                 && Arrays.equals(Hash.h256(encoded), hash)
-                && Key.verify(hash, signature)
+                && verifySignature()
 
                 // The coinbase key is publicly available. People can use it for transactions.
                 // It won't introduce any fundamental loss to the system but could potentially
@@ -172,6 +192,32 @@ public class Transaction {
                                 && !Arrays.equals(to, Constants.COINBASE_ADDRESS)));
     }
 
+    /**
+     * Returns whether the signature of this transaction has been verified recently.
+     *
+     * @return
+     */
+    public boolean isVerified() {
+        return signature != null && verified.getIfPresent(verifiedKey()) != null;
+    }
+
+    private boolean verifySignature() {
+        ByteArray key = verifiedKey();
+        if (verified.getIfPresent(key) != null) {
+            return true;
+        }
+
+        if (Key.verify(hash, signature)) {
+            verified.put(key, TimeUtil.currentTimeMillis());
+            return true;
+        }
+        return false;
+    }
+
+    private ByteArray verifiedKey() {
+        return ByteArray.of(Bytes.merge(hash, signature.toBytes()));
+    }
+
     /**
      * Returns the transaction network id.
      *
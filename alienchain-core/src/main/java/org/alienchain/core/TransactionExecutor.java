@@ -13,14 +13,25 @@ import static org.alienchain.core.Amount.sum;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.alienchain.config.Config;
 import org.alienchain.core.Amount.Unit;
 import org.alienchain.core.TransactionResult.Code;
 import org.alienchain.core.state.Account;
 import org.alienchain.core.state.AccountState;
+import org.alienchain.core.state.AccountStateImpl;
 import org.alienchain.core.state.DelegateState;
+import org.alienchain.core.state.DelegateStateImpl;
+import org.alienchain.util.ByteArray;
 import org.alienchain.util.Bytes;
 import org.alienchain.vm.client.AlienchainBlock;
 import org.alienchain.vm.client.AlienchainRepository;
@@ -32,12 +43,21 @@ import org.ethereum.vm.client.Repository;
 import org.ethereum.vm.client.TransactionReceipt;
 import org.ethereum.vm.program.invoke.ProgramInvokeFactory;
 import org.ethereum.vm.program.invoke.ProgramInvokeFactoryImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Transaction executor
  */
 public class TransactionExecutor {
 
+    private static final Logger logger = LoggerFactory.getLogger(TransactionExecutor.class);
+
+    /**
+     * Workers of parallel execution, shared by all the executors.
+     */
+    private static ExecutorService executor;
+
     private static final boolean[] valid = new boolean[256];
     static {
         for (byte b : Bytes.of("abcdefghijklmnopqrstuvwxyz0123456789_")) {
@@ -93,170 +113,309 @@ public class TransactionExecutor {
      */
     public List<TransactionResult> execute(List<Transaction> txs, AccountState as, DelegateState ds,
             AlienchainBlock block, Blockchain chain) {
+        int threads = config.txExecutionThreads();
+        if (threads > 1 && txs.size() > 1 && as instanceof AccountStateImpl && ds instanceof DelegateStateImpl) {
+            return executeParallel(txs, (AccountStateImpl) as, (DelegateStateImpl) ds, block, chain, threads);
+        }
+
         List<TransactionResult> results = new ArrayList<>();
 
         long gasUsedInBlock = 0;
         for (Transaction tx : txs) {
-            TransactionResult result = new TransactionResult();
+            TransactionResult result = execute(tx, as, ds, block, chain, gasUsedInBlock);
             results.add(result);
 
-            TransactionType type = tx.getType();
-            byte[] from = tx.getFrom();
-            byte[] to = tx.getTo();
-            Amount value = tx.getValue();
-            long nonce = tx.getNonce();
-            Amount fee = tx.getFee();
-            byte[] data = tx.getData();
-
-            Account acc = as.getAccount(from);
-            Amount available = acc.getAvailable();
-            Amount locked = acc.getLocked();
-
-            // check nonce
-            if (nonce != acc.getNonce()) {
-                result.setCode(Code.INVALID_NONCE);
-                continue;
+            if (isVmCall(tx) && result.getCode().isAcceptable()) {
+                gasUsedInBlock += result.getGasUsed();
             }
+        }
 
-            boolean isVmCall = type == TransactionType.CREATE || type == TransactionType.CALL;
+        return results;
+    }
 
-            // check fee (call and create use gas instead)
-            if (isVmCall) {
-                if (fee.lt(Amount.ZERO)) {
-                    result.setCode(Code.INVALID_FEE);
-                    continue;
-                }
-            } else {
-                if (fee.lt(config.minTransactionFee())) {
-                    result.setCode(Code.INVALID_FEE);
-                    continue;
-                }
+    /**
+     * Execute one transaction of a block.
+     *
+     * @param gasUsedInBlock
+     *            the gas used by the previous transactions of the block
+     * @return
+     */
+    protected TransactionResult execute(Transaction tx, AccountState as, DelegateState ds, AlienchainBlock block,
+            Blockchain chain, long gasUsedInBlock) {
+        TransactionResult result = new TransactionResult();
+
+        TransactionType type = tx.getType();
+        byte[] from = tx.getFrom();
+        byte[] to = tx.getTo();
+        Amount value = tx.getValue();
+        long nonce = tx.getNonce();
+        Amount fee = tx.getFee();
+        byte[] data = tx.getData();
+
+        Account acc = as.getAccount(from);
+        Amount available = acc.getAvailable();
+        Amount locked = acc.getLocked();
+
+        // check nonce
+        if (nonce != acc.getNonce()) {
+            result.setCode(Code.INVALID_NONCE);
+            return result;
+        }
+
+        boolean isVmCall = isVmCall(tx);
+
+        // check fee (call and create use gas instead)
+        if (isVmCall) {
+            if (fee.lt(Amount.ZERO)) {
+                result.setCode(Code.INVALID_FEE);
+                return result;
+            }
+        } else {
+            if (fee.lt(config.minTransactionFee())) {
+                result.setCode(Code.INVALID_FEE);
+                return result;
             }
+        }
+
+        // check data length
+        if (data.length > config.maxTransactionDataSize(type)) {
+            result.setCode(Code.INVALID_DATA);
+            return result;
+        }
 
-            // check data length
-            if (data.length > config.maxTransactionDataSize(type)) {
-                result.setCode(Code.INVALID_DATA);
-                continue;
+        switch (type) {
+        case TRANSFER: {
+            if (fee.lte(available) && value.lte(available) && sum(value, fee).lte(available)) {
+                as.adjustAvailable(from, neg(sum(value, fee)));
+                as.adjustAvailable(to, value);
+            } else {
+                result.setCode(Code.INSUFFICIENT_AVAILABLE);
+            }
+            break;
+        }
+        case DELEGATE: {
+            if (!validateDelegateName(data)) {
+                result.setCode(Code.INVALID_DELEGATE_NAME);
+                break;
+            }
+            if (value.lt(config.minDelegateBurnAmount())) {
+                result.setCode(Code.INVALID_DELEGATE_BURN_AMOUNT);
+                break;
+            }
+            if (!Arrays.equals(Bytes.EMPTY_ADDRESS, to)) {
+                result.setCode(Code.INVALID_DELEGATE_BURN_ADDRESS);
+                break;
             }
 
-            switch (type) {
-            case TRANSFER: {
-                if (fee.lte(available) && value.lte(available) && sum(value, fee).lte(available)) {
+            if (fee.lte(available) && value.lte(available) && sum(value, fee).lte(available)) {
+                if (ds.register(from, data)) {
                     as.adjustAvailable(from, neg(sum(value, fee)));
-                    as.adjustAvailable(to, value);
                 } else {
-                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                    result.setCode(Code.INVALID_DELEGATING);
                 }
-                break;
+            } else {
+                result.setCode(Code.INSUFFICIENT_AVAILABLE);
             }
-            case DELEGATE: {
-                if (!validateDelegateName(data)) {
-                    result.setCode(Code.INVALID_DELEGATE_NAME);
-                    break;
-                }
-                if (value.lt(config.minDelegateBurnAmount())) {
-                    result.setCode(Code.INVALID_DELEGATE_BURN_AMOUNT);
-                    break;
-                }
-                if (!Arrays.equals(Bytes.EMPTY_ADDRESS, to)) {
-                    result.setCode(Code.INVALID_DELEGATE_BURN_ADDRESS);
-                    break;
-                }
-
-                if (fee.lte(available) && value.lte(available) && sum(value, fee).lte(available)) {
-                    if (ds.register(from, data)) {
-                        as.adjustAvailable(from, neg(sum(value, fee)));
-                    } else {
-                        result.setCode(Code.INVALID_DELEGATING);
-                    }
+            break;
+        }
+        case VOTE: {
+            if (fee.lte(available) && value.lte(available) && sum(value, fee).lte(available)) {
+                if (ds.vote(from, to, value)) {
+                    as.adjustAvailable(from, neg(sum(value, fee)));
+                    as.adjustLocked(from, value);
                 } else {
-                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                    result.setCode(Code.INVALID_VOTING);
                 }
+            } else {
+                result.setCode(Code.INSUFFICIENT_AVAILABLE);
+            }
+            break;
+        }
+        case UNVOTE: {
+            if (available.lt(fee)) {
+                result.setCode(Code.INSUFFICIENT_AVAILABLE);
                 break;
             }
-            case VOTE: {
-                if (fee.lte(available) && value.lte(available) && sum(value, fee).lte(available)) {
-                    if (ds.vote(from, to, value)) {
-                        as.adjustAvailable(from, neg(sum(value, fee)));
-                        as.adjustLocked(from, value);
-                    } else {
-                        result.setCode(Code.INVALID_VOTING);
-                    }
-                } else {
-                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                }
+            if (locked.lt(value)) {
+                result.setCode(Code.INSUFFICIENT_LOCKED);
                 break;
             }
-            case UNVOTE: {
-                if (available.lt(fee)) {
-                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                    break;
-                }
-                if (locked.lt(value)) {
-                    result.setCode(Code.INSUFFICIENT_LOCKED);
-                    break;
-                }
 
-                if (ds.unvote(from, to, value)) {
-                    as.adjustAvailable(from, sub(value, fee));
-                    as.adjustLocked(from, neg(value));
-                } else {
-                    result.setCode(Code.INVALID_UNVOTING);
-                }
+            if (ds.unvote(from, to, value)) {
+                as.adjustAvailable(from, sub(value, fee));
+                as.adjustLocked(from, neg(value));
+            } else {
+                result.setCode(Code.INVALID_UNVOTING);
+            }
+            break;
+        }
+
+        case CALL:
+        case CREATE:
+            // Note: the second parameter should be height = block number + 1; here we're
+            // checking if the fork is enabled at the end of last block.
+            if (!chain.isForkActivated(Fork.VIRTUAL_MACHINE, block.getNumber())) {
+                result.setCode(Code.INVALID_TYPE);
                 break;
             }
 
-            case CALL:
-            case CREATE:
-                // Note: the second parameter should be height = block number + 1; here we're
-                // checking if the fork is enabled at the end of last block.
-                if (!chain.isForkActivated(Fork.VIRTUAL_MACHINE, block.getNumber())) {
-                    result.setCode(Code.INVALID_TYPE);
-                    break;
-                }
+            // FIXME: overflow
+            long maxGasFee = tx.getGas() * tx.getGasPrice();
 
-                // FIXME: overflow
-                long maxGasFee = tx.getGas() * tx.getGasPrice();
+            Amount maxCost = sum(sum(value, fee), Unit.NANO_ALX.of(maxGasFee));
 
-                Amount maxCost = sum(sum(value, fee), Unit.NANO_ALX.of(maxGasFee));
+            if (available.lt(maxCost)) {
+                result.setCode(Code.INSUFFICIENT_AVAILABLE);
+                break;
+            }
 
-                if (available.lt(maxCost)) {
-                    result.setCode(Code.INSUFFICIENT_AVAILABLE);
-                    break;
-                }
+            // VM calls can have fees/values set.
+            as.adjustAvailable(from, neg(sum(value, fee)));
 
-                // VM calls can have fees/values set.
-                as.adjustAvailable(from, neg(sum(value, fee)));
+            if (tx.getGas() > config.vmMaxBlockGasLimit()) {
+                result.setCode(Code.INVALID_GAS);
+            } else {
+                executeVmTransaction(result, tx, as, block, gasUsedInBlock);
+            }
 
-                if (tx.getGas() > config.vmMaxBlockGasLimit()) {
-                    result.setCode(Code.INVALID_GAS);
-                } else {
-                    executeVmTransaction(result, tx, as, block, gasUsedInBlock);
-                    if (result.getCode().isAcceptable()) {
-                        gasUsedInBlock += result.getGasUsed();
-                    }
+            break;
+
+        default:
+            // unsupported transaction type
+            result.setCode(Code.INVALID_TYPE);
+            break;
+        }
+
+        // increase nonce if success
+        // creates and calls increase their own nonces internal to VM
+        if (result.getCode().isAcceptable() && !isVmCall) {
+            as.increaseNonce(from);
+        }
+
+        result.setBlockNumber(block.getNumber());
+
+        return result;
+    }
+
+    /**
+     * Executes the transactions of a block optimistically in parallel, with the
+     * same results as {@link #execute(List, AccountState, DelegateState,
+     * AlienchainBlock, Blockchain)}.
+     *
+     * <p>
+     * Every transaction but VM calls, which depend on the gas used by the
+     * previous ones, first runs speculatively on a worker against the state at
+     * the start of the block, recording the keys it reads. The results are then
+     * committed in order; a transaction which read a key written by a previous
+     * transaction of the block is discarded and executed again, as are VM calls.
+     * </p>
+     */
+    protected List<TransactionResult> executeParallel(List<Transaction> txs, AccountStateImpl as,
+            DelegateStateImpl ds, AlienchainBlock block, Blockchain chain, int threads) {
+        ExecutorService exec = getExecutor(threads);
+
+        List<Future<Speculation>> futures = new ArrayList<>(txs.size());
+        for (Transaction tx : txs) {
+            futures.add(isVmCall(tx) ? null : exec.submit(() -> speculate(tx, as, ds, block, chain, 0)));
+        }
+
+        List<TransactionResult> results = new ArrayList<>(txs.size());
+        Set<ByteArray> accountWrites = new HashSet<>();
+        Set<ByteArray> delegateWrites = new HashSet<>();
+        long gasUsedInBlock = 0;
+        int conflicts = 0;
+        try {
+            for (int i = 0; i < txs.size(); i++) {
+                Transaction tx = txs.get(i);
+                Speculation s = getSpeculation(futures.get(i));
+
+                if (s == null || !Collections.disjoint(s.accountReads, accountWrites)
+                        || !Collections.disjoint(s.delegateReads, delegateWrites)) {
+                    conflicts += (s == null) ? 0 : 1;
+                    s = speculate(tx, as, ds, block, chain, gasUsedInBlock);
                 }
 
-                break;
+                accountWrites.addAll(s.as.getUpdatedKeys());
+                delegateWrites.addAll(s.ds.getUpdatedKeys());
+                s.as.commit();
+                s.ds.commit();
+                results.add(s.result);
 
-            default:
-                // unsupported transaction type
-                result.setCode(Code.INVALID_TYPE);
-                break;
+                if (isVmCall(tx) && s.result.getCode().isAcceptable()) {
+                    gasUsedInBlock += s.result.getGasUsed();
+                }
             }
-
-            // increase nonce if success
-            // creates and calls increase their own nonces internal to VM
-            if (result.getCode().isAcceptable() && !isVmCall) {
-                as.increaseNonce(from);
+        } finally {
+            for (Future<Speculation> f : futures) {
+                if (f != null) {
+                    f.cancel(false);
+                }
             }
-
-            result.setBlockNumber(block.getNumber());
         }
 
+        logger.trace("Executed {} transactions in parallel, {} conflicts", txs.size(), conflicts);
         return results;
     }
 
+    private Speculation speculate(Transaction tx, AccountStateImpl as, DelegateStateImpl ds, AlienchainBlock block,
+            Blockchain chain, long gasUsedInBlock) {
+        Speculation s = new Speculation();
+        s.as = as.track(s.accountReads);
+        s.ds = ds.track(s.delegateReads);
+        s.result = execute(tx, s.as, s.ds, block, chain, gasUsedInBlock);
+        return s;
+    }
+
+    /**
+     * Returns the result of a speculative execution, or null if it failed; the
+     * transaction is then executed again in order.
+     */
+    private static Speculation getSpeculation(Future<Speculation> future) {
+        if (future == null) {
+            return null;
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor(int threads) {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger cnt = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "tx-exec-" + cnt.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private static boolean isVmCall(Transaction tx) {
+        return tx.getType() == TransactionType.CREATE || tx.getType() == TransactionType.CALL;
+    }
+
+    /**
+     * A transaction executed on its own snapshots of the states.
+     */
+    private static class Speculation {
+        private final Set<ByteArray> accountReads = new HashSet<>();
+        private final Set<ByteArray> delegateReads = new HashSet<>();
+        private AccountStateImpl as;
+        private DelegateStateImpl ds;
+        private TransactionResult result;
+    }
+
     private void executeVmTransaction(TransactionResult result, Transaction tx, AccountState as, AlienchainBlock block,
             long gasUsedInBlock) {
         AlienchainTransaction transaction = new AlienchainTransaction(tx);
@@ -8,14 +8,21 @@ package org.alienchain.core.state;
 
 import static org.alienchain.core.Amount.sum;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
 import org.alienchain.core.Amount;
 import org.alienchain.db.Database;
 import org.alienchain.util.ByteArray;
 import org.alienchain.util.Bytes;
+import org.apache.commons.lang3.tuple.Pair;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 
 /**
  * Account state implementation.
@@ -34,13 +41,16 @@ public class AccountStateImpl implements Cloneable, AccountState {
     protected static final byte TYPE_CODE = 1;
     protected static final byte TYPE_STORAGE = 2;
 
-    protected Database accountDB;
-    protected AccountStateImpl prev;
+    /**
+     * Max number of decoded accounts cached above the database.
+     */
+    private static final int ACCOUNT_CACHE_SIZE = 64 * 1024;
 
     /**
-     * All updates, or deletes if the value is null.
+     * Account updates are kept as decoded {@link Account} objects, which are
+     * never mutated once put, and only encoded when the root commits.
      */
-    protected final Map<ByteArray, byte[]> updates = new ConcurrentHashMap<>();
+    protected final StateLayer<Object> layer;
 
     /**
      * Create an {@link AccountState} that work directly on a database.
@@ -48,7 +58,7 @@ public class AccountStateImpl implements Cloneable, AccountState {
      * @param accountDB
      */
     public AccountStateImpl(Database accountDB) {
-        this.accountDB = accountDB;
+        this.layer = new StateLayer<>(new AccountStore(accountDB));
     }
 
     /**
@@ -57,96 +67,62 @@ public class AccountStateImpl implements Cloneable, AccountState {
      * @param prev
      */
     public AccountStateImpl(AccountStateImpl prev) {
-        this.prev = prev;
+        this.layer = new StateLayer<>(prev.layer);
+    }
+
+    protected AccountStateImpl(StateLayer<Object> layer) {
+        this.layer = layer;
     }
 
     @Override
     public Account getAccount(byte[] address) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-        Amount noAmount = Amount.ZERO;
-
-        if (updates.containsKey(k)) {
-            byte[] v = updates.get(k);
-            return v == null ? new Account(address, noAmount, noAmount, 0) : Account.fromBytes(address, v);
-        } else if (prev != null) {
-            return prev.getAccount(address);
-        } else {
-            byte[] v = accountDB.get(k.getData());
-            return v == null ? new Account(address, noAmount, noAmount, 0) : Account.fromBytes(address, v);
-        }
+        Account acc = (Account) layer.get(getKey(TYPE_ACCOUNT, address));
+        return acc == null ? new Account(address, Amount.ZERO, Amount.ZERO, 0) : acc;
     }
 
     @Override
     public long increaseNonce(byte[] address) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
         Account acc = getAccount(address);
         long nonce = acc.getNonce() + 1;
-        acc.setNonce(nonce);
-        updates.put(k, acc.toBytes());
+        putAccount(new Account(address, acc.getAvailable(), acc.getLocked(), nonce));
         return nonce;
     }
 
     @Override
     public void adjustAvailable(byte[] address, Amount delta) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
         Account acc = getAccount(address);
-        acc.setAvailable(sum(acc.getAvailable(), delta));
-        updates.put(k, acc.toBytes());
+        putAccount(new Account(address, sum(acc.getAvailable(), delta), acc.getLocked(), acc.getNonce()));
     }
 
     @Override
     public void adjustLocked(byte[] address, Amount delta) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
         Account acc = getAccount(address);
-        acc.setLocked(sum(acc.getLocked(), delta));
-        updates.put(k, acc.toBytes());
+        putAccount(new Account(address, acc.getAvailable(), sum(acc.getLocked(), delta), acc.getNonce()));
     }
 
     @Override
     public byte[] getCode(byte[] address) {
-        ByteArray k = getKey(TYPE_CODE, address);
-
-        if (updates.containsKey(k)) {
-            return updates.get(k);
-        } else if (prev != null) {
-            return prev.getCode(address);
-        } else {
-            return accountDB.get(k.getData());
-        }
+        return (byte[]) layer.get(getKey(TYPE_CODE, address));
     }
 
     @Override
     public void setCode(byte[] address, byte[] code) {
-        ByteArray k = getKey(TYPE_CODE, address);
-        updates.put(k, code);
+        layer.put(getKey(TYPE_CODE, address), code);
     }
 
     @Override
     public byte[] getStorage(byte[] address, byte[] key) {
-        ByteArray k = getStorageKey(address, key);
-
-        if (updates.containsKey(k)) {
-            return updates.get(k);
-        } else if (prev != null) {
-            return prev.getStorage(address, key);
-        } else {
-            return accountDB.get(k.getData());
-        }
+        return (byte[]) layer.get(getStorageKey(address, key));
     }
 
     @Override
     public void putStorage(byte[] address, byte[] key, byte[] value) {
-        ByteArray storeKey = getStorageKey(address, key);
-        updates.put(storeKey, value);
+        layer.put(getStorageKey(address, key), value);
     }
 
     @Override
     public void removeStorage(byte[] address, byte[] key) {
-        ByteArray storeKey = getStorageKey(address, key);
-        updates.put(storeKey, null);
+        layer.put(getStorageKey(address, key), null);
     }
 
     @Override
@@ -154,63 +130,68 @@ public class AccountStateImpl implements Cloneable, AccountState {
         return new AccountStateImpl(this);
     }
 
+    /**
+     * Returns a snapshot which records the keys read through it, e.g. to detect
+     * conflicts between transactions executed in parallel.
+     *
+     * @param reads
+     *            the set to record the keys into
+     * @return
+     */
+    public AccountStateImpl track(Set<ByteArray> reads) {
+        return new AccountStateImpl(new StateLayer<>(layer, reads));
+    }
+
+    /**
+     * Returns the keys updated since last snapshot.
+     *
+     * @return
+     */
+    public Set<ByteArray> getUpdatedKeys() {
+        return layer.getUpdatedKeys();
+    }
+
     @Override
     public void commit() {
-        synchronized (updates) {
-            if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : updates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        accountDB.delete(entry.getKey().getData());
-                    } else {
-                        accountDB.put(entry.getKey().getData(), entry.getValue());
-                    }
-                }
-            } else {
-                for (Entry<ByteArray, byte[]> e : updates.entrySet()) {
-                    prev.updates.put(e.getKey(), e.getValue());
-                }
-            }
-
-            updates.clear();
-        }
+        layer.commit();
     }
 
     @Override
     public void rollback() {
-        updates.clear();
+        layer.rollback();
     }
 
     @Override
     public boolean exists(byte[] address) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
-        if (updates.containsKey(k)) {
-            return true;
-        } else if (prev != null) {
-            return prev.exists(address);
-        } else {
-            byte[] v = accountDB.get(k.getData());
-            return v != null;
-        }
+        return layer.exists(getKey(TYPE_ACCOUNT, address));
     }
 
     @Override
     public long setNonce(byte[] address, long nonce) {
-        ByteArray k = getKey(TYPE_ACCOUNT, address);
-
         Account acc = getAccount(address);
-        acc.setNonce(nonce);
-        updates.put(k, acc.toBytes());
+        putAccount(new Account(address, acc.getAvailable(), acc.getLocked(), nonce));
         return nonce;
     }
 
+    /**
+     * Clones this state. The copy shares the account objects, which are never
+     * mutated, and none of the updates.
+     */
     @Override
     public AccountState clone() {
-        AccountStateImpl clone = new AccountStateImpl(accountDB);
-        clone.prev = prev;
-        clone.updates.putAll(updates);
+        return new AccountStateImpl(layer.copy());
+    }
 
-        return clone;
+    /**
+     * Drops the decoded accounts cached above the database, e.g. after the
+     * writes staged in the database were discarded.
+     */
+    public void invalidateCache() {
+        layer.getStore().invalidate();
+    }
+
+    protected void putAccount(Account acc) {
+        layer.put(getKey(TYPE_ACCOUNT, acc.getAddress()), acc);
     }
 
     protected ByteArray getKey(byte type, byte[] address) {
@@ -225,4 +206,54 @@ public class AccountStateImpl implements Cloneable, AccountState {
 
         return ByteArray.of(buf);
     }
+
+    /**
+     * Decodes accounts on read and encodes them on write, caching the hot ones.
+     */
+    private static class AccountStore implements StateLayer.Store<Object> {
+
+        private final Database accountDB;
+
+        private final Cache<ByteArray, Account> cache = Caffeine.newBuilder().maximumSize(ACCOUNT_CACHE_SIZE)
+                .build();
+
+        AccountStore(Database accountDB) {
+            this.accountDB = accountDB;
+        }
+
+        @Override
+        public Object get(ByteArray key) {
+            if (key.getData()[0] != TYPE_ACCOUNT) {
+                return accountDB.get(key.getData());
+            }
+
+            return cache.get(key, k -> {
+                byte[] v = accountDB.get(k.getData());
+                return v == null ? null : Account.fromBytes(Arrays.copyOfRange(k.getData(), 1, k.length()), v);
+            });
+        }
+
+        @Override
+        public void write(Map<ByteArray, Object> updates) {
+            List<Pair<byte[], byte[]>> batch = new ArrayList<>(updates.size());
+            for (Entry<ByteArray, Object> e : updates.entrySet()) {
+                Object v = e.getValue();
+                batch.add(Pair.of(e.getKey().getData(), v instanceof Account ? ((Account) v).toBytes() : (byte[]) v));
+            }
+            accountDB.updateBatch(batch);
+
+            for (Entry<ByteArray, Object> e : updates.entrySet()) {
+                if (e.getValue() instanceof Account) {
+                    cache.put(e.getKey(), (Account) e.getValue());
+                } else {
+                    cache.invalidate(e.getKey());
+                }
+            }
+        }
+
+        @Override
+        public void invalidate() {
+            cache.invalidateAll();
+        }
+    }
 }
@@ -0,0 +1,154 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.core.state;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+
+import org.alienchain.db.Database;
+import org.alienchain.util.ByteArray;
+import org.alienchain.util.ClosableIterator;
+
+/**
+ * The committed delegates, ranked by votes then name.
+ *
+ * <p>
+ * The index is loaded from the delegate database on first use, then updated
+ * with the delegates written by each commit of the root state, so ranking
+ * never requires a full scan.
+ * </p>
+ */
+class DelegateIndex {
+
+    /**
+     * Orders delegates by votes, descending, then name.
+     */
+    static final Comparator<Delegate> RANKING = (d1, d2) -> {
+        int cmp = d2.getVotes().compareTo(d1.getVotes());
+        return (cmp != 0) ? cmp : d1.getNameString().compareTo(d2.getNameString());
+    };
+
+    private final Database delegateDB;
+    private final int addressLength;
+
+    private final TreeSet<Delegate> ranked = new TreeSet<>(RANKING);
+    private final Map<ByteArray, Delegate> byAddress = new HashMap<>();
+    private boolean loaded = false;
+
+    DelegateIndex(Database delegateDB, int addressLength) {
+        this.delegateDB = delegateDB;
+        this.addressLength = addressLength;
+    }
+
+    /**
+     * Returns the top delegates, with the given changes applied on top of the
+     * committed ones.
+     *
+     * @param limit
+     *            max number of delegates
+     * @param changes
+     *            changed delegates by address; null value means removed
+     * @return
+     */
+    synchronized List<Delegate> getDelegates(int limit, Map<ByteArray, Delegate> changes) {
+        load();
+
+        List<Delegate> updated = new ArrayList<>();
+        for (Delegate d : changes.values()) {
+            if (d != null) {
+                updated.add(d);
+            }
+        }
+        updated.sort(RANKING);
+
+        // merge the two sorted sequences
+        List<Delegate> result = new ArrayList<>(Math.min(limit, ranked.size() + updated.size()));
+        Iterator<Delegate> itr = ranked.iterator();
+        Delegate next = nextUnchanged(itr, changes);
+        int i = 0;
+        while (result.size() < limit && (next != null || i < updated.size())) {
+            if (next == null || (i < updated.size() && RANKING.compare(updated.get(i), next) < 0)) {
+                result.add(updated.get(i++));
+            } else {
+                result.add(next);
+                next = nextUnchanged(itr, changes);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Applies the updates written to the delegate database.
+     *
+     * @param updates
+     */
+    synchronized void update(Map<ByteArray, byte[]> updates) {
+        if (!loaded) {
+            return;
+        }
+
+        for (Entry<ByteArray, byte[]> e : updates.entrySet()) {
+            if (e.getKey().length() == addressLength) {
+                Delegate d = e.getValue() == null ? null : Delegate.fromBytes(e.getKey().getData(), e.getValue());
+                put(e.getKey(), d);
+            }
+        }
+    }
+
+    /**
+     * Drops the index, to be reloaded from the database on next use.
+     */
+    synchronized void clear() {
+        ranked.clear();
+        byAddress.clear();
+        loaded = false;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+
+        ClosableIterator<Entry<byte[], byte[]>> itr = delegateDB.iterator();
+        while (itr.hasNext()) {
+            Entry<byte[], byte[]> entry = itr.next();
+            if (entry.getKey().length == addressLength) {
+                put(ByteArray.of(entry.getKey()), Delegate.fromBytes(entry.getKey(), entry.getValue()));
+            }
+        }
+        itr.close();
+
+        loaded = true;
+    }
+
+    private void put(ByteArray address, Delegate d) {
+        Delegate old = d == null ? byAddress.remove(address) : byAddress.put(address, d);
+        if (old != null) {
+            ranked.remove(old);
+        }
+        if (d != null) {
+            ranked.add(d);
+        }
+    }
+
+    private static Delegate nextUnchanged(Iterator<Delegate> itr, Map<ByteArray, Delegate> changes) {
+        while (itr.hasNext()) {
+            Delegate d = itr.next();
+            if (!changes.containsKey(ByteArray.of(d.getAddress()))) {
+                return d;
+            }
+        }
+        return null;
+    }
+}
@@ -8,6 +8,7 @@ package org.alienchain.core.state;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 import org.alienchain.core.Amount;
 import org.alienchain.util.ByteArray;
@@ -71,6 +72,35 @@ public interface DelegateState {
      */
     Map<ByteArray, Amount> getVotes(byte[] delegate);
 
+    /**
+     * Returns a page of the votes for one delegate, ordered by voter address.
+     *
+     * @param delegate
+     * @param fromVoter
+     *            the first voter, inclusive; null means the first one
+     * @param limit
+     *            max number of votes
+     * @return
+     */
+    Map<ByteArray, Amount> getVotes(byte[] delegate, byte[] fromVoter, int limit);
+
+    /**
+     * Iterates all the votes for one delegate, ordered by voter address,
+     * without collecting them.
+     *
+     * @param delegate
+     * @param action
+     */
+    void forEachVote(byte[] delegate, BiConsumer<ByteArray, Amount> action);
+
+    /**
+     * Returns the number of voters of one delegate.
+     *
+     * @param delegate
+     * @return
+     */
+    long getVoterCount(byte[] delegate);
+
     /**
      * Retrieves delegate by its name.
      * 
@@ -94,6 +124,15 @@ public interface DelegateState {
      */
     List<Delegate> getDelegates();
 
+    /**
+     * Returns the top delegates, ranked by votes then name.
+     * 
+     * @param limit
+     *            max number of delegates
+     * @return
+     */
+    List<Delegate> getDelegates(int limit);
+
     /**
      * Returns a snapshot and starts tracking updates.
      */
@@ -11,13 +11,14 @@ import static org.alienchain.core.Amount.ZERO;
 import static org.alienchain.core.Amount.sub;
 import static org.alienchain.core.Amount.sum;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.function.BiConsumer;
 
 import org.alienchain.core.Amount;
 import org.alienchain.core.Blockchain;
@@ -28,6 +29,9 @@ import org.alienchain.util.ClosableIterator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
 /**
  * Delegate state implementation.
  *
@@ -51,21 +55,35 @@ public class DelegateStateImpl implements DelegateState {
 
     private static final int ADDRESS_LEN = 20;
 
+    /**
+     * Max number of delegates whose voter count is cached.
+     */
+    private static final int VOTER_COUNT_CACHE_SIZE = 1024;
+
     protected final Blockchain chain;
 
-    protected Database delegateDB;
-    protected Database voteDB;
-    protected DelegateStateImpl prev;
+    protected final Database delegateDB;
+    protected final Database voteDB;
+
+    /**
+     * Committed delegates, ranked; shared by the tracked states
+     */
+    protected final DelegateIndex index;
 
     /**
      * Delegate updates
      */
-    protected final Map<ByteArray, byte[]> delegateUpdates = new ConcurrentHashMap<>();
+    protected final StateLayer<byte[]> delegateLayer;
 
     /**
      * Vote updates
      */
-    protected final Map<ByteArray, byte[]> voteUpdates = new ConcurrentHashMap<>();
+    protected final StateLayer<byte[]> voteLayer;
+
+    /**
+     * Committed votes, with voter counts; shared by the tracked states
+     */
+    private final VoteStore voteStore;
 
     /**
      * Create a DelegateState that work directly on a database.
@@ -77,6 +95,10 @@ public class DelegateStateImpl implements DelegateState {
         this.chain = chain;
         this.delegateDB = delegateDB;
         this.voteDB = voteDB;
+        this.index = new DelegateIndex(delegateDB, ADDRESS_LEN);
+        this.delegateLayer = new StateLayer<>(new DelegateStore(delegateDB, index));
+        this.voteStore = new VoteStore(voteDB);
+        this.voteLayer = new StateLayer<>(voteStore);
     }
 
     /**
@@ -86,7 +108,29 @@ public class DelegateStateImpl implements DelegateState {
      */
     public DelegateStateImpl(DelegateStateImpl prev) {
         this.chain = prev.chain;
-        this.prev = prev;
+        this.delegateDB = prev.delegateDB;
+        this.voteDB = prev.voteDB;
+        this.index = prev.index;
+        this.delegateLayer = new StateLayer<>(prev.delegateLayer);
+        this.voteLayer = new StateLayer<>(prev.voteLayer);
+        this.voteStore = prev.voteStore;
+    }
+
+    /**
+     * Create an DelegateState based on a previous DelegateState, which records
+     * the keys read through it.
+     * 
+     * @param prev
+     * @param reads
+     */
+    protected DelegateStateImpl(DelegateStateImpl prev, Set<ByteArray> reads) {
+        this.chain = prev.chain;
+        this.delegateDB = prev.delegateDB;
+        this.voteDB = prev.voteDB;
+        this.index = prev.index;
+        this.delegateLayer = new StateLayer<>(prev.delegateLayer, reads);
+        this.voteLayer = new StateLayer<>(prev.voteLayer, reads);
+        this.voteStore = prev.voteStore;
     }
 
     @Override
@@ -95,8 +139,8 @@ public class DelegateStateImpl implements DelegateState {
             return false;
         } else {
             Delegate d = new Delegate(address, name, registeredAt, ZERO);
-            delegateUpdates.put(ByteArray.of(name), address);
-            delegateUpdates.put(ByteArray.of(address), d.toBytes());
+            delegateLayer.put(ByteArray.of(name), address);
+            delegateLayer.put(ByteArray.of(address), d.toBytes());
 
             return true;
         }
@@ -116,9 +160,9 @@ public class DelegateStateImpl implements DelegateState {
         if (d == null) {
             return false;
         } else {
-            voteUpdates.put(key, encodeAmount(sum(value, v)));
+            voteLayer.put(key, encodeAmount(sum(value, v)));
             d.setVotes(sum(d.getVotes(), v));
-            delegateUpdates.put(ByteArray.of(delegate), d.toBytes());
+            delegateLayer.put(ByteArray.of(delegate), d.toBytes());
             return true;
         }
     }
@@ -131,11 +175,11 @@ public class DelegateStateImpl implements DelegateState {
         if (v.gt(value)) {
             return false;
         } else {
-            voteUpdates.put(key, encodeAmount(sub(value, v)));
+            voteLayer.put(key, encodeAmount(sub(value, v)));
 
             Delegate d = getDelegateByAddress(delegate);
             d.setVotes(sub(d.getVotes(), v));
-            delegateUpdates.put(ByteArray.of(delegate), d.toBytes());
+            delegateLayer.put(ByteArray.of(delegate), d.toBytes());
 
             return true;
         }
@@ -148,48 +192,34 @@ public class DelegateStateImpl implements DelegateState {
 
     @Override
     public Delegate getDelegateByName(byte[] name) {
-        ByteArray k = ByteArray.of(name);
-
-        if (delegateUpdates.containsKey(k)) {
-            byte[] v = delegateUpdates.get(k);
-            return v == null ? null : getDelegateByAddress(v);
-        } else if (prev != null) {
-            return prev.getDelegateByName(name);
-        } else {
-            byte[] v = delegateDB.get(k.getData());
-            return v == null ? null : getDelegateByAddress(v);
-        }
+        byte[] v = delegateLayer.get(ByteArray.of(name));
+        return v == null ? null : getDelegateByAddress(v);
     }
 
     @Override
     public Delegate getDelegateByAddress(byte[] address) {
-        ByteArray k = ByteArray.of(address);
-
-        if (delegateUpdates.containsKey(k)) {
-            byte[] v = delegateUpdates.get(k);
-            return v == null ? null : Delegate.fromBytes(k.getData(), v);
-        } else if (prev != null) {
-            return prev.getDelegateByAddress(address);
-        } else {
-            byte[] v = delegateDB.get(k.getData());
-            return v == null ? null : Delegate.fromBytes(k.getData(), v);
-        }
+        byte[] v = delegateLayer.get(ByteArray.of(address));
+        return v == null ? null : Delegate.fromBytes(address, v);
     }
 
     @Override
     public List<Delegate> getDelegates() {
-        long t1 = System.nanoTime();
+        return getDelegates(Integer.MAX_VALUE);
+    }
 
-        // traverse all cached update, all the way to database.
-        Map<ByteArray, Delegate> map = new HashMap<>();
-        getDelegates(map);
+    @Override
+    public List<Delegate> getDelegates(int limit) {
+        long t1 = System.nanoTime();
 
-        // sort the results
-        List<Delegate> list = new ArrayList<>(map.values());
-        list.sort((d1, d2) -> {
-            int cmp = d2.getVotes().compareTo(d1.getVotes());
-            return (cmp != 0) ? cmp : d1.getNameString().compareTo(d2.getNameString());
+        // merge the cached updates with the ranked index
+        Map<ByteArray, Delegate> changes = new HashMap<>();
+        delegateLayer.getUpdates().forEach((k, v) -> {
+            /* filter address */
+            if (k.length() == ADDRESS_LEN) {
+                changes.put(k, v == null ? null : Delegate.fromBytes(k.getData(), v));
+            }
         });
+        List<Delegate> list = index.getDelegates(limit, changes);
 
         long t2 = System.nanoTime();
         logger.trace("Get delegates duration: {} μs", (t2 - t1) / 1000L);
@@ -201,83 +231,50 @@ public class DelegateStateImpl implements DelegateState {
         return new DelegateStateImpl(this);
     }
 
-    @Override
-    public void commit() {
-        synchronized (delegateUpdates) {
-            if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : delegateUpdates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        delegateDB.delete(entry.getKey().getData());
-                    } else {
-                        delegateDB.put(entry.getKey().getData(), entry.getValue());
-                    }
-                }
-            } else {
-                for (Entry<ByteArray, byte[]> e : delegateUpdates.entrySet()) {
-                    prev.delegateUpdates.put(e.getKey(), e.getValue());
-                }
-            }
-
-            delegateUpdates.clear();
-        }
+    /**
+     * Returns a snapshot which records the keys read through it, e.g. to detect
+     * conflicts between transactions executed in parallel. Delegate and vote
+     * keys are recorded together; they never collide as votes are keyed by
+     * [delegate, voter].
+     *
+     * @param reads
+     *            the set to record the keys into
+     * @return
+     */
+    public DelegateStateImpl track(Set<ByteArray> reads) {
+        return new DelegateStateImpl(this, reads);
+    }
 
-        synchronized (voteUpdates) {
-            if (prev == null) {
-                for (Entry<ByteArray, byte[]> entry : voteUpdates.entrySet()) {
-                    if (entry.getValue() == null) {
-                        voteDB.delete(entry.getKey().getData());
-                    } else {
-                        voteDB.put(entry.getKey().getData(), entry.getValue());
-                    }
-                }
-            } else {
-                for (Entry<ByteArray, byte[]> e : voteUpdates.entrySet()) {
-                    prev.voteUpdates.put(e.getKey(), e.getValue());
-                }
-            }
+    /**
+     * Returns the delegate and vote keys updated since last snapshot.
+     *
+     * @return
+     */
+    public Set<ByteArray> getUpdatedKeys() {
+        Set<ByteArray> keys = delegateLayer.getUpdatedKeys();
+        keys.addAll(voteLayer.getUpdatedKeys());
+        return keys;
+    }
 
-            voteUpdates.clear();
-        }
+    @Override
+    public void commit() {
+        delegateLayer.commit();
+        voteLayer.commit();
     }
 
     @Override
     public void rollback() {
-        delegateUpdates.clear();
-        voteUpdates.clear();
+        delegateLayer.rollback();
+        voteLayer.rollback();
     }
 
     /**
-     * Recursively compute the delegates.
-     * 
-     * @param map
+     * Drops the ranked delegates and the voter counts, e.g. after the writes
+     * staged in the database were discarded.
      */
-    protected void getDelegates(Map<ByteArray, Delegate> map) {
-        for (Entry<ByteArray, byte[]> entry : delegateUpdates.entrySet()) {
-            /* filter address */
-            if (entry.getKey().length() == ADDRESS_LEN && !map.containsKey(entry.getKey())) {
-                if (entry.getValue() == null) {
-                    map.put(entry.getKey(), null);
-                } else {
-                    map.put(entry.getKey(), Delegate.fromBytes(entry.getKey().getData(), entry.getValue()));
-                }
-            }
-        }
-
-        if (prev != null) {
-            prev.getDelegates(map);
-        } else {
-            ClosableIterator<Entry<byte[], byte[]>> itr = delegateDB.iterator();
-            while (itr.hasNext()) {
-                Entry<byte[], byte[]> entry = itr.next();
-                ByteArray k = ByteArray.of(entry.getKey());
-                byte[] v = entry.getValue();
-
-                if (k.length() == ADDRESS_LEN && !map.containsKey(k)) {
-                    map.put(k, Delegate.fromBytes(k.getData(), v));
-                }
-            }
-            itr.close();
-        }
+    public void invalidateCache() {
+        index.clear();
+        voteStore.invalidate();
     }
 
     /**
@@ -288,38 +285,65 @@ public class DelegateStateImpl implements DelegateState {
      * @return
      */
     protected Amount getVote(ByteArray key) {
-        if (voteUpdates.containsKey(key)) {
-            byte[] bytes = voteUpdates.get(key);
-            return decodeAmount(bytes);
-        }
-
-        if (prev != null) {
-            return prev.getVote(key);
-        } else {
-            byte[] bytes = voteDB.get(key.getData());
-            return decodeAmount(bytes);
-        }
+        return decodeAmount(voteLayer.get(key));
     }
 
     @Override
     public Map<ByteArray, Amount> getVotes(byte[] delegate) {
         Map<ByteArray, Amount> result = new HashMap<>();
+        forEachVote(delegate, null, Integer.MAX_VALUE, result::put);
+        return result;
+    }
+
+    @Override
+    public Map<ByteArray, Amount> getVotes(byte[] delegate, byte[] fromVoter, int limit) {
+        Map<ByteArray, Amount> result = new LinkedHashMap<>();
+        forEachVote(delegate, fromVoter, limit, result::put);
+        return result;
+    }
+
+    @Override
+    public void forEachVote(byte[] delegate, BiConsumer<ByteArray, Amount> action) {
+        forEachVote(delegate, null, Integer.MAX_VALUE, action);
+    }
 
-        ClosableIterator<Entry<byte[], byte[]>> itr = voteDB.iterator(delegate);
-        while (itr.hasNext()) {
-            Entry<byte[], byte[]> e = itr.next();
-            byte[] d = Arrays.copyOf(e.getKey(), 20);
-            byte[] v = Arrays.copyOfRange(e.getKey(), 20, 40);
+    @Override
+    public long getVoterCount(byte[] delegate) {
+        return voteStore.getVoterCount(ByteArray.of(delegate));
+    }
 
-            if (!Arrays.equals(delegate, d)) {
-                break;
-            } else if (Bytes.toLong(e.getValue()) != 0) {
-                result.put(ByteArray.of(v), decodeAmount(e.getValue()));
+    /**
+     * Iterates the non-zero votes to a delegate in the vote DB, in voter order,
+     * seeking to the given voter.
+     *
+     * @param delegate
+     * @param fromVoter
+     *            the first voter, inclusive; null means the first one
+     * @param limit
+     *            max number of votes
+     * @param action
+     */
+    protected void forEachVote(byte[] delegate, byte[] fromVoter, int limit, BiConsumer<ByteArray, Amount> action) {
+        byte[] start = fromVoter == null ? delegate : Bytes.merge(delegate, fromVoter);
+
+        int n = 0;
+        ClosableIterator<Entry<byte[], byte[]>> itr = voteDB.iterator(start, null, false);
+        try {
+            while (n < limit && itr.hasNext()) {
+                Entry<byte[], byte[]> e = itr.next();
+                byte[] d = Arrays.copyOf(e.getKey(), ADDRESS_LEN);
+
+                if (!Arrays.equals(delegate, d)) {
+                    break;
+                } else if (Bytes.toLong(e.getValue()) != 0) {
+                    byte[] v = Arrays.copyOfRange(e.getKey(), ADDRESS_LEN, ADDRESS_LEN * 2);
+                    action.accept(ByteArray.of(v), decodeAmount(e.getValue()));
+                    n++;
+                }
             }
+        } finally {
+            itr.close();
         }
-        itr.close();
-
-        return result;
     }
 
     protected byte[] encodeAmount(Amount a) {
@@ -329,4 +353,101 @@ public class DelegateStateImpl implements DelegateState {
     protected Amount decodeAmount(byte[] bs) {
         return bs == null ? ZERO : NANO_ALX.of(Bytes.toLong(bs));
     }
+
+    /**
+     * Writes the delegate updates to the database and the ranked index.
+     */
+    private static class DelegateStore implements StateLayer.Store<byte[]> {
+
+        private final Database delegateDB;
+        private final DelegateIndex index;
+
+        DelegateStore(Database delegateDB, DelegateIndex index) {
+            this.delegateDB = delegateDB;
+            this.index = index;
+        }
+
+        @Override
+        public byte[] get(ByteArray key) {
+            return delegateDB.get(key.getData());
+        }
+
+        @Override
+        public void write(Map<ByteArray, byte[]> updates) {
+            delegateDB.updateBatch(StateLayer.toBatch(updates));
+            index.update(updates);
+        }
+    }
+
+    /**
+     * Writes the vote updates to the database, and keeps the voter counts of
+     * recently queried delegates up to date.
+     */
+    private static class VoteStore implements StateLayer.Store<byte[]> {
+
+        private final Database voteDB;
+
+        private final Cache<ByteArray, Long> voterCounts = Caffeine.newBuilder()
+                .maximumSize(VOTER_COUNT_CACHE_SIZE).build();
+
+        VoteStore(Database voteDB) {
+            this.voteDB = voteDB;
+        }
+
+        @Override
+        public byte[] get(ByteArray key) {
+            return voteDB.get(key.getData());
+        }
+
+        @Override
+        public synchronized void write(Map<ByteArray, byte[]> updates) {
+            // count the voters gained or lost by the cached delegates
+            Map<ByteArray, Long> deltas = new HashMap<>();
+            for (Entry<ByteArray, byte[]> e : updates.entrySet()) {
+                ByteArray delegate = ByteArray.of(Arrays.copyOf(e.getKey().getData(), ADDRESS_LEN));
+                if (voterCounts.getIfPresent(delegate) != null) {
+                    boolean before = isVote(voteDB.get(e.getKey().getData()));
+                    boolean after = isVote(e.getValue());
+                    if (before != after) {
+                        deltas.merge(delegate, after ? 1L : -1L, Long::sum);
+                    }
+                }
+            }
+
+            voteDB.updateBatch(StateLayer.toBatch(updates));
+
+            for (Entry<ByteArray, Long> e : deltas.entrySet()) {
+                voterCounts.asMap().computeIfPresent(e.getKey(), (k, n) -> n + e.getValue());
+            }
+        }
+
+        @Override
+        public synchronized void invalidate() {
+            voterCounts.invalidateAll();
+        }
+
+        synchronized long getVoterCount(ByteArray delegate) {
+            return voterCounts.get(delegate, k -> {
+                long n = 0;
+                ClosableIterator<Entry<byte[], byte[]>> itr = voteDB.iterator(k.getData(), null, false);
+                try {
+                    while (itr.hasNext()) {
+                        Entry<byte[], byte[]> e = itr.next();
+                        if (!Arrays.equals(k.getData(), Arrays.copyOf(e.getKey(), ADDRESS_LEN))) {
+                            break;
+                        } else if (isVote(e.getValue())) {
+                            n++;
+                        }
+                    }
+                } finally {
+                    itr.close();
+                }
+                return n;
+            });
+        }
+
+        private static boolean isVote(byte[] value) {
+            return value != null && Bytes.toLong(value) != 0;
+        }
+    }
 }
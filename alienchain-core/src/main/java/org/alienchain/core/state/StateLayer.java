@@ -0,0 +1,333 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.core.state;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alienchain.db.Database;
+import org.alienchain.util.ByteArray;
+import org.alienchain.util.PersistentHashMap;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * One layer of uncommitted updates over a {@link Store}; a null value means
+ * delete.
+ *
+ * <p>
+ * Besides its own updates, each layer keeps a merged view of the updates of all
+ * the layers from the root to itself, in a {@link PersistentHashMap}, so a key
+ * is resolved with one lookup in the view, then the database, whatever the
+ * depth. Commits merge the changed keys only.
+ * </p>
+ *
+ * <p>
+ * Parent layers may change after a child is created, e.g. when a sibling
+ * commits. Each view is stamped with the generation of the parent view it was
+ * built on; a child rebuilds its view from its own updates when the parent
+ * generation moves. A version shared by the whole tree, bumped by every write,
+ * lets reads skip the check when nothing has changed.
+ * </p>
+ *
+ * <p>
+ * Values are shared between layers and views, so they must not be mutated once
+ * put; update a value by putting a new one.
+ * </p>
+ *
+ * @param <V>
+ *            type of the values
+ */
+class StateLayer<V> {
+
+    private final Store<V> store;
+    private final StateLayer<V> parent;
+    private final AtomicLong version;
+
+    private final Map<ByteArray, V> updates = new HashMap<>();
+
+    /**
+     * Keys read through this layer and its children, if recorded.
+     */
+    private final Set<ByteArray> reads;
+
+    private volatile View<V> view;
+    private volatile long validatedAt = -1;
+
+    /**
+     * Creates a root layer over a store.
+     *
+     * @param store
+     */
+    StateLayer(Store<V> store) {
+        this.store = store;
+        this.parent = null;
+        this.version = new AtomicLong();
+        this.reads = null;
+        this.view = new View<>(PersistentHashMap.empty(), 0, 0);
+    }
+
+    /**
+     * Creates a child layer.
+     *
+     * @param parent
+     */
+    StateLayer(StateLayer<V> parent) {
+        this(parent, parent.reads);
+    }
+
+    /**
+     * Creates a child layer which records the keys read through it, and through
+     * its own children, into the given set.
+     *
+     * @param parent
+     * @param reads
+     */
+    StateLayer(StateLayer<V> parent, Set<ByteArray> reads) {
+        View<V> pv = parent.current();
+
+        this.store = parent.store;
+        this.parent = parent;
+        this.version = parent.version;
+        this.reads = reads;
+        this.view = new View<>(pv.map, 0, pv.generation);
+    }
+
+    private StateLayer(Store<V> store, StateLayer<V> parent, AtomicLong version, Set<ByteArray> reads,
+            Map<ByteArray, V> updates, View<V> view) {
+        this.store = store;
+        this.parent = parent;
+        this.version = version;
+        this.reads = reads;
+        this.updates.putAll(updates);
+        this.view = view;
+    }
+
+    /**
+     * Returns the value of a key, from the updates of this layer and its parents,
+     * or the store.
+     *
+     * @param key
+     * @return
+     */
+    V get(ByteArray key) {
+        if (reads != null) {
+            reads.add(key);
+        }
+        Entry<ByteArray, V> e = current().map.getEntry(key);
+        return e != null ? e.getValue() : store.get(key);
+    }
+
+    /**
+     * Returns whether a key is updated, including deleted, in this layer or its
+     * parents, or exists in the store.
+     *
+     * @param key
+     * @return
+     */
+    boolean exists(ByteArray key) {
+        if (reads != null) {
+            reads.add(key);
+        }
+        return current().map.containsKey(key) || store.get(key) != null;
+    }
+
+    /**
+     * Returns the merged updates of this layer and its parents.
+     *
+     * @return
+     */
+    PersistentHashMap<ByteArray, V> getUpdates() {
+        return current().map;
+    }
+
+    /**
+     * Returns the keys updated, including deleted, in this layer.
+     *
+     * @return
+     */
+    synchronized Set<ByteArray> getUpdatedKeys() {
+        return new HashSet<>(updates.keySet());
+    }
+
+    /**
+     * Returns the store under the root layer.
+     *
+     * @return
+     */
+    Store<V> getStore() {
+        return store;
+    }
+
+    synchronized void put(ByteArray key, V value) {
+        View<V> v = current();
+        updates.put(key, value);
+        view = new View<>(v.map.plus(key, value), v.generation + 1, v.parentGeneration);
+        version.incrementAndGet();
+    }
+
+    synchronized void putAll(Map<ByteArray, V> map) {
+        if (map.isEmpty()) {
+            return;
+        }
+        View<V> v = current();
+        updates.putAll(map);
+        view = new View<>(v.map.plusAll(map), v.generation + 1, v.parentGeneration);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Merges the updates into the parent layer, or writes them to the store for
+     * the root layer.
+     */
+    synchronized void commit() {
+        if (parent == null) {
+            store.write(updates);
+            updates.clear();
+            view = new View<>(PersistentHashMap.empty(), view.generation + 1, 0);
+        } else {
+            parent.putAll(updates);
+            updates.clear();
+            View<V> pv = parent.current();
+            view = new View<>(pv.map, view.generation + 1, pv.generation);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Discards the updates of this layer.
+     */
+    synchronized void rollback() {
+        updates.clear();
+        if (parent == null) {
+            view = new View<>(PersistentHashMap.empty(), view.generation + 1, 0);
+        } else {
+            View<V> pv = parent.current();
+            view = new View<>(pv.map, view.generation + 1, pv.generation);
+        }
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns a copy of this layer, with the same parent.
+     *
+     * @return
+     */
+    synchronized StateLayer<V> copy() {
+        return new StateLayer<>(store, parent, version, reads, updates, view);
+    }
+
+    /**
+     * Returns the view of this layer, rebuilt if any parent has changed.
+     *
+     * @return
+     */
+    private View<V> current() {
+        long ver = version.get();
+        if (parent == null || validatedAt == ver) {
+            return view;
+        }
+
+        View<V> pv = parent.current();
+        View<V> v = view;
+        if (v.parentGeneration != pv.generation) {
+            synchronized (this) {
+                v = view;
+                if (v.parentGeneration != pv.generation) {
+                    v = new View<>(pv.map.plusAll(updates), v.generation + 1, pv.generation);
+                    view = v;
+                }
+            }
+        }
+        validatedAt = ver;
+        return v;
+    }
+
+    /**
+     * Returns a store which reads and writes the raw values of a database.
+     *
+     * @param db
+     * @return
+     */
+    static Store<byte[]> store(Database db) {
+        return new Store<byte[]>() {
+            @Override
+            public byte[] get(ByteArray key) {
+                return db.get(key.getData());
+            }
+
+            @Override
+            public void write(Map<ByteArray, byte[]> updates) {
+                db.updateBatch(toBatch(updates));
+            }
+        };
+    }
+
+    /**
+     * Converts the updates into a batch; null value means delete.
+     *
+     * @param updates
+     * @return
+     */
+    static List<Pair<byte[], byte[]>> toBatch(Map<ByteArray, byte[]> updates) {
+        List<Pair<byte[], byte[]>> batch = new ArrayList<>(updates.size());
+        for (Entry<ByteArray, byte[]> entry : updates.entrySet()) {
+            batch.add(Pair.of(entry.getKey().getData(), entry.getValue()));
+        }
+        return batch;
+    }
+
+    /**
+     * A merged view, and the generation of the parent view it is built on.
+     */
+    private static final class View<V> {
+        private final PersistentHashMap<ByteArray, V> map;
+        private final long generation;
+        private final long parentGeneration;
+
+        View(PersistentHashMap<ByteArray, V> map, long generation, long parentGeneration) {
+            this.map = map;
+            this.generation = generation;
+            this.parentGeneration = parentGeneration;
+        }
+    }
+
+    /**
+     * The storage under the root layer.
+     *
+     * @param <V>
+     *            type of the values
+     */
+    interface Store<V> {
+
+        /**
+         * Returns the value of a key, or null if absent.
+         *
+         * @param key
+         * @return
+         */
+        V get(ByteArray key);
+
+        /**
+         * Writes the updates of the root layer; null value means delete.
+         *
+         * @param updates
+         */
+        void write(Map<ByteArray, V> updates);
+
+        /**
+         * Drops anything cached from the underlying database.
+         */
+        default void invalidate() {
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import org.alienchain.crypto.Key.Signature;
+
+/**
+ * Verifies batches of signatures on a dedicated pool of threads.
+ *
+ * <p>
+ * A batch is split into one chunk per thread, and each signature is verified
+ * on its own with {@link Key#verify(byte[], Signature)}, natively if enabled,
+ * so the result tells exactly which signatures are invalid. Small batches are
+ * verified on the calling thread.
+ * </p>
+ */
+public final class BatchVerifier {
+
+    private static final int MIN_CHUNK_SIZE = 8;
+
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private static final ExecutorService pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+
+        private final AtomicInteger cnt = new AtomicInteger(0);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "verify-" + cnt.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private BatchVerifier() {
+    }
+
+    /**
+     * Verifies signatures.
+     *
+     * @param messages
+     *            the messages
+     * @param signatures
+     *            the signatures, one for each message
+     * @return whether each signature is valid
+     */
+    public static boolean[] verify(List<byte[]> messages, List<Signature> signatures) {
+        checkSize(messages, signatures);
+        return test(signatures.size(), i -> Key.verify(messages.get(i), signatures.get(i)), false);
+    }
+
+    /**
+     * Verifies signatures, stopping at the first invalid one.
+     *
+     * @param messages
+     *            the messages
+     * @param signatures
+     *            the signatures, one for each message
+     * @return true if all the signatures are valid, otherwise false
+     */
+    public static boolean verifyAll(List<byte[]> messages, List<Signature> signatures) {
+        checkSize(messages, signatures);
+        return allTrue(test(signatures.size(), i -> Key.verify(messages.get(i), signatures.get(i)), true));
+    }
+
+    /**
+     * Validates objects carrying signatures, e.g. transactions or votes, on the
+     * verification pool.
+     *
+     * @param items
+     *            the objects
+     * @param validator
+     *            validates an object, including its signature
+     * @return whether each object is valid
+     */
+    public static <T> boolean[] validate(List<T> items, Predicate<? super T> validator) {
+        return test(items.size(), i -> validator.test(items.get(i)), false);
+    }
+
+    /**
+     * Validates objects carrying signatures, stopping at the first invalid one.
+     *
+     * @param items
+     *            the objects
+     * @param validator
+     *            validates an object, including its signature
+     * @return true if all the objects are valid, otherwise false
+     */
+    public static <T> boolean validateAll(List<T> items, Predicate<? super T> validator) {
+        return allTrue(test(items.size(), i -> validator.test(items.get(i)), true));
+    }
+
+    private static boolean[] test(int n, IntPredicate predicate, boolean failFast) {
+        boolean[] results = new boolean[n];
+
+        int chunks = Math.min(THREADS, n / MIN_CHUNK_SIZE);
+        if (chunks <= 1) {
+            for (int i = 0; i < n; i++) {
+                results[i] = predicate.test(i);
+                if (!results[i] && failFast) {
+                    break;
+                }
+            }
+            return results;
+        }
+
+        AtomicBoolean failed = new AtomicBoolean(false);
+        List<Future<?>> futures = new ArrayList<>(chunks);
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) n * c / chunks);
+            int to = (int) ((long) n * (c + 1) / chunks);
+            futures.add(pool.submit(() -> {
+                for (int i = from; i < to && !(failFast && failed.get()); i++) {
+                    results[i] = predicate.test(i);
+                    if (!results[i]) {
+                        failed.set(true);
+                    }
+                }
+            }));
+        }
+
+        // wait for all the chunks, which are short, even if interrupted
+        boolean interrupted = false;
+        try {
+            for (Future<?> f : futures) {
+                while (true) {
+                    try {
+                        f.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        throw (e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause()
+                                : new CryptoException(e.getCause());
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return results;
+    }
+
+    private static boolean allTrue(boolean[] results) {
+        for (boolean b : results) {
+            if (!b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkSize(List<byte[]> messages, List<Signature> signatures) {
+        if (messages.size() != signatures.size()) {
+            throw new IllegalArgumentException("The number of messages and signatures don't match");
+        }
+    }
+}
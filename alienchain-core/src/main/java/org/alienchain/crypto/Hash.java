@@ -6,10 +6,10 @@
  */
 package org.alienchain.crypto;
 
-import java.security.MessageDigest;
 import java.security.Security;
 
-import org.alienchain.config.Constants;
+import org.alienchain.util.Bytes;
+import org.bouncycastle.crypto.digests.Blake2bDigest;
 import org.bouncycastle.crypto.digests.RIPEMD160Digest;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
@@ -24,6 +24,10 @@ public class Hash {
 
     public static final int HASH_LEN = 32;
 
+    private static final ThreadLocal<Hasher> hashers = ThreadLocal.withInitial(Hasher::new);
+    private static final ThreadLocal<RIPEMD160Digest> ripemds = ThreadLocal.withInitial(RIPEMD160Digest::new);
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[HASH_LEN]);
+
     /**
      * Generate the 256-bit hash.
      *
@@ -35,12 +39,7 @@ public class Hash {
         if (Native.isEnabled()) {
             return Native.h256(input);
         } else {
-            try {
-                MessageDigest digest = MessageDigest.getInstance(Constants.HASH_ALGORITHM);
-                return digest.digest(input);
-            } catch (Exception e) {
-                throw new CryptoException(e);
-            }
+            return hasher().update(input).digest();
         }
     }
 
@@ -52,11 +51,11 @@ public class Hash {
      * @return
      */
     public static byte[] h256(byte[] one, byte[] two) {
-        byte[] all = new byte[one.length + two.length];
-        System.arraycopy(one, 0, all, 0, one.length);
-        System.arraycopy(two, 0, all, one.length, two.length);
-
-        return Hash.h256(all);
+        if (Native.isEnabled()) {
+            return Native.h256(Bytes.merge(one, two));
+        } else {
+            return hasher().update(one).update(two).digest();
+        }
     }
 
     /**
@@ -69,21 +68,69 @@ public class Hash {
         if (Native.isEnabled()) {
             return Native.h160(input);
         } else {
-            try {
-                byte[] h256 = h256(input);
-
-                RIPEMD160Digest digest = new RIPEMD160Digest();
-                digest.update(h256, 0, h256.length);
-                byte[] out = new byte[20];
-                digest.doFinal(out, 0);
-                return out;
-            } catch (Exception e) {
-                throw new CryptoException(e);
-            }
+            return ripemd(hasher().update(input));
         }
     }
 
+    /**
+     * Merge two byte arrays and compute the 160-bit hash.
+     *
+     * @param one
+     * @param two
+     * @return
+     */
+    public static byte[] h160(byte[] one, byte[] two) {
+        if (Native.isEnabled()) {
+            return Native.h160(Bytes.merge(one, two));
+        } else {
+            return ripemd(hasher().update(one).update(two));
+        }
+    }
+
+    private static Hasher hasher() {
+        return hashers.get().reset();
+    }
+
+    private static byte[] ripemd(Hasher hasher) {
+        byte[] h256 = buffers.get();
+        hasher.digestInto(h256, 0);
+
+        RIPEMD160Digest digest = ripemds.get();
+        digest.update(h256, 0, h256.length);
+        byte[] out = new byte[20];
+        digest.doFinal(out, 0);
+        return out;
+    }
+
     private Hash() {
     }
 
+    /**
+     * Computes the 256-bit hash incrementally, so the inputs of the two-array
+     * functions aren't merged. It is reset by each digest and is not thread-safe.
+     */
+    private static final class Hasher {
+
+        private final Blake2bDigest digest = new Blake2bDigest(HASH_LEN * 8);
+
+        Hasher update(byte[] input) {
+            digest.update(input, 0, input.length);
+            return this;
+        }
+
+        void digestInto(byte[] out, int off) {
+            digest.doFinal(out, off);
+        }
+
+        byte[] digest() {
+            byte[] out = new byte[HASH_LEN];
+            digestInto(out, 0);
+            return out;
+        }
+
+        Hasher reset() {
+            digest.reset();
+            return this;
+        }
+    }
 }
@@ -139,7 +139,7 @@ public class Key {
      * Returns the Alienchain address.
      */
     public byte[] toAddress() {
-        return Hash.h160(getPublicKey());
+        return Hash.h160(Signature.X509, pk.getAbyte());
     }
 
     /**
@@ -293,7 +293,7 @@ public class Key {
          * @return
          */
         public byte[] getAddress() {
-            return Hash.h160(getPublicKey());
+            return Hash.h160(X509, a);
         }
 
         /**
@@ -0,0 +1,464 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.alienchain.util.ByteArray;
+import org.alienchain.util.ClosableIterator;
+import org.alienchain.util.SimpleDecoder;
+import org.alienchain.util.SimpleEncoder;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A database decorator which stages all the writes in memory until they are
+ * flushed by {@link BatchedFactory#commit()}. Reads, including iterators, see
+ * the staged writes.
+ */
+public class BatchedDatabase implements Database {
+
+    private static final Logger logger = LoggerFactory.getLogger(BatchedDatabase.class);
+
+    /**
+     * Marker of a staged delete, compared by identity.
+     */
+    private static final byte[] DELETED = new byte[0];
+
+    private final Database db;
+
+    /**
+     * Staged writes, sorted in the same order as the underlying database.
+     */
+    private final NavigableMap<ByteArray, byte[]> staged = new ConcurrentSkipListMap<>();
+
+    /**
+     * Creates a batched view of the given database.
+     *
+     * @param db
+     */
+    public BatchedDatabase(Database db) {
+        this.db = db;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        byte[] v = staged.get(ByteArray.of(key));
+        if (v != null) {
+            return v == DELETED ? null : v;
+        }
+
+        return db.get(key);
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        staged.put(ByteArray.of(key), value);
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        staged.put(ByteArray.of(key), DELETED);
+    }
+
+    @Override
+    public void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+        for (Pair<byte[], byte[]> p : pairs) {
+            if (p.getValue() == null) {
+                delete(p.getLeft());
+            } else {
+                put(p.getLeft(), p.getRight());
+            }
+        }
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+        return iterator(null);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+        NavigableMap<ByteArray, byte[]> view = prefix == null ? staged : staged.tailMap(ByteArray.of(prefix), true);
+        return new MergedIterator(view.entrySet().iterator(), db.iterator(prefix), false);
+    }
+
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        List<Integer> missing = new ArrayList<>();
+        for (byte[] key : keys) {
+            byte[] v = staged.get(ByteArray.of(key));
+            if (v == null) {
+                missing.add(values.size());
+            }
+            values.add(v == DELETED ? null : v);
+        }
+
+        if (!missing.isEmpty()) {
+            List<byte[]> missingKeys = new ArrayList<>(missing.size());
+            for (int i : missing) {
+                missingKeys.add(keys.get(i));
+            }
+            List<byte[]> missingValues = db.multiGet(missingKeys);
+            for (int i = 0; i < missing.size(); i++) {
+                values.set(missing.get(i), missingValues.get(i));
+            }
+        }
+
+        return values;
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] startKey, byte[] endKey, boolean reverse) {
+        NavigableMap<ByteArray, byte[]> view = staged;
+        if (startKey != null) {
+            view = view.tailMap(ByteArray.of(startKey), true);
+        }
+        if (endKey != null) {
+            view = view.headMap(ByteArray.of(endKey), false);
+        }
+        if (reverse) {
+            view = view.descendingMap();
+        }
+        return new MergedIterator(view.entrySet().iterator(), db.iterator(startKey, endKey, reverse), reverse);
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+
+    @Override
+    public void destroy() {
+        staged.clear();
+        db.destroy();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return db.getDataDir();
+    }
+
+    /**
+     * Returns whether there is any staged write.
+     *
+     * @return
+     */
+    public boolean isDirty() {
+        return !staged.isEmpty();
+    }
+
+    /**
+     * Returns the staged writes as a batch; pair with null value is a delete.
+     *
+     * @return
+     */
+    protected List<Pair<byte[], byte[]>> getBatch() {
+        List<Pair<byte[], byte[]>> batch = new ArrayList<>(staged.size());
+        for (Entry<ByteArray, byte[]> e : staged.entrySet()) {
+            batch.add(Pair.of(e.getKey().getData(), e.getValue() == DELETED ? null : e.getValue()));
+        }
+        return batch;
+    }
+
+    /**
+     * Discards the staged writes.
+     */
+    protected void reset() {
+        staged.clear();
+    }
+
+    /**
+     * Merges the staged writes with the underlying iterator; staged entries take
+     * precedence and staged deletes are skipped. Both iterators must be in the
+     * same direction.
+     */
+    private static class MergedIterator implements ClosableIterator<Entry<byte[], byte[]>> {
+        private final Iterator<Entry<ByteArray, byte[]>> left;
+        private final ClosableIterator<Entry<byte[], byte[]>> right;
+        private final boolean reverse;
+
+        private Entry<ByteArray, byte[]> l;
+        private Entry<byte[], byte[]> r;
+        private Entry<byte[], byte[]> next;
+
+        MergedIterator(Iterator<Entry<ByteArray, byte[]>> left, ClosableIterator<Entry<byte[], byte[]>> right,
+                boolean reverse) {
+            this.left = left;
+            this.right = right;
+            this.reverse = reverse;
+            this.l = left.hasNext() ? left.next() : null;
+            this.r = right.hasNext() ? right.next() : null;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && (l != null || r != null)) {
+                int cmp = (l == null) ? 1 : (r == null) ? -1 : l.getKey().compareTo(ByteArray.of(r.getKey()));
+                if (reverse && l != null && r != null) {
+                    cmp = -cmp;
+                }
+
+                if (cmp <= 0) {
+                    if (l.getValue() != DELETED) {
+                        next = new SimpleImmutableEntry<>(l.getKey().getData(), l.getValue());
+                    }
+                    l = left.hasNext() ? left.next() : null;
+                    if (cmp == 0) {
+                        r = right.hasNext() ? right.next() : null;
+                    }
+                } else {
+                    next = r;
+                    r = right.hasNext() ? right.next() : null;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<byte[], byte[]> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<byte[], byte[]> e = next;
+            advance();
+            return e;
+        }
+
+        @Override
+        public void close() {
+            right.close();
+        }
+    }
+
+    /**
+     * A factory that wraps every database of another factory with a
+     * {@link BatchedDatabase}, and flushes the staged writes of all databases as a
+     * single unit.
+     *
+     * <p>
+     * If the underlying factory supports atomic batches, all the databases are
+     * flushed together. Otherwise, the batch of the journal database is the commit
+     * point:
+     * <ol>
+     * <li>the puts to the write-ahead databases are flushed first; they must only
+     * be reachable through the journal database, and are simply overwritten when
+     * the commit is lost;</li>
+     * <li>the batch of the journal database is written together with a journal of
+     * the remaining writes, under the given key;</li>
+     * <li>the remaining writes are flushed and the journal is deleted.</li>
+     * </ol>
+     * An interrupted commit is replayed from the journal when the factory is opened
+     * again, so a commit is either fully applied or not at all. The journal never
+     * holds the bulk data of the write-ahead databases.
+     * </p>
+     */
+    public static class BatchedFactory implements DatabaseFactory {
+
+        private final DatabaseFactory factory;
+        private final DatabaseName journalDB;
+        private final byte[] journalKey;
+        private final EnumSet<DatabaseName> writeAhead = EnumSet.noneOf(DatabaseName.class);
+
+        private final EnumMap<DatabaseName, BatchedDatabase> databases = new EnumMap<>(DatabaseName.class);
+
+        /**
+         * Creates a batched factory on top of another factory.
+         *
+         * @param factory
+         *            the underlying factory
+         * @param journalDB
+         *            the database where the commit journal is stored
+         * @param journalKey
+         *            the reserved key of the commit journal
+         * @param writeAhead
+         *            the databases whose puts may be flushed ahead of the commit
+         */
+        public BatchedFactory(DatabaseFactory factory, DatabaseName journalDB, byte[] journalKey,
+                DatabaseName... writeAhead) {
+            this.factory = factory;
+            this.journalDB = journalDB;
+            this.journalKey = journalKey;
+            this.writeAhead.addAll(Arrays.asList(writeAhead));
+
+            for (DatabaseName name : DatabaseName.values()) {
+                databases.put(name, new BatchedDatabase(factory.getDB(name)));
+            }
+
+            recover();
+        }
+
+        @Override
+        public BatchedDatabase getDB(DatabaseName name) {
+            return databases.get(name);
+        }
+
+        /**
+         * Flushes all the staged writes.
+         */
+        public synchronized void commit() {
+            EnumMap<DatabaseName, List<Pair<byte[], byte[]>>> batches = new EnumMap<>(DatabaseName.class);
+            for (Map.Entry<DatabaseName, BatchedDatabase> e : databases.entrySet()) {
+                if (e.getValue().isDirty()) {
+                    batches.put(e.getKey(), e.getValue().getBatch());
+                }
+            }
+
+            if (batches.isEmpty()) {
+                return;
+            }
+
+            if (factory.isAtomicBatchSupported()) {
+                factory.updateBatch(batches);
+            } else {
+                // [1] flush the puts of the write-ahead databases
+                for (DatabaseName name : writeAhead) {
+                    List<Pair<byte[], byte[]>> batch = batches.remove(name);
+                    if (batch != null) {
+                        List<Pair<byte[], byte[]>> puts = new ArrayList<>();
+                        List<Pair<byte[], byte[]>> deletes = new ArrayList<>();
+                        for (Pair<byte[], byte[]> p : batch) {
+                            (p.getRight() == null ? deletes : puts).add(p);
+                        }
+                        if (!puts.isEmpty()) {
+                            factory.getDB(name).updateBatch(puts);
+                        }
+                        if (!deletes.isEmpty()) {
+                            batches.put(name, deletes);
+                        }
+                    }
+                }
+
+                // [2] write the journal database, with the journal if needed
+                List<Pair<byte[], byte[]>> last = batches.remove(journalDB);
+                if (last == null && batches.size() == 1) {
+                    // a single batch is atomic by itself
+                    DatabaseName name = batches.firstKey();
+                    factory.getDB(name).updateBatch(batches.remove(name));
+                } else if (!batches.isEmpty()) {
+                    last = (last == null) ? new ArrayList<>() : last;
+                    last.add(Pair.of(journalKey, encodeJournal(batches)));
+                }
+                if (last != null) {
+                    factory.getDB(journalDB).updateBatch(last);
+                }
+
+                // [3] flush the remaining databases
+                if (!batches.isEmpty()) {
+                    flush(batches);
+                }
+            }
+
+            for (BatchedDatabase db : databases.values()) {
+                db.reset();
+            }
+        }
+
+        /**
+         * Discards all the staged writes.
+         */
+        public synchronized void rollback() {
+            for (BatchedDatabase db : databases.values()) {
+                db.reset();
+            }
+        }
+
+        @Override
+        public void open() throws IOException {
+            factory.open();
+        }
+
+        @Override
+        public void close() {
+            factory.close();
+        }
+
+        @Override
+        public Path getDataDir() {
+            return factory.getDataDir();
+        }
+
+        /**
+         * Replays an interrupted commit, if any.
+         */
+        protected void recover() {
+            byte[] journal = factory.getDB(journalDB).get(journalKey);
+            if (journal != null) {
+                logger.warn("Found an interrupted database commit, replaying the journal");
+                flush(decodeJournal(journal));
+            }
+        }
+
+        /**
+         * Writes the journaled batches to the underlying databases, and deletes the
+         * journal.
+         *
+         * @param batches
+         */
+        protected void flush(EnumMap<DatabaseName, List<Pair<byte[], byte[]>>> batches) {
+            for (Map.Entry<DatabaseName, List<Pair<byte[], byte[]>>> e : batches.entrySet()) {
+                factory.getDB(e.getKey()).updateBatch(e.getValue());
+            }
+            factory.getDB(journalDB).delete(journalKey);
+        }
+
+        protected byte[] encodeJournal(EnumMap<DatabaseName, List<Pair<byte[], byte[]>>> batches) {
+            SimpleEncoder enc = new SimpleEncoder();
+            enc.writeInt(batches.size());
+            for (Map.Entry<DatabaseName, List<Pair<byte[], byte[]>>> e : batches.entrySet()) {
+                enc.writeString(e.getKey().name());
+                enc.writeInt(e.getValue().size());
+                for (Pair<byte[], byte[]> p : e.getValue()) {
+                    enc.writeBytes(p.getLeft());
+                    enc.writeBoolean(p.getRight() != null);
+                    if (p.getRight() != null) {
+                        enc.writeBytes(p.getRight());
+                    }
+                }
+            }
+            return enc.toBytes();
+        }
+
+        protected EnumMap<DatabaseName, List<Pair<byte[], byte[]>>> decodeJournal(byte[] bytes) {
+            EnumMap<DatabaseName, List<Pair<byte[], byte[]>>> batches = new EnumMap<>(DatabaseName.class);
+            SimpleDecoder dec = new SimpleDecoder(bytes);
+            int n = dec.readInt();
+            for (int i = 0; i < n; i++) {
+                DatabaseName name = DatabaseName.valueOf(dec.readString());
+                int size = dec.readInt();
+                List<Pair<byte[], byte[]>> batch = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    byte[] key = dec.readBytes();
+                    byte[] value = dec.readBoolean() ? dec.readBytes() : null;
+                    batch.add(Pair.of(key, value));
+                }
+                batches.put(name, batch);
+            }
+            return batches;
+        }
+    }
+}
@@ -7,9 +7,13 @@
 package org.alienchain.db;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
+import org.alienchain.util.ByteArray;
 import org.alienchain.util.ClosableIterator;
 import org.apache.commons.lang3.tuple.Pair;
 
@@ -72,6 +76,111 @@ public interface Database {
      */
     ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix);
 
+    /**
+     * Returns the values that are mapped to the specified keys, in the same order;
+     * missing keys are mapped to null.
+     *
+     * @param keys
+     * @return
+     */
+    default List<byte[]> multiGet(List<byte[]> keys) {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for (byte[] key : keys) {
+            values.add(get(key));
+        }
+        return values;
+    }
+
+    /**
+     * Returns the key value pairs within <code>[startKey, endKey)</code>.<br>
+     * <br>
+     * NOTE: be sure to close the iterator after iteration.
+     *
+     * @param startKey
+     *            the first key, inclusive; null means the first key of the
+     *            database
+     * @param endKey
+     *            the last key, exclusive; null means no upper bound
+     * @param reverse
+     *            whether to iterate from the last key to the first
+     * @return
+     */
+    default ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] startKey, byte[] endKey, boolean reverse) {
+        ClosableIterator<Entry<byte[], byte[]>> itr = new BoundedIterator(iterator(startKey), endKey);
+        if (!reverse) {
+            return itr;
+        }
+
+        // fallback for databases which can't iterate backwards
+        List<Entry<byte[], byte[]>> list = new ArrayList<>();
+        try {
+            while (itr.hasNext()) {
+                list.add(itr.next());
+            }
+        } finally {
+            itr.close();
+        }
+        Collections.reverse(list);
+        return ClosableIterator.of(list.iterator());
+    }
+
+    /**
+     * Returns at most <code>limit</code> key value pairs within
+     * <code>[startKey, endKey)</code>.
+     *
+     * @param startKey
+     *            the first key, inclusive; null means the first key of the
+     *            database
+     * @param endKey
+     *            the last key, exclusive; null means no upper bound
+     * @param limit
+     *            the maximum number of pairs
+     * @param reverse
+     *            whether to return the pairs from the last key to the first
+     * @return
+     */
+    default List<Entry<byte[], byte[]>> range(byte[] startKey, byte[] endKey, int limit, boolean reverse) {
+        List<Entry<byte[], byte[]>> list = new ArrayList<>();
+        if (limit <= 0) {
+            return list;
+        }
+
+        ClosableIterator<Entry<byte[], byte[]>> itr = iterator(startKey, endKey, reverse);
+        try {
+            while (itr.hasNext() && list.size() < limit) {
+                list.add(itr.next());
+            }
+        } finally {
+            itr.close();
+        }
+        return list;
+    }
+
+    /**
+     * Returns a property of the storage engine, e.g. <code>leveldb.stats</code>.
+     *
+     * @param name
+     *            the property name
+     * @return the property value, or null if the property is not supported
+     */
+    default String getProperty(String name) {
+        return null;
+    }
+
+    /**
+     * Returns the approximate size on disk of the keys within
+     * <code>[startKey, endKey)</code>.
+     *
+     * @param startKey
+     *            the first key, inclusive
+     * @param endKey
+     *            the last key, exclusive
+     * @return the size in bytes, or -1 if not supported
+     */
+    default long getApproximateSize(byte[] startKey, byte[] endKey) {
+        return -1;
+    }
+
     /**
      * Closes the database.
      */
@@ -89,4 +198,47 @@ public interface Database {
      * @return
      */
     Path getDataDir();
+
+    /**
+     * Stops a forward iterator before the given key.
+     */
+    class BoundedIterator implements ClosableIterator<Entry<byte[], byte[]>> {
+        private final ClosableIterator<Entry<byte[], byte[]>> itr;
+        private final ByteArray endKey;
+
+        private Entry<byte[], byte[]> next;
+
+        public BoundedIterator(ClosableIterator<Entry<byte[], byte[]>> itr, byte[] endKey) {
+            this.itr = itr;
+            this.endKey = endKey == null ? null : ByteArray.of(endKey);
+            advance();
+        }
+
+        private void advance() {
+            next = itr.hasNext() ? itr.next() : null;
+            if (next != null && endKey != null && ByteArray.of(next.getKey()).compareTo(endKey) >= 0) {
+                next = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<byte[], byte[]> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<byte[], byte[]> e = next;
+            advance();
+            return e;
+        }
+
+        @Override
+        public void close() {
+            itr.close();
+        }
+    }
 }
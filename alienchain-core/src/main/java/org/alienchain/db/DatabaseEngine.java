@@ -0,0 +1,53 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import java.io.File;
+import java.util.Locale;
+
+import org.alienchain.db.LeveldbDatabase.LeveldbFactory;
+import org.alienchain.db.RocksdbDatabase.RocksdbFactory;
+
+/**
+ * The available storage engines.
+ */
+public enum DatabaseEngine {
+
+    /**
+     * One LevelDB instance per {@link DatabaseName}.
+     */
+    LEVELDB,
+
+    /**
+     * One RocksDB instance, with one column family per {@link DatabaseName}.
+     */
+    ROCKSDB;
+
+    /**
+     * Creates a database factory of this engine.
+     *
+     * @param dataDir
+     * @return
+     */
+    public DatabaseFactory createFactory(File dataDir) {
+        switch (this) {
+        case ROCKSDB:
+            return new RocksdbFactory(dataDir);
+        case LEVELDB:
+        default:
+            return new LeveldbFactory(dataDir);
+        }
+    }
+
+    public static DatabaseEngine of(String name) {
+        try {
+            return valueOf(name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException | NullPointerException ex) {
+            return null;
+        }
+    }
+}
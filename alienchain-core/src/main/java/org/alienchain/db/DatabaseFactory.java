@@ -12,6 +12,10 @@ import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.tuple.Pair;
 
 public interface DatabaseFactory {
     /**
@@ -39,6 +43,30 @@ public interface DatabaseFactory {
      */
     Path getDataDir();
 
+    /**
+     * Returns whether {@link #updateBatch(Map)} writes all the databases
+     * atomically.
+     *
+     * @return
+     */
+    default boolean isAtomicBatchSupported() {
+        return false;
+    }
+
+    /**
+     * Updates multiple databases. The default implementation updates the databases
+     * one by one.
+     *
+     * @param batches
+     *            key value pairs of each database; pair with null value, will be
+     *            deleted
+     */
+    default void updateBatch(Map<DatabaseName, List<Pair<byte[], byte[]>>> batches) {
+        for (Map.Entry<DatabaseName, List<Pair<byte[], byte[]>>> e : batches.entrySet()) {
+            getDB(e.getKey()).updateBatch(e.getValue());
+        }
+    }
+
     /**
      * @param path
      *            the destination path.
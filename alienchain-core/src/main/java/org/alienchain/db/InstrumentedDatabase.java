@@ -0,0 +1,388 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.alienchain.util.ClosableIterator;
+import org.alienchain.util.LatencyHistogram;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A database decorator which records the number, latency and size of the
+ * operations on the underlying database.
+ *
+ * <p>
+ * Recording costs two {@link System#nanoTime()} calls and a few uncontended
+ * counter updates per operation, so it is always enabled.
+ * </p>
+ */
+public class InstrumentedDatabase implements Database {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstrumentedDatabase.class);
+
+    /**
+     * The database operations.
+     */
+    public enum Op {
+        GET, MULTI_GET, PUT, DELETE, BATCH, ITERATOR
+    }
+
+    private final Database db;
+    private final Stats stats;
+
+    public InstrumentedDatabase(Database db, Stats stats) {
+        this.db = db;
+        this.stats = stats;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        long t = System.nanoTime();
+        byte[] value = db.get(key);
+        stats.record(Op.GET, t);
+        if (value != null) {
+            stats.bytesRead.add(value.length);
+        }
+        return value;
+    }
+
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        long t = System.nanoTime();
+        List<byte[]> values = db.multiGet(keys);
+        stats.record(Op.MULTI_GET, t);
+        for (byte[] value : values) {
+            if (value != null) {
+                stats.bytesRead.add(value.length);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        long t = System.nanoTime();
+        db.put(key, value);
+        stats.record(Op.PUT, t);
+        stats.bytesWritten.add(key.length + value.length);
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        long t = System.nanoTime();
+        db.delete(key);
+        stats.record(Op.DELETE, t);
+    }
+
+    @Override
+    public void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+        long t = System.nanoTime();
+        db.updateBatch(pairs);
+        stats.record(Op.BATCH, t);
+        stats.addBatch(pairs);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+        long t = System.nanoTime();
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator();
+        stats.record(Op.ITERATOR, t);
+        return new InstrumentedIterator(itr);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+        long t = System.nanoTime();
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator(prefix);
+        stats.record(Op.ITERATOR, t);
+        return new InstrumentedIterator(itr);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] startKey, byte[] endKey, boolean reverse) {
+        long t = System.nanoTime();
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator(startKey, endKey, reverse);
+        stats.record(Op.ITERATOR, t);
+        return new InstrumentedIterator(itr);
+    }
+
+    @Override
+    public String getProperty(String name) {
+        return db.getProperty(name);
+    }
+
+    @Override
+    public long getApproximateSize(byte[] startKey, byte[] endKey) {
+        return db.getApproximateSize(startKey, endKey);
+    }
+
+    @Override
+    public void close() {
+        db.close();
+    }
+
+    @Override
+    public void destroy() {
+        db.destroy();
+    }
+
+    @Override
+    public Path getDataDir() {
+        return db.getDataDir();
+    }
+
+    /**
+     * Counts the bytes read through an iterator.
+     */
+    private class InstrumentedIterator implements ClosableIterator<Entry<byte[], byte[]>> {
+        private final ClosableIterator<Entry<byte[], byte[]>> itr;
+
+        InstrumentedIterator(ClosableIterator<Entry<byte[], byte[]>> itr) {
+            this.itr = itr;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return itr.hasNext();
+        }
+
+        @Override
+        public Entry<byte[], byte[]> next() {
+            Entry<byte[], byte[]> e = itr.next();
+            stats.bytesRead.add(e.getKey().length + e.getValue().length);
+            return e;
+        }
+
+        @Override
+        public void close() {
+            itr.close();
+        }
+    }
+
+    /**
+     * The I/O statistics of a database.
+     */
+    public static class Stats {
+        private final EnumMap<Op, LatencyHistogram> latencies = new EnumMap<>(Op.class);
+        private final LongAdder bytesRead = new LongAdder();
+        private final LongAdder bytesWritten = new LongAdder();
+        private final LongAdder batchedPairs = new LongAdder();
+
+        public Stats() {
+            for (Op op : Op.values()) {
+                latencies.put(op, new LatencyHistogram());
+            }
+        }
+
+        private void record(Op op, long startNanos) {
+            latencies.get(op).record(System.nanoTime() - startNanos);
+        }
+
+        private void addBatch(List<Pair<byte[], byte[]>> pairs) {
+            long bytes = 0;
+            for (Pair<byte[], byte[]> p : pairs) {
+                bytes += p.getLeft().length + (p.getRight() == null ? 0 : p.getRight().length);
+            }
+            bytesWritten.add(bytes);
+            batchedPairs.add(pairs.size());
+        }
+
+        public LatencyHistogram getLatency(Op op) {
+            return latencies.get(op);
+        }
+
+        public long getCount(Op op) {
+            return latencies.get(op).getCount();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.sum();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten.sum();
+        }
+
+        public long getBatchedPairs() {
+            return batchedPairs.sum();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (Op op : Op.values()) {
+                LatencyHistogram h = latencies.get(op);
+                if (h.getCount() > 0) {
+                    sb.append(String.format("%s: %d, p50 = %d μs, p99 = %d μs, max = %d μs; ",
+                            op.name().toLowerCase(), h.getCount(), h.getPercentile(50) / 1000,
+                            h.getPercentile(99) / 1000, h.getMax() / 1000));
+                }
+            }
+            sb.append(String.format("read = %d KB, written = %d KB", getBytesRead() / 1024,
+                    getBytesWritten() / 1024));
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A factory which instruments the databases of another factory.
+     */
+    public static class InstrumentedFactory implements DatabaseFactory {
+
+        /**
+         * Upper bound of the key range of {@link #getApproximateSize(DatabaseName)}.
+         */
+        private static final byte[] MAX_KEY = new byte[64];
+        static {
+            Arrays.fill(MAX_KEY, (byte) 0xff);
+        }
+
+        private final DatabaseFactory factory;
+        private final EnumMap<DatabaseName, Stats> stats = new EnumMap<>(DatabaseName.class);
+
+        private ScheduledExecutorService exec;
+
+        public InstrumentedFactory(DatabaseFactory factory) {
+            this.factory = factory;
+            for (DatabaseName name : DatabaseName.values()) {
+                stats.put(name, new Stats());
+            }
+        }
+
+        @Override
+        public Database getDB(DatabaseName name) {
+            return new InstrumentedDatabase(factory.getDB(name), stats.get(name));
+        }
+
+        @Override
+        public void open() throws IOException {
+            factory.open();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (exec != null) {
+                exec.shutdownNow();
+                exec = null;
+                logStats();
+            }
+            factory.close();
+        }
+
+        @Override
+        public Path getDataDir() {
+            return factory.getDataDir();
+        }
+
+        @Override
+        public boolean isAtomicBatchSupported() {
+            return factory.isAtomicBatchSupported();
+        }
+
+        /**
+         * Atomic batches across databases are timed as a whole, and the time is
+         * recorded for each database in the batch.
+         */
+        @Override
+        public void updateBatch(Map<DatabaseName, List<Pair<byte[], byte[]>>> batches) {
+            if (!factory.isAtomicBatchSupported()) {
+                DatabaseFactory.super.updateBatch(batches);
+                return;
+            }
+
+            long t = System.nanoTime();
+            factory.updateBatch(batches);
+            for (Map.Entry<DatabaseName, List<Pair<byte[], byte[]>>> e : batches.entrySet()) {
+                Stats s = stats.get(e.getKey());
+                s.record(Op.BATCH, t);
+                s.addBatch(e.getValue());
+            }
+        }
+
+        /**
+         * Returns the statistics of a database.
+         *
+         * @param name
+         * @return
+         */
+        public Stats getStats(DatabaseName name) {
+            return stats.get(name);
+        }
+
+        /**
+         * Returns the statistics of all the databases.
+         *
+         * @return
+         */
+        public Map<DatabaseName, Stats> getStats() {
+            return Collections.unmodifiableMap(stats);
+        }
+
+        /**
+         * Returns the engine statistics of a database, i.e.
+         * <code>leveldb.stats</code> or <code>rocksdb.stats</code>.
+         *
+         * @param name
+         * @return the statistics, or null if not supported
+         */
+        public String getEngineStats(DatabaseName name) {
+            Database db = factory.getDB(name);
+            String s = db.getProperty("leveldb.stats");
+            return s != null ? s : db.getProperty("rocksdb.stats");
+        }
+
+        /**
+         * Returns the approximate size on disk of a database.
+         *
+         * @param name
+         * @return the size in bytes, or -1 if not supported
+         */
+        public long getApproximateSize(DatabaseName name) {
+            return factory.getDB(name).getApproximateSize(new byte[0], MAX_KEY);
+        }
+
+        /**
+         * Logs the statistics of all the databases periodically.
+         *
+         * @param interval
+         *            the interval, in milliseconds
+         */
+        public synchronized void startLogging(long interval) {
+            if (exec == null && interval > 0) {
+                exec = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "db-stats");
+                    t.setDaemon(true);
+                    return t;
+                });
+                exec.scheduleAtFixedRate(this::logStats, interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Logs the statistics of all the databases.
+         */
+        public void logStats() {
+            for (Map.Entry<DatabaseName, Stats> e : stats.entrySet()) {
+                logger.info("Database {}: {}", e.getKey(), e.getValue());
+            }
+        }
+    }
+}
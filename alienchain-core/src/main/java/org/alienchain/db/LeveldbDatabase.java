@@ -11,13 +11,16 @@ import static org.fusesource.leveldbjni.JniDBFactory.factory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.alienchain.db.exception.DatabaseException;
+import org.alienchain.util.ByteArray;
 import org.alienchain.util.ClosableIterator;
 import org.alienchain.util.FileUtil;
 import org.alienchain.util.SystemUtil;
@@ -27,6 +30,9 @@ import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.Range;
+import org.iq80.leveldb.ReadOptions;
+import org.iq80.leveldb.Snapshot;
 import org.iq80.leveldb.WriteBatch;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -151,6 +157,16 @@ public class LeveldbDatabase implements Database {
         }
     }
 
+    @Override
+    public String getProperty(String name) {
+        return db.getProperty(name);
+    }
+
+    @Override
+    public long getApproximateSize(byte[] startKey, byte[] endKey) {
+        return db.getApproximateSizes(new Range(startKey, endKey))[0];
+    }
+
     @Override
     public void close() {
         try {
@@ -215,6 +231,84 @@ public class LeveldbDatabase implements Database {
         }.initialize();
     }
 
+    /**
+     * Reads all the keys from the same snapshot.
+     */
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        try (Snapshot snapshot = db.getSnapshot()) {
+            ReadOptions options = new ReadOptions().snapshot(snapshot);
+            for (byte[] key : keys) {
+                values.add(db.get(key, options));
+            }
+        } catch (IOException e) {
+            throw new DatabaseException(e);
+        }
+        return values;
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] startKey, byte[] endKey, boolean reverse) {
+        if (!reverse) {
+            return new BoundedIterator(iterator(startKey), endKey);
+        }
+
+        return new ClosableIterator<Entry<byte[], byte[]>>() {
+            final DBIterator itr = db.iterator();
+            final ByteArray start = startKey == null ? null : ByteArray.of(startKey);
+
+            Entry<byte[], byte[]> next;
+
+            private ClosableIterator<Entry<byte[], byte[]>> initialize() {
+                if (endKey != null) {
+                    itr.seek(endKey);
+                }
+                if (endKey == null || !itr.hasNext()) {
+                    // all the keys are before the end key, start from the last one
+                    itr.seekToLast();
+                    next = itr.hasNext() ? itr.peekNext() : null;
+                } else {
+                    // positioned at the first key >= end key, step back
+                    next = itr.hasPrev() ? itr.prev() : null;
+                }
+                checkStart();
+                return this;
+            }
+
+            private void checkStart() {
+                if (next != null && start != null && ByteArray.of(next.getKey()).compareTo(start) < 0) {
+                    next = null;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry<byte[], byte[]> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry<byte[], byte[]> e = next;
+                next = itr.hasPrev() ? itr.prev() : null;
+                checkStart();
+                return e;
+            }
+
+            @Override
+            public void close() {
+                try {
+                    itr.close();
+                } catch (IOException e) {
+                    throw new DatabaseException(e);
+                }
+            }
+        }.initialize();
+    }
+
     public static class LeveldbFactory implements DatabaseFactory {
 
         private final EnumMap<DatabaseName, Database> databases = new EnumMap<>(DatabaseName.class);
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alienchain.core.event.BlockchainDatabaseUpgradingEvent;
+import org.alienchain.db.exception.DatabaseException;
+import org.alienchain.event.PubSub;
+import org.alienchain.event.PubSubFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A migration which processes a sequence of items, numbered from 1 to
+ * {@link #getTotal()}, through a producer/consumer pipeline.
+ *
+ * <p>
+ * Items are loaded, decoded and verified by a pool of worker threads, a bounded
+ * window ahead of the applier. The applier runs on the calling thread and
+ * applies the items strictly in order.
+ * </p>
+ *
+ * <p>
+ * The migration is resumable: {@link #apply(long, Object)} must persist the
+ * item number atomically with its effects, and {@link #getCheckpoint()} must
+ * return the last persisted item number. An interrupted migration continues
+ * from the item after the checkpoint.
+ * </p>
+ *
+ * @param <T>
+ *            type of the items
+ */
+public abstract class PipelinedMigration<T> implements Migration {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelinedMigration.class);
+
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    private final PubSub pubSub = PubSubFactory.getDefault();
+
+    private final int threads;
+    private final int window;
+
+    /**
+     * Creates a pipelined migration.
+     *
+     * @param threads
+     *            number of worker threads
+     * @param window
+     *            maximum number of items loaded ahead of the applier
+     */
+    protected PipelinedMigration(int threads, int window) {
+        this.threads = Math.max(1, threads);
+        this.window = Math.max(this.threads, window);
+    }
+
+    /**
+     * Returns the number of the last item applied and persisted, or 0 if none.
+     *
+     * @return
+     */
+    protected abstract long getCheckpoint();
+
+    /**
+     * Returns the number of items to apply.
+     *
+     * @return
+     */
+    protected abstract long getTotal();
+
+    /**
+     * Loads, decodes and verifies an item. Called concurrently by the workers.
+     *
+     * @param number
+     * @return
+     * @throws DatabaseException
+     *             if the item is missing or invalid
+     */
+    protected abstract T load(long number);
+
+    /**
+     * Applies an item, and persists the checkpoint. Called in item order, from a
+     * single thread.
+     *
+     * @param number
+     * @param item
+     */
+    protected abstract void apply(long number, T item);
+
+    /**
+     * Runs the pipeline from the item after the checkpoint, to the last item.
+     *
+     * @throws DatabaseException
+     *             if an item fails to load, or the migration is interrupted
+     */
+    protected void run() {
+        long total = getTotal();
+        long next = getCheckpoint() + 1;
+        if (next > 1) {
+            logger.info("Resuming the migration from {} / {}", next, total);
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger cnt = new AtomicInteger(0);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "migration-" + cnt.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        Deque<Future<T>> pending = new ArrayDeque<>();
+        long submitted = next;
+        try {
+            for (long i = next; i <= total; i++) {
+                while (submitted <= total && pending.size() < window) {
+                    long n = submitted++;
+                    pending.add(workers.submit(() -> load(n)));
+                }
+
+                apply(i, pending.poll().get());
+
+                if (i % PROGRESS_INTERVAL == 0 || i == total) {
+                    pubSub.publish(new BlockchainDatabaseUpgradingEvent(i, total));
+                    logger.info("Migrated {} / {}", i, total);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatabaseException("Migration interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw (cause instanceof DatabaseException) ? (DatabaseException) cause
+                    : new DatabaseException("Migration failed", cause);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.alienchain.db.exception.DatabaseException;
+import org.alienchain.util.ByteArray;
+import org.alienchain.util.Bytes;
+import org.alienchain.util.ClosableIterator;
+import org.alienchain.util.SystemUtil;
+import org.apache.commons.lang3.tuple.Pair;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptions;
+import org.rocksdb.LRUCache;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Snapshot;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A column family of a RocksDB instance. All the databases created by one
+ * {@link RocksdbFactory} share the same RocksDB instance, so closing is done
+ * through the factory.
+ */
+public class RocksdbDatabase implements Database {
+
+    private static final Logger logger = LoggerFactory.getLogger(RocksdbDatabase.class);
+
+    private final RocksDB db;
+    private final ColumnFamilyHandle handle;
+    private final WriteOptions writeOptions;
+    private final File file;
+
+    protected RocksdbDatabase(RocksDB db, ColumnFamilyHandle handle, WriteOptions writeOptions, File file) {
+        this.db = db;
+        this.handle = handle;
+        this.writeOptions = writeOptions;
+        this.file = file;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        try {
+            return db.get(handle, key);
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        try {
+            db.put(handle, writeOptions, key, value);
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        try {
+            db.delete(handle, writeOptions, key);
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+        try (WriteBatch batch = new WriteBatch()) {
+            addToBatch(batch, handle, pairs);
+            db.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            logger.error("Failed to update batch", e);
+            SystemUtil.exitAsync(SystemUtil.Code.FAILED_TO_WRITE_BATCH_TO_DB);
+        }
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+        return iterator(null);
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+        RocksIterator itr = db.newIterator(handle);
+        if (prefix != null) {
+            itr.seek(prefix);
+        } else {
+            itr.seekToFirst();
+        }
+
+        return new ClosableIterator<Entry<byte[], byte[]>>() {
+            @Override
+            public boolean hasNext() {
+                return itr.isValid();
+            }
+
+            @Override
+            public Entry<byte[], byte[]> next() {
+                if (!itr.isValid()) {
+                    throw new NoSuchElementException();
+                }
+                Entry<byte[], byte[]> e = new SimpleImmutableEntry<>(itr.key(), itr.value());
+                itr.next();
+                return e;
+            }
+
+            @Override
+            public void close() {
+                itr.close();
+            }
+        };
+    }
+
+    /**
+     * Reads all the keys from the same snapshot.
+     */
+    @Override
+    public List<byte[]> multiGet(List<byte[]> keys) {
+        List<byte[]> values = new ArrayList<>(keys.size());
+        Snapshot snapshot = db.getSnapshot();
+        try (ReadOptions options = new ReadOptions().setSnapshot(snapshot)) {
+            for (byte[] key : keys) {
+                values.add(db.get(handle, options, key));
+            }
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        } finally {
+            db.releaseSnapshot(snapshot);
+        }
+        return values;
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] startKey, byte[] endKey, boolean reverse) {
+        if (!reverse) {
+            return new BoundedIterator(iterator(startKey), endKey);
+        }
+
+        RocksIterator itr = db.newIterator(handle);
+        if (endKey != null) {
+            itr.seekForPrev(endKey);
+            // the end key is exclusive
+            if (itr.isValid() && Arrays.equals(itr.key(), endKey)) {
+                itr.prev();
+            }
+        } else {
+            itr.seekToLast();
+        }
+        ByteArray start = startKey == null ? null : ByteArray.of(startKey);
+
+        return new ClosableIterator<Entry<byte[], byte[]>>() {
+            @Override
+            public boolean hasNext() {
+                return itr.isValid() && (start == null || ByteArray.of(itr.key()).compareTo(start) >= 0);
+            }
+
+            @Override
+            public Entry<byte[], byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Entry<byte[], byte[]> e = new SimpleImmutableEntry<>(itr.key(), itr.value());
+                itr.prev();
+                return e;
+            }
+
+            @Override
+            public void close() {
+                itr.close();
+            }
+        };
+    }
+
+    @Override
+    public String getProperty(String name) {
+        try {
+            return db.getProperty(handle, name);
+        } catch (RocksDBException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The shared RocksDB instance is closed by {@link RocksdbFactory#close()}.
+     */
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Deletes all the key value pairs of this column family.
+     */
+    @Override
+    public void destroy() {
+        try (RocksIterator itr = db.newIterator(handle); WriteBatch batch = new WriteBatch()) {
+            for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+                batch.delete(handle, itr.key());
+            }
+            db.write(writeOptions, batch);
+        } catch (RocksDBException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public Path getDataDir() {
+        return file.toPath();
+    }
+
+    protected static void addToBatch(WriteBatch batch, ColumnFamilyHandle handle, List<Pair<byte[], byte[]>> pairs)
+            throws RocksDBException {
+        for (Pair<byte[], byte[]> p : pairs) {
+            if (p.getValue() == null) {
+                batch.delete(handle, p.getLeft());
+            } else {
+                batch.put(handle, p.getLeft(), p.getRight());
+            }
+        }
+    }
+
+    /**
+     * Opens a single RocksDB instance, with one column family for each
+     * {@link DatabaseName}.
+     */
+    public static class RocksdbFactory implements DatabaseFactory {
+
+        static {
+            RocksDB.loadLibrary();
+        }
+
+        private static final long BLOCK_CACHE_SIZE = 256L * 1024L * 1024L;
+
+        private final EnumMap<DatabaseName, RocksdbDatabase> databases = new EnumMap<>(DatabaseName.class);
+        private final EnumMap<DatabaseName, ColumnFamilyHandle> handles = new EnumMap<>(DatabaseName.class);
+        private final List<AutoCloseable> resources = new ArrayList<>();
+
+        private final File dataDir;
+        private final AtomicBoolean open;
+
+        private RocksDB db;
+        private WriteOptions writeOptions;
+
+        public RocksdbFactory(File dataDir) {
+            this.dataDir = dataDir;
+            this.open = new AtomicBoolean(false);
+
+            open();
+        }
+
+        /**
+         * Creates the options of a column family.
+         *
+         * @param name
+         * @param cache
+         *            the block cache shared by all column families
+         * @return
+         */
+        protected ColumnFamilyOptions createOptions(DatabaseName name, Cache cache) {
+            BlockBasedTableConfig table = new BlockBasedTableConfig();
+            table.setBlockCache(cache);
+
+            ColumnFamilyOptions options = new ColumnFamilyOptions();
+            options.setWriteBufferSize(8 * 1024 * 1024);
+
+            switch (name) {
+            case ACCOUNT:
+            case INDEX:
+                // point lookups dominate
+                BloomFilter filter = new BloomFilter(10, false);
+                resources.add(filter);
+                table.setFilterPolicy(filter);
+                options.setCompressionType(CompressionType.NO_COMPRESSION);
+                break;
+            case BLOCK:
+                // large immutable values, rarely read
+                table.setBlockSize(64 * 1024);
+                options.setCompressionType(CompressionType.LZ4_COMPRESSION);
+                break;
+            default:
+                options.setCompressionType(CompressionType.NO_COMPRESSION);
+                break;
+            }
+
+            options.setTableFormatConfig(table);
+            return options;
+        }
+
+        @Override
+        public void open() {
+            if (open.compareAndSet(false, true)) {
+                if (!dataDir.exists() && !dataDir.mkdirs()) {
+                    logger.error("Failed to create directory: {}", dataDir);
+                }
+
+                Cache cache = new LRUCache(BLOCK_CACHE_SIZE);
+                resources.add(cache);
+
+                DBOptions options = new DBOptions();
+                options.setCreateIfMissing(true);
+                options.setCreateMissingColumnFamilies(true);
+                options.setParanoidChecks(true);
+                options.setMaxOpenFiles(512);
+                options.setIncreaseParallelism(Runtime.getRuntime().availableProcessors());
+                resources.add(options);
+
+                List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+                ColumnFamilyOptions defaultOptions = new ColumnFamilyOptions();
+                resources.add(defaultOptions);
+                descriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, defaultOptions));
+                for (DatabaseName name : DatabaseName.values()) {
+                    ColumnFamilyOptions cfOptions = createOptions(name, cache);
+                    resources.add(cfOptions);
+                    descriptors.add(new ColumnFamilyDescriptor(Bytes.of(name.toString().toLowerCase(Locale.ROOT)),
+                            cfOptions));
+                }
+
+                try {
+                    List<ColumnFamilyHandle> list = new ArrayList<>();
+                    db = RocksDB.open(options, dataDir.getAbsolutePath(), descriptors, list);
+                    writeOptions = new WriteOptions();
+
+                    // the first handle is the default column family
+                    resources.add(list.get(0));
+                    for (DatabaseName name : DatabaseName.values()) {
+                        ColumnFamilyHandle handle = list.get(name.ordinal() + 1);
+                        handles.put(name, handle);
+                        databases.put(name, new RocksdbDatabase(db, handle, writeOptions, dataDir));
+                    }
+                } catch (RocksDBException e) {
+                    logger.error("Failed to open database", e);
+                    SystemUtil.exitAsync(SystemUtil.Code.FAILED_TO_OPEN_DB);
+                }
+            }
+        }
+
+        @Override
+        public Database getDB(DatabaseName name) {
+            open();
+            return databases.get(name);
+        }
+
+        @Override
+        public boolean isAtomicBatchSupported() {
+            return true;
+        }
+
+        /**
+         * Writes the batches of all column families in one RocksDB write batch.
+         */
+        @Override
+        public void updateBatch(Map<DatabaseName, List<Pair<byte[], byte[]>>> batches) {
+            try (WriteBatch batch = new WriteBatch()) {
+                for (Map.Entry<DatabaseName, List<Pair<byte[], byte[]>>> e : batches.entrySet()) {
+                    addToBatch(batch, handles.get(e.getKey()), e.getValue());
+                }
+                db.write(writeOptions, batch);
+            } catch (RocksDBException e) {
+                logger.error("Failed to update batch", e);
+                SystemUtil.exitAsync(SystemUtil.Code.FAILED_TO_WRITE_BATCH_TO_DB);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (open.compareAndSet(true, false)) {
+                for (ColumnFamilyHandle handle : handles.values()) {
+                    handle.close();
+                }
+                handles.clear();
+                databases.clear();
+
+                if (db != null) {
+                    db.close();
+                    db = null;
+                }
+                if (writeOptions != null) {
+                    writeOptions.close();
+                    writeOptions = null;
+                }
+
+                for (AutoCloseable resource : resources) {
+                    try {
+                        resource.close();
+                    } catch (Exception e) {
+                        logger.error("Failed to close resource", e);
+                    }
+                }
+                resources.clear();
+            }
+        }
+
+        @Override
+        public Path getDataDir() {
+            return dataDir.toPath();
+        }
+    }
+}
@@ -0,0 +1,837 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.alienchain.db.exception.DatabaseException;
+import org.alienchain.util.ByteArray;
+import org.alienchain.util.Bytes;
+import org.alienchain.util.ClosableIterator;
+import org.alienchain.util.FileUtil;
+import org.apache.commons.lang3.tuple.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only database for immutable values keyed by <code>[type, number]</code>,
+ * where <code>type</code> is a byte in <code>[0, types)</code> and
+ * <code>number</code> is a dense non-negative long, e.g. the block parts.
+ *
+ * <pre>
+ * segment-NNNNN.dat: [value][value]...
+ * segment-NNNNN.slots: [slot][slot]...
+ * index.dat: [tail_segment, tail_position][entry_0][entry_1]...
+ * live.dat: [live_bytes_0][live_bytes_1]...
+ *
+ * entry_i: [segment + 1, offset, length], for i = number * types + type
+ * </pre>
+ *
+ * Values are appended to rolling segment files and read through memory mapped
+ * buffers. Deleting a value clears its index entry; once most of a sealed
+ * segment has been deleted, e.g. by pruning, the values still referenced by the
+ * slots appended to it are moved to the tail and the segment file is removed.
+ * The bytes referenced by the index are counted per segment, so neither opening
+ * nor compaction scans the whole index.
+ * <p>
+ * Reads don't take the database lock; index entries are published to them
+ * under a read/write lock.
+ */
+public class SegmentDatabase implements Database {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentDatabase.class);
+
+    protected static final int SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    /**
+     * A sealed segment is compacted once its live bytes drop below
+     * <code>segmentSize / COMPACTION_RATIO</code>.
+     */
+    protected static final int COMPACTION_RATIO = 4;
+
+    protected static final int HEADER_SIZE = 8;
+    protected static final int ENTRY_SIZE = 12;
+    protected static final int ENTRIES_PER_CHUNK = 1024 * 1024;
+    protected static final int CHUNK_SIZE = ENTRIES_PER_CHUNK * ENTRY_SIZE;
+    protected static final int LIVE_CHUNK_SIZE = 1024 * 8;
+
+    private static final String INDEX_FILE = "index.dat";
+    private static final String LIVE_FILE = "live.dat";
+
+    private final File dir;
+    private final int types;
+    private final int segmentSize;
+
+    private final List<MappedByteBuffer> segments = new CopyOnWriteArrayList<>();
+    private final List<MappedByteBuffer> chunks = new CopyOnWriteArrayList<>();
+
+    private final ReadWriteLock entryLock = new ReentrantReadWriteLock();
+
+    private MappedByteBuffer header;
+    private RandomAccessFile indexFile;
+
+    /**
+     * Bytes referenced by the index, per segment.
+     */
+    private MappedByteBuffer live;
+    private RandomAccessFile liveFile;
+
+    /**
+     * The slots appended to the tail segment.
+     */
+    private FileChannel tailSlots;
+
+    private int tailSegment;
+    private int tailPosition;
+    private volatile long maxNumber = -1;
+
+    private boolean isOpened;
+
+    /**
+     * Creates a segment database and opens it.
+     *
+     * @param dir
+     *            the directory of segment and index files
+     * @param types
+     *            the number of value types per number
+     */
+    public SegmentDatabase(File dir, int types) {
+        this(dir, types, SEGMENT_SIZE);
+    }
+
+    protected SegmentDatabase(File dir, int types, int segmentSize) {
+        this.dir = dir;
+        this.types = types;
+        this.segmentSize = segmentSize;
+
+        if (!dir.exists() && !dir.mkdirs()) {
+            logger.error("Failed to create directory: {}", dir);
+        }
+
+        open();
+    }
+
+    protected synchronized void open() {
+        try {
+            indexFile = new RandomAccessFile(new File(dir, INDEX_FILE), "rw");
+            header = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            tailSegment = header.getInt(0);
+            tailPosition = header.getInt(4);
+
+            long entries = (indexFile.length() - HEADER_SIZE) / ENTRY_SIZE;
+            for (int i = 0; (long) i * ENTRIES_PER_CHUNK < entries; i++) {
+                mapChunk(i);
+            }
+            mapSegment(tailSegment);
+            maxNumber = findMaxNumber();
+
+            File file = new File(dir, LIVE_FILE);
+            if (!file.exists()) {
+                count(file);
+            }
+            liveFile = new RandomAccessFile(file, "rw");
+            mapLive(tailSegment);
+            tailSlots = openSlots(tailSegment);
+
+            isOpened = true;
+        } catch (IOException e) {
+            throw new DatabaseException("Failed to open segment database: " + dir, e);
+        }
+
+        // finish an interrupted compaction
+        for (int i = 0; i < tailSegment; i++) {
+            compactIfNeeded(i);
+        }
+    }
+
+    /**
+     * Counts the live bytes and lists the slots of each segment, for a database
+     * which doesn't have them yet. The live bytes are written last, so an
+     * interrupted count starts over.
+     *
+     * @param file
+     *            the live bytes file
+     * @throws IOException
+     */
+    protected void count(File file) throws IOException {
+        long[] bytes = new long[tailSegment + 1];
+        DataOutputStream[] slots = new DataOutputStream[tailSegment + 1];
+        try {
+            for (long slot = 0; slot < (maxNumber + 1) * types; slot++) {
+                ByteBuffer chunk = getChunk(slot);
+                int pos = (int) (slot % ENTRIES_PER_CHUNK) * ENTRY_SIZE;
+                int segment = chunk.getInt(pos) - 1;
+                if (segment >= 0) {
+                    if (slots[segment] == null) {
+                        slots[segment] = new DataOutputStream(
+                                new BufferedOutputStream(new FileOutputStream(slotsFile(segment))));
+                    }
+                    bytes[segment] += chunk.getInt(pos + 8);
+                    slots[segment].writeLong(slot);
+                }
+            }
+        } finally {
+            for (DataOutputStream out : slots) {
+                if (out != null) {
+                    out.close();
+                }
+            }
+        }
+
+        File tmp = new File(dir, LIVE_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            for (long b : bytes) {
+                out.writeLong(b);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns whether nothing has been written.
+     *
+     * @return
+     */
+    public boolean isEmpty() {
+        return maxNumber < 0;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        long slot = toSlot(key);
+        if (slot < 0 || slot / types > maxNumber) {
+            return null;
+        }
+
+        return read(slot);
+    }
+
+    @Override
+    public synchronized void put(byte[] key, byte[] value) {
+        long slot = toSlot(key);
+        if (slot < 0) {
+            throw new DatabaseException("Unsupported key: " + ByteArray.of(key));
+        }
+        if (value.length > segmentSize) {
+            throw new DatabaseException("Value too large: " + value.length);
+        }
+
+        compactIfNeeded(append(slot, value));
+    }
+
+    /**
+     * Appends a value and points the entry of the given slot to it.
+     *
+     * @param slot
+     * @param value
+     * @return the segment of the previous entry, or -1 if there is none
+     */
+    protected int append(long slot, byte[] value) {
+        // [1] append the value
+        if (tailPosition + value.length > segmentSize) {
+            rollTail();
+        }
+        ByteBuffer buf = getSegment(tailSegment).duplicate();
+        buf.position(tailPosition);
+        buf.put(value);
+
+        // [2] update the tail, before the entry pointing to it
+        int offset = tailPosition;
+        tailPosition += value.length;
+        header.putInt(0, tailSegment);
+        header.putInt(4, tailPosition);
+
+        // [3] list the slot in the segment, before the entry pointing to it
+        writeSlot(slot);
+
+        // [4] update the index entry
+        int previous = (slot / types <= maxNumber) ? release(slot) : -1;
+        writeEntry(slot, tailSegment + 1, offset, value.length);
+        addLive(tailSegment, value.length);
+        maxNumber = Math.max(maxNumber, slot / types);
+
+        return previous;
+    }
+
+    /**
+     * Seals the tail segment and starts a new one.
+     */
+    protected void rollTail() {
+        try {
+            tailSlots.close();
+            tailSegment++;
+            tailPosition = 0;
+            mapLive(tailSegment);
+            tailSlots = openSlots(tailSegment);
+        } catch (IOException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public synchronized void delete(byte[] key) {
+        long slot = toSlot(key);
+        if (slot >= 0 && slot / types <= maxNumber) {
+            int previous = release(slot);
+            writeEntry(slot, 0, 0, 0);
+
+            compactIfNeeded(previous);
+        }
+    }
+
+    @Override
+    public synchronized void updateBatch(List<Pair<byte[], byte[]>> pairs) {
+        for (Pair<byte[], byte[]> p : pairs) {
+            if (p.getValue() == null) {
+                delete(p.getLeft());
+            } else {
+                put(p.getLeft(), p.getRight());
+            }
+        }
+    }
+
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator() {
+        return iterator(null);
+    }
+
+    /**
+     * Iterates the keys in the order of <code>[type, number]</code>, starting from
+     * the given prefix. The index entries of each type are scanned in place, so
+     * the values are read in the order they were appended.
+     */
+    @Override
+    public ClosableIterator<Entry<byte[], byte[]>> iterator(byte[] prefix) {
+        return new ClosableIterator<Entry<byte[], byte[]>>() {
+            int type = 0;
+            long number = 0;
+            Entry<byte[], byte[]> next;
+
+            {
+                seek(prefix);
+                next = advance();
+            }
+
+            private void seek(byte[] prefix) {
+                if (prefix == null || prefix.length == 0) {
+                    return;
+                }
+
+                type = prefix[0] & 0xff;
+                byte[] bytes = Arrays.copyOfRange(prefix, 1, 9);
+                number = Bytes.toLong(bytes);
+                if (number < 0) {
+                    // beyond all numbers of this type
+                    type++;
+                    number = 0;
+                } else if (prefix.length > 9) {
+                    // the key of this number sorts before the prefix
+                    number++;
+                }
+            }
+
+            private Entry<byte[], byte[]> advance() {
+                for (; type < types; type++, number = 0) {
+                    for (; number <= maxNumber; number++) {
+                        byte[] value = read(number * types + type);
+                        if (value != null) {
+                            Entry<byte[], byte[]> e = new SimpleImmutableEntry<>(
+                                    Bytes.merge((byte) type, Bytes.of(number)), value);
+                            number++;
+                            return e;
+                        }
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry<byte[], byte[]> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry<byte[], byte[]> e = next;
+                next = advance();
+                return e;
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
+
+    /**
+     * Flushes the segments and the index to disk.
+     */
+    public synchronized void force() {
+        for (MappedByteBuffer buf : segments) {
+            if (buf != null) {
+                buf.force();
+            }
+        }
+        for (MappedByteBuffer buf : chunks) {
+            buf.force();
+        }
+        header.force();
+        live.force();
+        try {
+            tailSlots.force(false);
+        } catch (IOException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (isOpened) {
+                force();
+                indexFile.close();
+                liveFile.close();
+                tailSlots.close();
+
+                segments.clear();
+                chunks.clear();
+                isOpened = false;
+            }
+        } catch (IOException e) {
+            logger.error("Failed to close segment database: {}", dir, e);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        close();
+        FileUtil.recursiveDelete(dir);
+    }
+
+    @Override
+    public Path getDataDir() {
+        return dir.toPath();
+    }
+
+    /**
+     * Converts a key into the index slot, or -1 if the key is not supported.
+     *
+     * @param key
+     * @return
+     */
+    protected long toSlot(byte[] key) {
+        if (key.length != 9 || (key[0] & 0xff) >= types) {
+            return -1;
+        }
+        long number = Bytes.toLong(Arrays.copyOfRange(key, 1, 9));
+        return number < 0 ? -1 : number * types + (key[0] & 0xff);
+    }
+
+    /**
+     * Reads the value of the given slot, or null if there is none.
+     *
+     * @param slot
+     * @return
+     */
+    protected byte[] read(long slot) {
+        ByteBuffer chunk = getChunk(slot);
+        int pos = (int) (slot % ENTRIES_PER_CHUNK) * ENTRY_SIZE;
+
+        // the entry and the value it points to are read under the read lock, so
+        // compaction can't move the value in between; the segments referenced by
+        // the index are always mapped, so no monitor is taken here
+        Lock lock = entryLock.readLock();
+        lock.lock();
+        try {
+            int segment = chunk.getInt(pos) - 1;
+            if (segment < 0) {
+                return null;
+            }
+
+            int offset = chunk.getInt(pos + 4);
+            int length = chunk.getInt(pos + 8);
+
+            ByteBuffer buf = getSegment(segment).duplicate();
+            buf.position(offset);
+            byte[] value = new byte[length];
+            buf.get(value);
+            return value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the bytes referenced by the entry of the given slot.
+     *
+     * @param slot
+     * @return the segment of the entry, or -1 if there is none
+     */
+    protected int release(long slot) {
+        ByteBuffer chunk = getChunk(slot);
+        int pos = (int) (slot % ENTRIES_PER_CHUNK) * ENTRY_SIZE;
+        int segment = chunk.getInt(pos) - 1;
+        if (segment >= 0) {
+            addLive(segment, -chunk.getInt(pos + 8));
+        }
+        return segment;
+    }
+
+    /**
+     * Moves the live values of a sealed segment to the tail and removes the
+     * segment file, if most of the segment has been deleted.
+     *
+     * @param segment
+     */
+    protected void compactIfNeeded(int segment) {
+        if (segment < 0 || segment >= tailSegment || segments.get(segment) == null
+                || getLive(segment) >= segmentSize / COMPACTION_RATIO) {
+            return;
+        }
+
+        // [1] move the values still pointed to by the slots of the segment, which
+        // updates their entries
+        int moved = 0;
+        File slots = slotsFile(segment);
+        if (slots.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(slots)))) {
+                for (long n = slots.length() / 8; n > 0; n--) {
+                    long slot = in.readLong();
+                    ByteBuffer chunk = getChunk(slot);
+                    if (chunk.getInt((int) (slot % ENTRIES_PER_CHUNK) * ENTRY_SIZE) - 1 == segment) {
+                        append(slot, read(slot));
+                        moved++;
+                    }
+                }
+            } catch (IOException e) {
+                throw new DatabaseException("Failed to read the slots of segment " + segment, e);
+            }
+        }
+
+        // [2] remove the segment once no entry points to it on disk
+        force();
+        segments.set(segment, null);
+        for (File file : new File[] { segmentFile(segment), slots }) {
+            if (file.exists() && !file.delete()) {
+                logger.warn("Failed to delete segment file: {}", file);
+            }
+        }
+        logger.info("Compacted segment {}, moved {} values", segment, moved);
+    }
+
+    protected void writeEntry(long slot, int segment, int offset, int length) {
+        ByteBuffer chunk = getChunk(slot);
+        int pos = (int) (slot % ENTRIES_PER_CHUNK) * ENTRY_SIZE;
+        Lock lock = entryLock.writeLock();
+        lock.lock();
+        try {
+            // the segment is written last, as it marks the entry valid on disk
+            chunk.putInt(pos, 0);
+            chunk.putInt(pos + 4, offset);
+            chunk.putInt(pos + 8, length);
+            chunk.putInt(pos, segment);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lists a slot in the slots of the tail segment.
+     *
+     * @param slot
+     */
+    protected void writeSlot(long slot) {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        buf.putLong(0, slot);
+        try {
+            while (buf.hasRemaining()) {
+                tailSlots.write(buf);
+            }
+        } catch (IOException e) {
+            throw new DatabaseException(e);
+        }
+    }
+
+    protected long getLive(int segment) {
+        return (long) segment * 8 < live.capacity() ? live.getLong(segment * 8) : 0;
+    }
+
+    protected void addLive(int segment, long bytes) {
+        live.putLong(segment * 8, live.getLong(segment * 8) + bytes);
+    }
+
+    /**
+     * Maps the live bytes, with room for the given segment.
+     *
+     * @param segment
+     * @throws IOException
+     */
+    private void mapLive(int segment) throws IOException {
+        long size = ((long) segment * 8 / LIVE_CHUNK_SIZE + 1) * LIVE_CHUNK_SIZE;
+        if (live == null || live.capacity() < size) {
+            live = liveFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private FileChannel openSlots(int segment) throws IOException {
+        FileChannel channel = FileChannel.open(slotsFile(segment).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    protected long findMaxNumber() {
+        for (long slot = (long) chunks.size() * ENTRIES_PER_CHUNK - 1; slot >= 0; slot--) {
+            ByteBuffer chunk = chunks.get((int) (slot / ENTRIES_PER_CHUNK));
+            if (chunk.getInt((int) (slot % ENTRIES_PER_CHUNK) * ENTRY_SIZE) != 0) {
+                return slot / types;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index chunk that holds the given slot, mapping it if needed.
+     *
+     * @param slot
+     * @return
+     */
+    protected MappedByteBuffer getChunk(long slot) {
+        int i = (int) (slot / ENTRIES_PER_CHUNK);
+        return i < chunks.size() ? chunks.get(i) : mapChunk(i);
+    }
+
+    private synchronized MappedByteBuffer mapChunk(int i) {
+        while (chunks.size() <= i) {
+            try {
+                long position = HEADER_SIZE + (long) chunks.size() * CHUNK_SIZE;
+                chunks.add(indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, position, CHUNK_SIZE));
+            } catch (IOException e) {
+                throw new DatabaseException(e);
+            }
+        }
+        return chunks.get(i);
+    }
+
+    /**
+     * Returns the given segment, mapping it if needed, or null if it has been
+     * compacted.
+     *
+     * @param i
+     * @return
+     */
+    protected MappedByteBuffer getSegment(int i) {
+        return i < segments.size() ? segments.get(i) : mapSegment(i);
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int i) {
+        while (segments.size() <= i) {
+            File file = segmentFile(segments.size());
+            if (segments.size() < tailSegment && !file.exists()) {
+                // compacted
+                segments.add(null);
+                continue;
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                segments.add(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+            } catch (IOException e) {
+                throw new DatabaseException(e);
+            }
+        }
+        return segments.get(i);
+    }
+
+    private File segmentFile(int i) {
+        return new File(dir, String.format(Locale.ROOT, "segment-%05d.dat", i));
+    }
+
+    private File slotsFile(int i) {
+        return new File(dir, String.format(Locale.ROOT, "segment-%05d.slots", i));
+    }
+
+    /**
+     * A factory which stores the {@link DatabaseName#BLOCK} database in segment
+     * files, and delegates all other databases to another factory.
+     *
+     * <p>
+     * The blocks already stored in the underlying factory are imported when the
+     * segments are first opened. A marker file is written once the import is on
+     * disk; until then, the import is resumed on every open. The key-value copy
+     * of the blocks is deleted after the marker.
+     * </p>
+     */
+    public static class SegmentFactory implements DatabaseFactory {
+
+        private static final String DIR_NAME = "block_segments";
+        private static final String IMPORTED_FILE = "imported";
+        private static final int DELETE_BATCH_SIZE = 10_000;
+
+        private final DatabaseFactory factory;
+        private final int types;
+
+        private SegmentDatabase blockDB;
+
+        /**
+         * Creates a segment factory on top of another factory.
+         *
+         * @param factory
+         *            the underlying factory
+         * @param types
+         *            the number of block parts per block number
+         */
+        public SegmentFactory(DatabaseFactory factory, int types) {
+            this.factory = factory;
+            this.types = types;
+
+            openSegments();
+        }
+
+        /**
+         * Returns whether the blocks of the given data directory have been moved
+         * into segments.
+         *
+         * @param dataDir
+         * @return
+         */
+        public static boolean isImported(Path dataDir) {
+            return new File(new File(dataDir.toFile(), DIR_NAME), IMPORTED_FILE).exists();
+        }
+
+        @Override
+        public Database getDB(DatabaseName name) {
+            return name == DatabaseName.BLOCK ? blockDB : factory.getDB(name);
+        }
+
+        @Override
+        public void open() throws IOException {
+            factory.open();
+            openSegments();
+        }
+
+        @Override
+        public void close() {
+            if (blockDB != null) {
+                blockDB.close();
+                blockDB = null;
+            }
+            factory.close();
+        }
+
+        @Override
+        public Path getDataDir() {
+            return factory.getDataDir();
+        }
+
+        protected synchronized void openSegments() {
+            if (blockDB == null) {
+                File dir = new File(factory.getDataDir().toFile(), DIR_NAME);
+                blockDB = new SegmentDatabase(dir, types);
+
+                Database source = factory.getDB(DatabaseName.BLOCK);
+                File marker = new File(dir, IMPORTED_FILE);
+                if (!marker.exists()) {
+                    importBlocks(source);
+                    blockDB.force();
+                    try {
+                        Files.createFile(marker.toPath());
+                    } catch (IOException e) {
+                        throw new DatabaseException("Failed to write the import marker: " + marker, e);
+                    }
+                }
+                deleteBlocks(source);
+            }
+        }
+
+        /**
+         * Copies the blocks stored in the underlying factory into segments,
+         * skipping those imported by an interrupted run.
+         *
+         * @param source
+         */
+        protected void importBlocks(Database source) {
+            long n = 0;
+            ClosableIterator<Entry<byte[], byte[]>> itr = source.iterator();
+            try {
+                while (itr.hasNext()) {
+                    Entry<byte[], byte[]> e = itr.next();
+                    if (blockDB.get(e.getKey()) != null) {
+                        continue;
+                    }
+                    blockDB.put(e.getKey(), e.getValue());
+                    if (++n % 100_000 == 0) {
+                        logger.info("Imported {} block parts into segments", n);
+                    }
+                }
+            } finally {
+                itr.close();
+            }
+
+            if (n > 0) {
+                logger.info("Imported {} block parts into segments", n);
+            }
+        }
+
+        /**
+         * Deletes the key-value copy of the imported blocks.
+         *
+         * @param source
+         */
+        protected void deleteBlocks(Database source) {
+            long n = 0;
+            List<Pair<byte[], byte[]>> batch = new ArrayList<>();
+            ClosableIterator<Entry<byte[], byte[]>> itr = source.iterator();
+            try {
+                while (itr.hasNext()) {
+                    batch.add(Pair.of(itr.next().getKey(), null));
+                    if (batch.size() == DELETE_BATCH_SIZE) {
+                        source.updateBatch(batch);
+                        n += batch.size();
+                        batch.clear();
+                    }
+                }
+            } finally {
+                itr.close();
+            }
+            source.updateBatch(batch);
+            n += batch.size();
+
+            if (n > 0) {
+                logger.info("Deleted {} imported block parts from the key-value database", n);
+            }
+        }
+    }
+}
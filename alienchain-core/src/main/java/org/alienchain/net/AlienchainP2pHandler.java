@@ -28,6 +28,7 @@ import org.alienchain.Network;
 import org.alienchain.config.Config;
 import org.alienchain.core.BftManager;
 import org.alienchain.core.Block;
+import org.alienchain.core.Block.BlockPart;
 import org.alienchain.core.BlockHeader;
 import org.alienchain.core.Blockchain;
 import org.alienchain.core.PendingManager;
@@ -39,8 +40,10 @@ import org.alienchain.net.msg.MessageWrapper;
 import org.alienchain.net.msg.ReasonCode;
 import org.alienchain.net.msg.consensus.BlockHeaderMessage;
 import org.alienchain.net.msg.consensus.BlockMessage;
+import org.alienchain.net.msg.consensus.BlockPartsMessage;
 import org.alienchain.net.msg.consensus.GetBlockHeaderMessage;
 import org.alienchain.net.msg.consensus.GetBlockMessage;
+import org.alienchain.net.msg.consensus.GetBlockPartsMessage;
 import org.alienchain.net.msg.consensus.NewHeightMessage;
 import org.alienchain.net.msg.p2p.DisconnectMessage;
 import org.alienchain.net.msg.p2p.GetNodesMessage;
@@ -244,6 +247,8 @@ public class AlienchainP2pHandler extends SimpleChannelInboundHandler<Message> {
         case BLOCK:
         case GET_BLOCK_HEADER:
         case BLOCK_HEADER:
+        case GET_BLOCK_PARTS:
+        case BLOCK_PARTS:
             onSync(msg);
             break;
 
@@ -433,7 +438,11 @@ public class AlienchainP2pHandler extends SimpleChannelInboundHandler<Message> {
         case GET_BLOCK: {
             GetBlockMessage m = (GetBlockMessage) msg;
             Block block = chain.getBlock(m.getNumber());
-            channel.getMessageQueue().sendMessage(new BlockMessage(block));
+
+            // the block is unknown, or its body has been pruned
+            if (block != null) {
+                channel.getMessageQueue().sendMessage(new BlockMessage(block));
+            }
             break;
         }
         case BLOCK: {
@@ -450,10 +459,27 @@ public class AlienchainP2pHandler extends SimpleChannelInboundHandler<Message> {
             sync.onMessage(channel, msg);
             break;
         }
-        case GET_BLOCK_PARTS:
-        case BLOCK_PARTS:
-            // TODO: add handler
+        case GET_BLOCK_PARTS: {
+            GetBlockPartsMessage m = (GetBlockPartsMessage) msg;
+            List<BlockPart> requested = BlockPart.parts(m.getParts());
+            List<byte[]> encoded = chain.getBlockParts(m.getNumber(), m.getParts());
+
+            // reply with the parts we have
+            int parts = 0;
+            List<byte[]> data = new ArrayList<>();
+            for (int i = 0; i < requested.size(); i++) {
+                if (encoded.get(i) != null) {
+                    parts |= BlockPart.parts(requested.get(i));
+                    data.add(encoded.get(i));
+                }
+            }
+            channel.getMessageQueue().sendMessage(new BlockPartsMessage(m.getNumber(), parts, data));
+            break;
+        }
+        case BLOCK_PARTS: {
+            sync.onMessage(channel, msg);
             break;
+        }
         default:
             throw new UnreachableException();
         }
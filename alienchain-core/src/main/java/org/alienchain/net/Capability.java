@@ -32,9 +32,16 @@ public enum Capability {
     LIGHT,
 
     /**
-     * The client supports FAST_SYNC protocol.
+     * The client supports FAST_SYNC protocol, i.e. it serves the parts of blocks
+     * on request.
      */
-    FAST_SYNC;
+    FAST_SYNC,
+
+    /**
+     * This client only keeps the bodies of the last
+     * ${@link org.alienchain.config.Constants#MIN_PRUNED_BLOCKS} blocks or more.
+     */
+    PRUNED;
 
     public static Capability of(String name) {
         try {
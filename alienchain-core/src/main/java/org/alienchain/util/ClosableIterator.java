@@ -14,4 +14,29 @@ public interface ClosableIterator<T> extends Iterator<T> {
      * Closes the underlying resources for this iterator.
      */
     void close();
+
+    /**
+     * Wraps an iterator which holds no resources.
+     *
+     * @param itr
+     * @return
+     */
+    static <T> ClosableIterator<T> of(Iterator<T> itr) {
+        return new ClosableIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return itr.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return itr.next();
+            }
+
+            @Override
+            public void close() {
+                // nothing to release
+            }
+        };
+    }
 }
@@ -0,0 +1,305 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.util;
+
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable hash map with structural sharing (a hash array mapped trie).
+ *
+ * <p>
+ * {@link #plus(Object, Object)} returns a new map in O(log32 n) time and space,
+ * leaving this map unchanged, so a map can be shared freely between threads and
+ * snapshots. Null values are allowed, and are distinguished from absent keys by
+ * {@link #getEntry(Object)}.
+ * </p>
+ *
+ * @param <K>
+ *            type of the keys
+ * @param <V>
+ *            type of the values
+ */
+public final class PersistentHashMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Returns the empty map.
+     *
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Returns the number of keys.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the entry of a key, or null if the key is absent.
+     *
+     * @param key
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public Entry<K, V> getEntry(K key) {
+        return root == null ? null : (Entry<K, V>) root.find(key.hashCode(), key, 0);
+    }
+
+    /**
+     * Returns whether the map contains a key.
+     *
+     * @param key
+     * @return
+     */
+    public boolean containsKey(K key) {
+        return getEntry(key) != null;
+    }
+
+    /**
+     * Returns the value of a key, or null if the key is absent.
+     *
+     * @param key
+     * @return
+     */
+    public V get(K key) {
+        Entry<K, V> e = getEntry(key);
+        return e == null ? null : e.getValue();
+    }
+
+    /**
+     * Returns a map with the key mapped to the value.
+     *
+     * @param key
+     * @param value
+     * @return
+     */
+    public PersistentHashMap<K, V> plus(K key, V value) {
+        Leaf leaf = new Leaf(key.hashCode(), key, value);
+        boolean[] added = new boolean[1];
+        Node node = (root == null) ? new BitmapNode(0, new Object[0]).put(leaf, 0, added)
+                : root.put(leaf, 0, added);
+        return new PersistentHashMap<>(node, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Returns a map with all the mappings of the given map added.
+     *
+     * @param map
+     * @return
+     */
+    public PersistentHashMap<K, V> plusAll(Map<K, V> map) {
+        PersistentHashMap<K, V> result = this;
+        for (Entry<K, V> e : map.entrySet()) {
+            result = result.plus(e.getKey(), e.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Performs an action for each mapping, in no particular order.
+     *
+     * @param action
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null) {
+            root.forEach((BiConsumer<Object, Object>) action);
+        }
+    }
+
+    private interface Node {
+        Leaf find(int hash, Object key, int shift);
+
+        Node put(Leaf leaf, int shift, boolean[] added);
+
+        void forEach(BiConsumer<Object, Object> action);
+    }
+
+    private static final class Leaf implements Entry<Object, Object> {
+        private final int hash;
+        private final Object key;
+        private final Object value;
+
+        Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        public Object getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * An inner node; a bit is set in the bitmap for each of the 32 slots in use,
+     * and the slots are packed in the array.
+     */
+    private static final class BitmapNode implements Node {
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        @Override
+        public Leaf find(int hash, Object key, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object o = array[Integer.bitCount(bitmap & (bit - 1))];
+            if (o instanceof Leaf) {
+                Leaf l = (Leaf) o;
+                return (l.hash == hash && l.key.equals(key)) ? l : null;
+            }
+            return ((Node) o).find(hash, key, shift + BITS);
+        }
+
+        @Override
+        public Node put(Leaf leaf, int shift, boolean[] added) {
+            int bit = 1 << ((leaf.hash >>> shift) & MASK);
+            int idx = Integer.bitCount(bitmap & (bit - 1));
+
+            if ((bitmap & bit) == 0) {
+                Object[] a = new Object[array.length + 1];
+                System.arraycopy(array, 0, a, 0, idx);
+                a[idx] = leaf;
+                System.arraycopy(array, idx, a, idx + 1, array.length - idx);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, a);
+            }
+
+            Object o = array[idx];
+            Object replacement;
+            if (o instanceof Leaf) {
+                Leaf l = (Leaf) o;
+                if (l.hash == leaf.hash && l.key.equals(leaf.key)) {
+                    replacement = leaf;
+                } else {
+                    replacement = merge(l, leaf, shift + BITS);
+                    added[0] = true;
+                }
+            } else {
+                replacement = ((Node) o).put(leaf, shift + BITS, added);
+            }
+
+            Object[] a = array.clone();
+            a[idx] = replacement;
+            return new BitmapNode(bitmap, a);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (Object o : array) {
+                if (o instanceof Leaf) {
+                    action.accept(((Leaf) o).key, ((Leaf) o).value);
+                } else {
+                    ((Node) o).forEach(action);
+                }
+            }
+        }
+
+        private static Node merge(Leaf l1, Leaf l2, int shift) {
+            if (l1.hash == l2.hash || shift >= 32) {
+                return new CollisionNode(l1.hash, new Leaf[] { l1, l2 });
+            }
+            boolean[] ignored = new boolean[1];
+            return new BitmapNode(0, new Object[0]).put(l1, shift, ignored).put(l2, shift, ignored);
+        }
+    }
+
+    /**
+     * A node of leaves with the same hash.
+     */
+    private static final class CollisionNode implements Node {
+        private final int hash;
+        private final Leaf[] leaves;
+
+        CollisionNode(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Override
+        public Leaf find(int hash, Object key, int shift) {
+            if (hash == this.hash) {
+                for (Leaf l : leaves) {
+                    if (l.key.equals(key)) {
+                        return l;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Node put(Leaf leaf, int shift, boolean[] added) {
+            if (leaf.hash != hash) {
+                // only happens above the last level; split by the next bits
+                int bit = 1 << ((hash >>> shift) & MASK);
+                return new BitmapNode(bit, new Object[] { this }).put(leaf, shift, added);
+            }
+
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].key.equals(leaf.key)) {
+                    Leaf[] a = leaves.clone();
+                    a[i] = leaf;
+                    return new CollisionNode(hash, a);
+                }
+            }
+
+            Leaf[] a = new Leaf[leaves.length + 1];
+            System.arraycopy(leaves, 0, a, 0, leaves.length);
+            a[leaves.length] = leaf;
+            added[0] = true;
+            return new CollisionNode(hash, a);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (Leaf l : leaves) {
+                action.accept(l.key, l.value);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bloom filter which grows by adding filter stages, each with twice the
+ * capacity and half the false positive rate of the previous one, so the overall
+ * false positive rate stays bounded no matter how many keys are added.
+ *
+ * <p>
+ * Keys must be uniformly distributed hashes of at least 16 bytes, e.g.
+ * transaction hashes; the bit positions are derived from the key directly.
+ * </p>
+ *
+ * <p>
+ * The filter is thread-safe. A key is visible to {@link #mightContain(byte[])}
+ * as soon as {@link #add(byte[])} returns.
+ * </p>
+ */
+public class ScalableBloomFilter {
+
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param capacity
+     *            number of keys of the first stage
+     * @param fpp
+     *            false positive probability of the first stage
+     */
+    public ScalableBloomFilter(long capacity, double fpp) {
+        stages.add(new Stage(capacity, fpp));
+    }
+
+    private ScalableBloomFilter() {
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key
+     */
+    public synchronized void add(byte[] key) {
+        Stage last = stages.get(stages.size() - 1);
+        if (last.count.get() >= last.capacity) {
+            last = new Stage(last.capacity * 2, last.fpp / 2);
+            stages.add(last);
+        }
+        last.add(key);
+    }
+
+    /**
+     * Returns false if the key has definitely not been added, or true if it might
+     * have been.
+     *
+     * @param key
+     * @return
+     */
+    public boolean mightContain(byte[] key) {
+        for (Stage stage : stages) {
+            if (stage.mightContain(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of keys added.
+     *
+     * @return
+     */
+    public long size() {
+        long n = 0;
+        for (Stage stage : stages) {
+            n += stage.count.get();
+        }
+        return n;
+    }
+
+    public synchronized byte[] toBytes() {
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeInt(stages.size());
+        for (Stage stage : stages) {
+            enc.writeLong(stage.capacity);
+            enc.writeLong(Double.doubleToLongBits(stage.fpp));
+            enc.writeLong(stage.count.get());
+            for (int i = 0; i < stage.bits.length(); i++) {
+                enc.writeLong(stage.bits.get(i));
+            }
+        }
+        return enc.toBytes();
+    }
+
+    public static ScalableBloomFilter fromBytes(byte[] bytes) {
+        ScalableBloomFilter filter = new ScalableBloomFilter();
+        SimpleDecoder dec = new SimpleDecoder(bytes);
+        int n = dec.readInt();
+        for (int i = 0; i < n; i++) {
+            long capacity = dec.readLong();
+            double fpp = Double.longBitsToDouble(dec.readLong());
+            Stage stage = new Stage(capacity, fpp);
+            stage.count.set(dec.readLong());
+            for (int j = 0; j < stage.bits.length(); j++) {
+                stage.bits.set(j, dec.readLong());
+            }
+            filter.stages.add(stage);
+        }
+        return filter;
+    }
+
+    private static class Stage {
+        private final long capacity;
+        private final double fpp;
+        private final int hashes;
+        private final long numBits;
+        private final AtomicLongArray bits;
+        private final AtomicLong count = new AtomicLong();
+
+        Stage(long capacity, double fpp) {
+            this.capacity = capacity;
+            this.fpp = fpp;
+
+            // optimal size and number of hash functions
+            long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.numBits = Math.max(64, (m + 63) / 64 * 64);
+            this.hashes = Math.max(1, (int) Math.round((double) numBits / capacity * Math.log(2)));
+            this.bits = new AtomicLongArray((int) (numBits / 64));
+        }
+
+        void add(byte[] key) {
+            long h1 = Bytes.toLong(key);
+            long h2 = Bytes.toLong(Arrays.copyOfRange(key, 8, 16)) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, numBits);
+                int idx = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long v;
+                while (((v = bits.get(idx)) & mask) == 0 && !bits.compareAndSet(idx, v, v | mask)) {
+                    // retry
+                }
+            }
+            count.incrementAndGet();
+        }
+
+        boolean mightContain(byte[] key) {
+            long h1 = Bytes.toLong(key);
+            long h2 = Bytes.toLong(Arrays.copyOfRange(key, 8, 16)) | 1;
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, numBits);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
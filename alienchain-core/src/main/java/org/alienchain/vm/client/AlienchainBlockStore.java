@@ -23,6 +23,6 @@ public class AlienchainBlockStore implements BlockStore {
 
     @Override
     public byte[] getBlockHashByNumber(long index) {
-        return blockchain.getBlockHeader(index).getHash();
+        return blockchain.getBlockHash(index);
     }
 }
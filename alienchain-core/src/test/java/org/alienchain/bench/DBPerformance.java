@@ -9,8 +9,12 @@ package org.alienchain.bench;
 import java.io.File;
 
 import org.alienchain.config.Constants;
-import org.alienchain.db.LeveldbDatabase;
+import org.alienchain.db.Database;
+import org.alienchain.db.DatabaseEngine;
+import org.alienchain.db.DatabaseFactory;
+import org.alienchain.db.DatabaseName;
 import org.alienchain.util.Bytes;
+import org.alienchain.util.FileUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,13 +23,14 @@ public class DBPerformance {
 
     private static final int REPEAT = 100_000;
 
-    private static LeveldbDatabase getTestDB() {
-        return new LeveldbDatabase(new File(Constants.DEFAULT_DATA_DIR, "test"));
+    private static File getTestDir(DatabaseEngine engine) {
+        return new File(Constants.DEFAULT_DATA_DIR, "test_" + engine.name().toLowerCase());
     }
 
-    public static void testWrite() {
-        LeveldbDatabase db = getTestDB();
+    public static void testWrite(DatabaseEngine engine) {
+        DatabaseFactory factory = engine.createFactory(getTestDir(engine));
         try {
+            Database db = factory.getDB(DatabaseName.ACCOUNT);
             long t1 = System.nanoTime();
             for (int i = 0; i < REPEAT; i++) {
                 byte[] key = Bytes.random(256);
@@ -33,32 +38,34 @@ public class DBPerformance {
                 db.put(key, value);
             }
             long t2 = System.nanoTime();
-            logger.info("Perf_db_write: " + (t2 - t1) / 1_000 / REPEAT + " μs/time");
+            logger.info("Perf_db_write_" + engine + ": " + (t2 - t1) / 1_000 / REPEAT + " μs/time");
         } finally {
-            db.close();
+            factory.close();
         }
     }
 
-    public static void testRead() {
-        LeveldbDatabase db = getTestDB();
+    public static void testRead(DatabaseEngine engine) {
+        DatabaseFactory factory = engine.createFactory(getTestDir(engine));
         try {
+            Database db = factory.getDB(DatabaseName.ACCOUNT);
             long t1 = System.nanoTime();
             for (int i = 0; i < REPEAT; i++) {
                 byte[] key = Bytes.random(256);
                 db.get(key);
             }
             long t2 = System.nanoTime();
-            logger.info("Perf_db_read: " + (t2 - t1) / 1_000 / REPEAT + " μs/time");
+            logger.info("Perf_db_read_" + engine + ": " + (t2 - t1) / 1_000 / REPEAT + " μs/time");
         } finally {
-            db.close();
+            factory.close();
         }
     }
 
     public static void main(String[] args) {
-        testWrite();
-        testRead();
+        for (DatabaseEngine engine : DatabaseEngine.values()) {
+            testWrite(engine);
+            testRead(engine);
 
-        LeveldbDatabase db = getTestDB();
-        db.destroy();
+            FileUtil.recursiveDelete(getTestDir(engine));
+        }
     }
 }
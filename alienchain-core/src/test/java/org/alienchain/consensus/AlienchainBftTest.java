@@ -8,6 +8,8 @@ package org.alienchain.consensus;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyLong;
@@ -23,6 +25,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -42,6 +46,7 @@ import org.alienchain.core.TransactionType;
 import org.alienchain.crypto.Key;
 import org.alienchain.rules.KernelRule;
 import org.alienchain.rules.TemporaryDatabaseRule;
+import org.alienchain.util.ByteArray;
 import org.alienchain.util.Bytes;
 import org.alienchain.util.TimeUtil;
 import org.slf4j.Logger;
@@ -151,38 +156,6 @@ public class AlienchainBftTest {
         assertFalse(alienchainBFT.validateBlockProposal(block2.getHeader(), block2.getTransactions()));
     }
 
-  @Test
-    public void testFilterPendingTransactions() {
-        Key to = new Key();
-        Key from = new Key();
-        long time = TimeUtil.currentTimeMillis();
-        Transaction tx1 = createTransaction(to, from, time, 0);
-        Transaction tx2 = createTransaction(to, from, time, 1);
-
-        kernelRule.getKernel().setBlockchain(new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule));
-
-        // pending manager has only tx1 (validated)
-        PendingManager.PendingTransaction pending = new PendingManager.PendingTransaction(tx1,
-                new TransactionResult());
-        when(kernelRule.getKernel().getPendingManager().getPendingTransactions())
-                .thenReturn(Collections.singletonList(pending));
-
-        AlienchainBft alienchainBFT = new AlienchainBft(kernelRule.getKernel());
-
-        // tx1 should filter out
-        assertTrue(alienchainBFT.getUnvalidatedTransactions(Collections.singletonList(tx1)).isEmpty());
-
-        // other transactions should remain
-        assertFalse(alienchainBFT.getUnvalidatedTransactions(Collections.singletonList(tx2)).isEmpty());
-
-        // test that invalid pending are not filtered
-        when(kernelRule.getKernel().getPendingManager().getPendingTransactions(anyInt()))
-                .thenReturn(Collections.singletonList(new PendingManager.PendingTransaction(tx2,
-                        new TransactionResult(TransactionResult.Code.INVALID_FORMAT))));
-
-        assertFalse(alienchainBFT.getUnvalidatedTransactions(Collections.singletonList(tx2)).isEmpty());
-    }
-
   @Test
     public void testValidateBlockCoinbaseMagic() {
         kernelRule.getKernel().setBlockchain(new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule));
@@ -258,6 +231,179 @@ public class AlienchainBftTest {
         assertEquals(timestamp + 1, block.getTimestamp());
     }
 
+  @Test
+    public void testApplyValidatedBlock() {
+        Blockchain chain = new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule);
+        kernelRule.getKernel().setBlockchain(chain);
+
+        Key to = new Key();
+        Key from = new Key();
+        chain.getAccountState().adjustAvailable(from.toAddress(), ALX.of(1000));
+        chain.getAccountState().commit();
+
+        Key blockForger = new Key();
+        Transaction tx = createTransaction(to, from, TimeUtil.currentTimeMillis(), 0);
+        Block block = TestUtils.createBlock(
+                chain.getLatestBlock().getHash(),
+                blockForger,
+                chain.getLatestBlockNumber() + 1,
+                Collections.singletonList(tx),
+                Collections.singletonList(new TransactionResult()));
+
+        AlienchainBft alienchainBFT = new AlienchainBft(kernelRule.getKernel());
+        alienchainBFT.proposal = new Proposal(new Proof(block.getNumber(), 0), block.getHeader(),
+                Collections.singletonList(tx));
+        alienchainBFT.proposal.sign(blockForger);
+        assertTrue(alienchainBFT.validateBlockProposal(block.getHeader(), block.getTransactions()));
+        assertNotNull(alienchainBFT.executedBlocks.getIfPresent(ByteArray.of(block.getHash())));
+
+        // the validation updates are committed as is
+        alienchainBFT.applyBlock(block);
+        assertNull(alienchainBFT.executedBlocks.getIfPresent(ByteArray.of(block.getHash())));
+        assertEquals(block.getNumber(), chain.getLatestBlockNumber());
+        assertEquals(ALX.of(10), chain.getAccountState().getAccount(to.toAddress()).getAvailable());
+        assertEquals(1, chain.getAccountState().getAccount(from.toAddress()).getNonce());
+        assertEquals(Block.getBlockReward(block, kernelRule.getKernel().getConfig()),
+                chain.getAccountState().getAccount(blockForger.toAddress()).getAvailable());
+    }
+
+  @Test
+    public void testTimer() throws InterruptedException {
+        AlienchainBft bft = new AlienchainBft(kernelRule.getKernel());
+        bft.timer.start();
+        try {
+            bft.resetTimeout(5);
+            AlienchainBft.Event ev = bft.events.poll(1, TimeUnit.SECONDS);
+            assertNotNull(ev);
+            assertEquals(AlienchainBft.Event.Type.TIMEOUT, ev.getType());
+            assertTrue(bft.timer.isCurrent(ev.getData()));
+
+            // a replaced deadline doesn't fire
+            bft.resetTimeout(20);
+            bft.resetTimeout(60_000);
+            assertNull(bft.events.poll(100, TimeUnit.MILLISECONDS));
+
+            // nor a cleared one
+            bft.resetTimeout(5);
+            bft.timer.clear();
+            assertNull(bft.events.poll(100, TimeUnit.MILLISECONDS));
+            assertFalse(bft.timer.isCurrent(ev.getData()));
+        } finally {
+            bft.timer.stop();
+        }
+    }
+
+  @Test
+    public void testProposePreparedBlock() throws Exception {
+        Blockchain chain = new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule);
+        kernelRule.getKernel().setBlockchain(chain);
+
+        Key to = new Key();
+        Key from = new Key();
+        chain.getAccountState().adjustAvailable(from.toAddress(), ALX.of(1000));
+        chain.getAccountState().commit();
+
+        // the block being committed
+        Key blockForger = new Key();
+        Transaction tx1 = createTransaction(to, from, TimeUtil.currentTimeMillis(), 0);
+        Block block = TestUtils.createBlock(
+                chain.getLatestBlock().getHash(),
+                blockForger,
+                chain.getLatestBlockNumber() + 1,
+                Collections.singletonList(tx1),
+                Collections.singletonList(new TransactionResult()));
+
+        AlienchainBft alienchainBFT = new AlienchainBft(kernelRule.getKernel());
+        alienchainBFT.height = block.getNumber();
+        alienchainBFT.validators = Collections.singletonList(kernelRule.getCoinbase().toAddressString());
+        alienchainBFT.proposal = new Proposal(new Proof(block.getNumber(), 0), block.getHeader(),
+                Collections.singletonList(tx1));
+        alienchainBFT.proposal.sign(blockForger);
+        assertTrue(alienchainBFT.validateBlockProposal(block.getHeader(), block.getTransactions()));
+
+        // the pending transactions still include the one in the block
+        Transaction tx2 = createTransaction(to, from, TimeUtil.currentTimeMillis(), 1);
+        when(kernelRule.getKernel().getPendingManager().getPendingTransactions(anyInt()))
+                .thenReturn(Arrays.asList(new PendingManager.PendingTransaction(tx1, new TransactionResult()),
+                        new PendingManager.PendingTransaction(tx2, new TransactionResult())));
+
+        alienchainBFT.prepareNextBlock(block.getHash());
+        assertNotNull(alienchainBFT.preparedBlock);
+        alienchainBFT.preparedBlock.get();
+
+        alienchainBFT.applyBlock(block);
+        alienchainBFT.height = block.getNumber() + 1;
+
+        Block next = alienchainBFT.proposeBlock();
+        assertNull(alienchainBFT.preparedBlock);
+        assertEquals(Collections.singletonList(tx2), next.getTransactions());
+        assertTrue(Arrays.equals(block.getHash(), next.getParentHash()));
+
+        alienchainBFT.proposal = new Proposal(new Proof(next.getNumber(), 0), next.getHeader(),
+                next.getTransactions());
+        alienchainBFT.proposal.sign(kernelRule.getCoinbase());
+        assertTrue(alienchainBFT.validateBlockProposal(next.getHeader(), next.getTransactions()));
+    }
+
+  @Test
+    public void testPrepareAfterApply() throws Exception {
+        Blockchain chain = new BlockchainImpl(kernelRule.getKernel().getConfig(), temporaryDBRule);
+        kernelRule.getKernel().setBlockchain(chain);
+
+        Key to = new Key();
+        Key from = new Key();
+        chain.getAccountState().adjustAvailable(from.toAddress(), ALX.of(1000));
+        chain.getAccountState().commit();
+
+        Key blockForger = new Key();
+        Transaction tx1 = createTransaction(to, from, TimeUtil.currentTimeMillis(), 0);
+        Block block = TestUtils.createBlock(
+                chain.getLatestBlock().getHash(),
+                blockForger,
+                chain.getLatestBlockNumber() + 1,
+                Collections.singletonList(tx1),
+                Collections.singletonList(new TransactionResult()));
+
+        AlienchainBft alienchainBFT = new AlienchainBft(kernelRule.getKernel());
+        alienchainBFT.height = block.getNumber();
+        alienchainBFT.validators = Collections.singletonList(kernelRule.getCoinbase().toAddressString());
+        alienchainBFT.proposal = new Proposal(new Proof(block.getNumber(), 0), block.getHeader(),
+                Collections.singletonList(tx1));
+        alienchainBFT.proposal.sign(blockForger);
+        assertTrue(alienchainBFT.validateBlockProposal(block.getHeader(), block.getTransactions()));
+
+        // the forger can only spend the reward of the block once
+        Amount reward = Block.getBlockReward(block, kernelRule.getKernel().getConfig());
+        assertTrue(reward.gt0());
+        Transaction tx2 = new Transaction(
+                kernelRule.getKernel().getConfig().network(),
+                TransactionType.TRANSFER,
+                to.toAddress(),
+                reward,
+                kernelRule.getKernel().getConfig().minTransactionFee(),
+                0,
+                TimeUtil.currentTimeMillis(),
+                Bytes.EMPTY_BYTES).sign(blockForger);
+        when(kernelRule.getKernel().getPendingManager().getPendingTransactions(anyInt()))
+                .thenReturn(Collections.singletonList(new PendingManager.PendingTransaction(tx2,
+                        new TransactionResult())));
+
+        // the preparer is busy until the block is applied
+        CountDownLatch latch = new CountDownLatch(1);
+        alienchainBFT.preparer.submit(() -> {
+            latch.await();
+            return null;
+        });
+        alienchainBFT.prepareNextBlock(block.getHash());
+        alienchainBFT.applyBlock(block);
+        latch.countDown();
+        alienchainBFT.preparedBlock.get();
+        alienchainBFT.height = block.getNumber() + 1;
+
+        Block next = alienchainBFT.proposeBlock();
+        assertTrue(next.getTransactions().isEmpty());
+    }
+
     private Transaction createTransaction(Key to, Key from, long time, long nonce) {
         return new Transaction(
                 kernelRule.getKernel().getConfig().network(),
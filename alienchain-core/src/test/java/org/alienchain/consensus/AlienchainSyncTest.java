@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.consensus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import org.alienchain.KernelMock;
+import org.alienchain.consensus.AlienchainSync.PeerStats;
+import org.alienchain.core.Block;
+import org.alienchain.net.Channel;
+import org.alienchain.net.ChannelManager;
+import org.alienchain.net.Peer;
+import org.alienchain.net.msg.MessageQueue;
+import org.alienchain.net.msg.ReasonCode;
+import org.alienchain.net.msg.consensus.BlockMessage;
+import org.alienchain.net.msg.consensus.GetBlockMessage;
+import org.alienchain.rules.KernelRule;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class AlienchainSyncTest {
+
+    @Rule
+    public KernelRule kernelRule = new KernelRule(51650, 51750);
+
+    private KernelMock kernel;
+    private Channel channel;
+    private MessageQueue queue;
+
+    @Before
+    public void setUp() {
+        kernelRule.openBlockchain();
+        kernel = kernelRule.getKernel();
+
+        Peer peer = mock(Peer.class);
+        when(peer.getPeerId()).thenReturn("peer");
+        when(peer.getCapabilities()).thenReturn(new String[0]);
+        when(peer.getLatestBlockNumber()).thenReturn(100L);
+
+        queue = mock(MessageQueue.class);
+        channel = mock(Channel.class);
+        when(channel.getRemotePeer()).thenReturn(peer);
+        when(channel.getMessageQueue()).thenReturn(queue);
+        when(channel.getRemoteAddress()).thenReturn(new InetSocketAddress("127.0.0.1", 51651));
+        when(channel.getRemoteIp()).thenReturn("127.0.0.1");
+    }
+
+    @After
+    public void tearDown() {
+        kernelRule.closeBlockchain();
+    }
+
+    /**
+     * Runs the sync manager on a thread of its own.
+     */
+    private Thread start(AlienchainSync sync, long target) {
+        Thread t = new Thread(() -> sync.start(target), "sync-test");
+        t.start();
+        while (!sync.isRunning()) {
+            Thread.yield();
+        }
+        return t;
+    }
+
+  @Test
+    public void testPeerStats() {
+        PeerStats stats = new PeerStats();
+        assertEquals(Double.MAX_VALUE, stats.getThroughput(), 0);
+        assertEquals(2000L, stats.getTimeout(200L, 2000L));
+
+        for (int i = 0; i < 50; i++) {
+            stats.onResponse(100, 10_000);
+        }
+        assertEquals(100_000, stats.getThroughput(), 1);
+        assertEquals(200L, stats.getTimeout(200L, 2000L));
+
+        PeerStats slow = new PeerStats();
+        for (int i = 0; i < 50; i++) {
+            slow.onResponse(i % 2 == 0 ? 400 : 800, 10_000);
+        }
+        assertTrue(slow.getThroughput() < stats.getThroughput());
+        long timeout = slow.getTimeout(200L, 2000L);
+        assertTrue(timeout > 800 && timeout < 2000);
+
+        // timeouts push the peer back
+        slow.onTimeout(timeout);
+        slow.onTimeout(timeout);
+        assertTrue(slow.getTimeout(200L, 2000L) > timeout);
+
+        // invalid responses push the peer last
+        stats.onInvalid();
+        assertEquals(0, stats.getThroughput(), 0);
+        assertTrue(stats.getThroughput() < slow.getThroughput());
+    }
+
+  @Test
+    public void testFailedCheckIsInvalid() throws InterruptedException {
+        ChannelManager channelMgr = mock(ChannelManager.class);
+        when(channelMgr.getIdleChannels()).thenReturn(Collections.emptyList());
+        kernel.setChannelManager(channelMgr);
+
+        AlienchainSync sync = spy(new AlienchainSync(kernel));
+        Block block = kernelRule.createBlock(Collections.emptyList());
+        doReturn(false).when(sync).checkBlock(block);
+
+        Thread t = start(sync, block.getNumber() + 2);
+        try {
+            sync.onMessage(channel, new BlockMessage(block));
+
+            // the block is dropped and the peer disconnected
+            verify(sync, timeout(5000)).handleInvalidBlock(block, channel);
+            verify(queue, timeout(5000)).disconnect(ReasonCode.BAD_PEER);
+            assertEquals(0, kernel.getBlockchain().getLatestBlockNumber());
+        } finally {
+            sync.stop();
+            t.join();
+        }
+    }
+
+  @Test
+    public void testPendingChecksLimit() throws InterruptedException {
+        ChannelManager channelMgr = mock(ChannelManager.class);
+        when(channelMgr.getIdleChannels()).thenAnswer(invocation -> new ArrayList<>(Collections.singleton(channel)));
+        kernel.setChannelManager(channelMgr);
+
+        AlienchainSync sync = spy(new AlienchainSync(kernel));
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            latch.await();
+            return true;
+        }).when(sync).checkBlock(any());
+
+        // fill the checkers up, beyond the limit
+        int maxPendingChecks = Runtime.getRuntime().availableProcessors() * 4;
+        for (int i = 0; i <= maxPendingChecks; i++) {
+            sync.check(kernelRule.createBlock(Collections.emptyList()));
+        }
+
+        Thread t = start(sync, 100);
+        try {
+            Thread.sleep(200);
+            verify(queue, never()).sendMessage(any());
+
+            // the download resumes once the checks are done
+            latch.countDown();
+            verify(queue, timeout(5000).atLeastOnce()).sendMessage(any(GetBlockMessage.class));
+        } finally {
+            latch.countDown();
+            sync.stop();
+            t.join();
+        }
+    }
+}
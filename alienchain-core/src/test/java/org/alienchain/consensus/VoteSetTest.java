@@ -113,6 +113,25 @@ public class VoteSetTest {
         assertEquals(1, vs.getRejections().size());
     }
 
+  @Test
+    public void testAddVotesInvalidSignature() {
+        Vote vote = Vote.newApprove(VoteType.VALIDATE, height, view, Bytes.EMPTY_HASH).sign(v1);
+        Vote forged = new Vote(vote.getEncoded(), Vote.newApprove(VoteType.VALIDATE, height, view, Bytes.random(32))
+                .sign(v2).getSignature().toBytes());
+        assertEquals(1, vs.addVotes(Arrays.asList(vote, forged)));
+        assertEquals(1, vs.getApprovals(Bytes.EMPTY_HASH).size());
+    }
+
+  @Test
+    public void testDuplicateVote() {
+        Vote vote = Vote.newApprove(VoteType.VALIDATE, height, view, Bytes.EMPTY_HASH).sign(v1);
+        assertTrue(vs.addVote(vote));
+        assertFalse(vs.addVote(vote));
+        assertTrue(vs.addVote(Vote.newApprove(VoteType.VALIDATE, height, view, Bytes.EMPTY_HASH).sign(v2)));
+        assertFalse(vs.anyApproved().isPresent());
+        assertEquals(2, vs.getApprovals(Bytes.EMPTY_HASH).size());
+    }
+
   @Test
     public void testTwoThirds() {
         Vote vote = Vote.newApprove(VoteType.VALIDATE, height, view, Bytes.EMPTY_HASH);
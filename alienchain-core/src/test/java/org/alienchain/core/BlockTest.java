@@ -8,6 +8,7 @@ package org.alienchain.core;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.alienchain.core.Amount.ZERO;
 
@@ -26,6 +27,7 @@ import org.alienchain.crypto.Key.Signature;
 import org.alienchain.util.Bytes;
 import org.alienchain.util.MerkleUtil;
 import org.alienchain.util.SimpleDecoder;
+import org.alienchain.util.SimpleEncoder;
 import org.alienchain.util.TimeUtil;
 
 public class BlockTest {
@@ -136,4 +138,27 @@ public class BlockTest {
                 Network.DEVNET));
         assertTrue(block.validateResults(previousHeader, results));
     }
+
+  @Test
+    public void testValidateTransactionsVerified() {
+        Transaction tx1 = new Transaction(Network.DEVNET, TransactionType.TRANSFER, Bytes.random(20), ZERO,
+                config.minTransactionFee(), 1, TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES).sign(new Key());
+        Transaction tx2 = new Transaction(Network.DEVNET, TransactionType.TRANSFER, Bytes.random(20), ZERO,
+                config.minTransactionFee(), 2, TimeUtil.currentTimeMillis(), Bytes.EMPTY_BYTES).sign(new Key());
+
+        assertFalse(tx1.isVerified());
+        assertTrue(tx1.validate(Network.DEVNET));
+        assertTrue(tx1.isVerified());
+        assertTrue(Transaction.fromBytes(tx1.toBytes()).isVerified());
+
+        // the signature of another transaction
+        SimpleEncoder enc = new SimpleEncoder();
+        enc.writeBytes(tx1.getHash());
+        enc.writeBytes(tx1.getEncoded());
+        enc.writeBytes(tx2.getSignature().toBytes());
+        Transaction forged = Transaction.fromBytes(enc.toBytes());
+
+        assertFalse(forged.isVerified());
+        assertFalse(forged.validate(Network.DEVNET));
+    }
 }
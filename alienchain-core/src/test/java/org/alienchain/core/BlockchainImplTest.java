@@ -14,6 +14,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.alienchain.core.Amount.Unit.NANO_ALX;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
 
 import java.util.Arrays;
 import java.util.Collections;
@@ -30,6 +32,8 @@ import org.alienchain.config.Constants;
 import org.alienchain.config.DevnetConfig;
 import org.alienchain.core.BlockchainImpl.StatsType;
 import org.alienchain.crypto.Key;
+import org.alienchain.db.Database;
+import org.alienchain.db.DatabaseName;
 import org.alienchain.rules.TemporaryDatabaseRule;
 import org.alienchain.util.Bytes;
 import org.alienchain.util.MerkleUtil;
@@ -134,6 +138,138 @@ public class BlockchainImplTest {
         assertEquals(newBlock.getNumber(), chain.getBlockHeader(newBlock.getHash()).getNumber());
     }
 
+  @Test
+    public void testGetBlockHash() {
+        assertArrayEquals(Genesis.load(network).getHash(), chain.getBlockHash(0));
+        assertNull(chain.getBlockHash(1));
+        assertNull(chain.getBlockHash(-1));
+
+        Block newBlock = createBlock(1);
+        chain.addBlock(newBlock);
+
+        assertArrayEquals(newBlock.getHash(), chain.getBlockHash(1));
+    }
+
+  @Test
+    public void testGetBlockParts() {
+        Block newBlock = createBlock(1);
+        chain.addBlock(newBlock);
+
+        List<byte[]> parts = chain.getBlockParts(1, Block.BlockPart.parts(Block.BlockPart.HEADER,
+                Block.BlockPart.TRANSACTIONS, Block.BlockPart.RECEIPTS, Block.BlockPart.VOTES));
+        assertEquals(4, parts.size());
+        assertArrayEquals(newBlock.toBytes(),
+                Block.fromComponents(parts.get(0), parts.get(1), parts.get(2), parts.get(3)).toBytes());
+
+        parts = chain.getBlockParts(1, Block.BlockPart.parts(Block.BlockPart.VOTES, Block.BlockPart.HEADER));
+        assertEquals(2, parts.size());
+        assertArrayEquals(newBlock.getEncodedHeader(), parts.get(0));
+        assertArrayEquals(newBlock.getEncodedVotes(), parts.get(1));
+
+        assertNull(chain.getBlockParts(2, Block.BlockPart.parts(Block.BlockPart.HEADER)).get(0));
+    }
+
+  @Test
+    public void testBlockCache() {
+        Block newBlock = createBlock(1);
+        chain.addBlock(newBlock);
+
+        long misses = chain.getBlockPartCacheStats().missCount();
+        chain.getBlock(1);
+        chain.getBlock(1);
+        assertEquals(misses + 4, chain.getBlockPartCacheStats().missCount());
+
+        long hits = chain.getHeaderCacheStats().hitCount();
+        assertArrayEquals(newBlock.getHash(), chain.getBlockHeader(1).getHash());
+        assertEquals(hits + 1, chain.getHeaderCacheStats().hitCount());
+    }
+
+  @Test
+    public void testPruneBlocks() {
+        assertEquals(0, chain.pruneBlocks(10));
+
+        config = spy(config);
+        when(config.dbPruneBlocks()).thenReturn(1L);
+        chain = new BlockchainImpl(config, temporaryDBFactory);
+
+        chain.addBlock(createBlock(1));
+        chain.addBlock(createBlock(2, Collections.emptyList(), Collections.emptyList()));
+        chain.addBlock(createBlock(3, Collections.emptyList(), Collections.emptyList()));
+
+        assertEquals(2, chain.pruneBlocks(10));
+        assertEquals(0, chain.pruneBlocks(10));
+
+        assertNull(chain.getBlock(1));
+        assertNull(chain.getBlock(2));
+        assertNotNull(chain.getBlock(3));
+        assertNotNull(chain.getBlockHeader(1));
+        assertNull(chain.getTransaction(tx.getHash()));
+        assertEquals(1, chain.getTransactionCount(tx.getFrom()));
+        assertEquals(0, chain.getTransactions(tx.getFrom(), 0, 10).size());
+
+        // the deletions are flushed with the next block
+        Database blockDB = temporaryDBFactory.getDB(DatabaseName.BLOCK);
+        byte[] key = Bytes.merge(BlockchainImpl.TYPE_BLOCK_TRANSACTIONS, Bytes.of(1L));
+        assertNotNull(blockDB.get(key));
+        chain.addBlock(createBlock(4, Collections.emptyList(), Collections.emptyList()));
+        assertNull(blockDB.get(key));
+        assertEquals(1, chain.pruneBlocks(10));
+    }
+
+  @Test
+    public void testReindex() {
+        Block block1 = createBlock(1);
+        chain.addBlock(block1);
+        chain.addBlock(createBlock(2, Collections.emptyList(), Collections.emptyList()));
+
+        Database indexDB = temporaryDBFactory.getDB(DatabaseName.INDEX);
+        indexDB.delete(Bytes.merge(BlockchainImpl.TYPE_BLOCK_HASH, block1.getHash()));
+        indexDB.delete(Bytes.merge(BlockchainImpl.TYPE_TRANSACTION_HASH, tx.getHash()));
+        indexDB.delete(Bytes.merge(BlockchainImpl.TYPE_ACCOUNT_TRANSACTION, tx.getFrom()));
+
+        assertEquals(2, new BlockchainReindexer(config, temporaryDBFactory, 2).reindex());
+        chain = new BlockchainImpl(config, temporaryDBFactory);
+
+        assertEquals(2, chain.getLatestBlockNumber());
+        assertEquals(1, chain.getBlockNumber(block1.getHash()));
+        assertNotNull(chain.getTransaction(tx.getHash()));
+        assertEquals(1, chain.getTransactionCount(tx.getFrom()));
+        assertEquals(1, chain.getTransactions(tx.getFrom(), 0, 10).size());
+        assertEquals(2, chain.getTransactionCount(coinbase));
+        assertEquals(2, chain.getValidatorStats(coinbase).getBlocksForged());
+    }
+
+  @Test
+    public void testReindexPruned() {
+        config = spy(config);
+        when(config.dbPruneBlocks()).thenReturn(1L);
+        chain = new BlockchainImpl(config, temporaryDBFactory);
+
+        Block block1 = createBlock(1);
+        chain.addBlock(block1);
+        chain.addBlock(createBlock(2, Collections.emptyList(), Collections.emptyList()));
+        assertEquals(1, chain.pruneBlocks(10));
+        chain.addBlock(createBlock(3, Collections.emptyList(), Collections.emptyList()));
+        byte[] coinbaseTx = chain.getCoinbaseTransaction(1).getHash();
+
+        Database indexDB = temporaryDBFactory.getDB(DatabaseName.INDEX);
+        indexDB.delete(Bytes.merge(BlockchainImpl.TYPE_BLOCK_HASH, block1.getHash()));
+        byte[] stale = Bytes.random(32);
+        indexDB.put(Bytes.merge(BlockchainImpl.TYPE_TRANSACTION_HASH, stale), Bytes.of(1L));
+
+        assertEquals(3, new BlockchainReindexer(config, temporaryDBFactory, 2).reindex());
+        chain = new BlockchainImpl(config, temporaryDBFactory);
+
+        assertEquals(1, chain.getBlockNumber(block1.getHash()));
+        assertNotNull(chain.getTransaction(coinbaseTx));
+        assertNull(chain.getTransaction(tx.getHash()));
+        assertNull(chain.getTransaction(stale));
+        // the offsets of the pruned node are kept
+        assertEquals(1, chain.getTransactionCount(tx.getFrom()));
+        assertEquals(3, chain.getTransactionCount(coinbase));
+        assertEquals(3, chain.getValidatorStats(coinbase).getBlocksForged());
+    }
+
   @Test
     public void testGetTransaction() {
         assertNull(chain.getTransaction(tx.getHash()));
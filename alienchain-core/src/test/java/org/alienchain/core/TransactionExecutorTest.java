@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.core;
+
+import static org.alienchain.core.Amount.Unit.ALX;
+import static org.alienchain.core.Amount.Unit.MILLI_ALX;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.alienchain.Network;
+import org.alienchain.config.Config;
+import org.alienchain.config.Constants;
+import org.alienchain.config.DevnetConfig;
+import org.alienchain.core.state.AccountState;
+import org.alienchain.core.state.DelegateState;
+import org.alienchain.crypto.Key;
+import org.alienchain.rules.TemporaryDatabaseRule;
+import org.alienchain.util.Bytes;
+import org.alienchain.vm.client.AlienchainBlock;
+import org.alienchain.vm.client.AlienchainBlockStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TransactionExecutorTest {
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
+
+    private Config config;
+    private Blockchain chain;
+    private AccountState as;
+    private DelegateState ds;
+    private Network network;
+    private AlienchainBlock block;
+
+    @Before
+    public void prepare() {
+        config = spy(new DevnetConfig(Constants.DEFAULT_DATA_DIR));
+        chain = new BlockchainImpl(config, temporaryDBFactory);
+        as = chain.getAccountState();
+        ds = chain.getDelegateState();
+        network = config.network();
+
+        block = new AlienchainBlock(
+                new BlockHeader(1L, Bytes.random(20), Bytes.random(20), System.currentTimeMillis(),
+                        Bytes.random(20), Bytes.random(20), Bytes.random(20), Bytes.random(20)),
+                config.vmMaxBlockGasLimit());
+    }
+
+  @Test
+    public void testParallelMatchesSequential() {
+        Random r = new Random(1);
+
+        Key[] keys = new Key[8];
+        long[] nonces = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Key();
+            as.adjustAvailable(keys[i].toAddress(), ALX.of(2_000_000));
+        }
+        Key delegate = keys[0];
+        as.commit();
+
+        // transfers between a few accounts, so many of them conflict
+        List<Transaction> txs = new ArrayList<>();
+        txs.add(sign(delegate, TransactionType.DELEGATE, Bytes.EMPTY_ADDRESS, ALX.of(1_000_000), nonces[0]++,
+                Bytes.of("parallel")));
+        for (int i = 0; i < 500; i++) {
+            int from = r.nextInt(keys.length);
+            int to = r.nextInt(keys.length);
+            long nonce = r.nextInt(20) == 0 ? nonces[from] + 1 : nonces[from]++; // some invalid nonces
+            if (r.nextInt(10) == 0) {
+                txs.add(sign(keys[from], TransactionType.VOTE, delegate.toAddress(), ALX.of(1), nonce,
+                        Bytes.EMPTY_BYTES));
+            } else {
+                txs.add(sign(keys[from], TransactionType.TRANSFER, keys[to].toAddress(), ALX.of(r.nextInt(100)),
+                        nonce, Bytes.EMPTY_BYTES));
+            }
+        }
+
+        AccountState as1 = as.track();
+        DelegateState ds1 = ds.track();
+        List<TransactionResult> expected = new TransactionExecutor(config, new AlienchainBlockStore(chain))
+                .execute(txs, as1, ds1, block, chain);
+
+        doReturn(4).when(config).txExecutionThreads();
+        AccountState as2 = as.track();
+        DelegateState ds2 = ds.track();
+        List<TransactionResult> results = new TransactionExecutor(config, new AlienchainBlockStore(chain))
+                .execute(txs, as2, ds2, block, chain);
+
+        assertEquals(expected.size(), results.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i).toBytes(), results.get(i).toBytes());
+        }
+        for (Key key : keys) {
+            assertEquals(as1.getAccount(key.toAddress()).getAvailable(),
+                    as2.getAccount(key.toAddress()).getAvailable());
+            assertEquals(as1.getAccount(key.toAddress()).getLocked(), as2.getAccount(key.toAddress()).getLocked());
+            assertEquals(as1.getAccount(key.toAddress()).getNonce(), as2.getAccount(key.toAddress()).getNonce());
+        }
+        assertEquals(ds1.getDelegateByAddress(delegate.toAddress()).getVotes(),
+                ds2.getDelegateByAddress(delegate.toAddress()).getVotes());
+    }
+
+    private Transaction sign(Key key, TransactionType type, byte[] to, Amount value, long nonce, byte[] data) {
+        Transaction tx = new Transaction(network, type, to, value, MILLI_ALX.of(100), nonce,
+                System.currentTimeMillis(), data);
+        return tx.sign(key);
+    }
+}
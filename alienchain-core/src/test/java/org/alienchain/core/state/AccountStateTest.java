@@ -148,4 +148,93 @@ public class AccountStateTest {
         state.rollback();
         assertEquals(0, state2.getAccount(address).getNonce());
     }
+
+  @Test
+    public void testRemoveStorage() {
+        byte[] address = Bytes.random(20);
+        byte[] key = Bytes.random(3);
+        state.putStorage(address, key, Bytes.random(8));
+        state.commit();
+
+        AccountState state2 = state.track();
+        state2.removeStorage(address, key);
+        assertNull(state2.getStorage(address, key));
+        state2.commit();
+        assertNull(state.getStorage(address, key));
+        state.commit();
+        assertNull(state.getStorage(address, key));
+    }
+
+  @Test
+    public void testDeepTrack() {
+        byte[] address = Bytes.random(20);
+        AccountState[] states = new AccountState[100];
+        states[0] = state.track();
+        for (int i = 1; i < states.length; i++) {
+            states[i - 1].adjustAvailable(address, NANO_ALX.of(1));
+            states[i] = states[i - 1].track();
+        }
+        assertEquals(NANO_ALX.of(99), states[99].getAccount(address).getAvailable());
+
+        // changes made below a child are visible to it
+        byte[] code = Bytes.random(8);
+        states[50].setCode(address, code);
+        assertArrayEquals(code, states[99].getCode(address));
+
+        for (int i = states.length - 1; i >= 0; i--) {
+            states[i].commit();
+        }
+        assertEquals(NANO_ALX.of(99), state.getAccount(address).getAvailable());
+        assertArrayEquals(code, state.getCode(address));
+    }
+
+  @Test
+    public void testSiblingCommit() {
+        byte[] address = Bytes.random(20);
+        AccountState parent = state.track();
+        AccountState child1 = parent.track();
+        AccountState child2 = parent.track();
+
+        child1.adjustAvailable(address, NANO_ALX.of(10));
+        assertEquals(ZERO, child2.getAccount(address).getAvailable());
+
+        child1.commit();
+        assertEquals(NANO_ALX.of(10), parent.getAccount(address).getAvailable());
+        assertEquals(NANO_ALX.of(10), child2.getAccount(address).getAvailable());
+    }
+
+  @Test
+    public void testClone() {
+        byte[] address = Bytes.random(20);
+        AccountState state2 = state.track();
+        state2.adjustAvailable(address, NANO_ALX.of(10));
+
+        AccountState clone = state2.clone();
+        clone.adjustAvailable(address, NANO_ALX.of(5));
+        assertEquals(NANO_ALX.of(10), state2.getAccount(address).getAvailable());
+        assertEquals(NANO_ALX.of(15), clone.getAccount(address).getAvailable());
+
+        clone.commit();
+        assertEquals(NANO_ALX.of(15), state.getAccount(address).getAvailable());
+    }
+
+  @Test
+    public void testAccountSnapshot() {
+        byte[] address = Bytes.random(20);
+        state.adjustAvailable(address, NANO_ALX.of(10));
+        state.commit();
+
+        Account acc = state.getAccount(address);
+        AccountState state2 = state.track();
+        state2.adjustAvailable(address, NANO_ALX.of(5));
+        state2.increaseNonce(address);
+        assertEquals(NANO_ALX.of(10), acc.getAvailable());
+        assertEquals(0, acc.getNonce());
+
+        state2.commit();
+        state.commit();
+        assertEquals(NANO_ALX.of(15), state.getAccount(address).getAvailable());
+        assertEquals(1, state.getAccount(address).getNonce());
+        assertEquals(NANO_ALX.of(10), acc.getAvailable());
+    }
 }
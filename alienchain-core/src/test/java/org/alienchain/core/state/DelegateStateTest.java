@@ -15,8 +15,10 @@ import static org.alienchain.core.Amount.Unit.NANO_ALX;
 import static org.alienchain.core.Amount.Unit.ALX;
 import static org.alienchain.core.Amount.ZERO;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.junit.After;
 import org.junit.Before;
@@ -157,6 +159,84 @@ public class DelegateStateTest {
         assertEquals(value2, votes.get(new ByteArray(voterKey2.toAddress())));
     }
 
+  @Test
+    public void testRanking() {
+        byte[] voter = new Key().toAddress();
+        byte[] d1 = new Key().toAddress();
+        byte[] d2 = new Key().toAddress();
+
+        assertTrue(ds.register(d1, Bytes.of("ranking1")));
+        assertTrue(ds.register(d2, Bytes.of("ranking2")));
+        assertTrue(ds.vote(voter, d1, NANO_ALX.of(10)));
+        ds.commit();
+        assertArrayEquals(d1, ds.getDelegates(1).get(0).getAddress());
+
+        // uncommitted votes of a tracked state
+        DelegateState ds2 = ds.track();
+        assertTrue(ds2.vote(voter, d2, NANO_ALX.of(20)));
+        assertArrayEquals(d2, ds2.getDelegates(1).get(0).getAddress());
+        assertArrayEquals(d1, ds2.getDelegates(2).get(1).getAddress());
+        assertArrayEquals(d1, ds.getDelegates(1).get(0).getAddress());
+        assertEquals(delegates.size() + 2, ds2.getDelegates().size());
+
+        ds2.commit();
+        ds.commit();
+        assertArrayEquals(d2, ds.getDelegates(1).get(0).getAddress());
+        assertTrue(ds.unvote(voter, d2, NANO_ALX.of(20)));
+        ds.commit();
+
+        List<Delegate> list = ds.getDelegates();
+        assertEquals(delegates.size() + 2, list.size());
+        assertArrayEquals(d1, list.get(0).getAddress());
+        for (int i = 1; i < list.size(); i++) {
+            assertTrue(DelegateIndex.RANKING.compare(list.get(i - 1), list.get(i)) < 0);
+        }
+    }
+
+  @Test
+    public void testGetVotesPaged() {
+        byte[] delegate = new Key().toAddress();
+        ds.register(delegate, Bytes.of("paged"));
+        ds.commit();
+        assertEquals(0, ds.getVoterCount(delegate));
+
+        TreeMap<ByteArray, Amount> expected = new TreeMap<>();
+        for (int i = 1; i <= 10; i++) {
+            byte[] voter = new Key().toAddress();
+            assertTrue(ds.vote(voter, delegate, NANO_ALX.of(i)));
+            expected.put(ByteArray.of(voter), NANO_ALX.of(i));
+        }
+        ds.commit();
+        assertEquals(10, ds.getVoterCount(delegate));
+
+        // fetch in pages of 4
+        List<ByteArray> voters = new ArrayList<>();
+        byte[] from = null;
+        while (true) {
+            Map<ByteArray, Amount> page = ds.getVotes(delegate, from, 4);
+            for (Map.Entry<ByteArray, Amount> e : page.entrySet()) {
+                if (!voters.isEmpty() && voters.get(voters.size() - 1).equals(e.getKey())) {
+                    continue;
+                }
+                voters.add(e.getKey());
+                assertEquals(expected.get(e.getKey()), e.getValue());
+            }
+            if (page.size() < 4) {
+                break;
+            }
+            from = voters.get(voters.size() - 1).getData();
+        }
+        assertEquals(new ArrayList<>(expected.keySet()), voters);
+
+        // the count follows the committed votes
+        ByteArray first = expected.firstKey();
+        assertTrue(ds.unvote(first.getData(), delegate, expected.get(first)));
+        assertEquals(10, ds.getVoterCount(delegate));
+        ds.commit();
+        assertEquals(9, ds.getVoterCount(delegate));
+        assertEquals(9, ds.getVotes(delegate).size());
+    }
+
     @After
     public void rollback() {
         ds.rollback();
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.alienchain.crypto.Key.Signature;
+import org.alienchain.util.Bytes;
+import org.junit.Test;
+
+public class BatchVerifierTest {
+
+  @Test
+    public void testVerify() {
+        Key key = new Key();
+        List<byte[]> messages = new ArrayList<>();
+        List<Signature> signatures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] message = Bytes.random(32);
+            messages.add(message);
+            signatures.add(key.sign(message));
+        }
+        assertTrue(BatchVerifier.verifyAll(messages, signatures));
+
+        // invalid signatures are reported individually
+        messages.set(3, Bytes.random(32));
+        messages.set(150, Bytes.random(32));
+        boolean[] results = BatchVerifier.verify(messages, signatures);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i != 3 && i != 150, results[i]);
+        }
+        assertFalse(BatchVerifier.verifyAll(messages, signatures));
+    }
+
+  @Test
+    public void testVerifySmallBatch() {
+        Key key = new Key();
+        byte[] message = Bytes.random(32);
+        Signature sig = key.sign(message);
+
+        assertTrue(BatchVerifier.verifyAll(Collections.singletonList(message), Collections.singletonList(sig)));
+        assertFalse(BatchVerifier.verifyAll(Collections.singletonList(Bytes.random(32)),
+                Collections.singletonList(sig)));
+        assertTrue(BatchVerifier.verifyAll(Collections.emptyList(), Collections.emptyList()));
+    }
+
+  @Test
+    public void testValidate() {
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            items.add(i);
+        }
+
+        boolean[] results = BatchVerifier.validate(items, i -> i % 10 != 0);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(i % 10 != 0, results[i]);
+        }
+        assertFalse(BatchVerifier.validateAll(items, i -> i != 99));
+        assertTrue(BatchVerifier.validateAll(items, i -> i >= 0));
+    }
+
+  @Test(expected = IllegalArgumentException.class)
+    public void testSizeMismatch() {
+        BatchVerifier.verify(Arrays.asList(Bytes.random(32), Bytes.random(32)),
+                Collections.singletonList(new Key().sign(Bytes.random(32))));
+    }
+}
@@ -6,6 +6,7 @@
  */
 package org.alienchain.crypto;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import org.junit.Test;
@@ -54,4 +55,16 @@ public class HashTest {
         assertEquals(msgH160, Hex.encode(hash));
         assertEquals(20, hash.length);
     }
+
+  @Test
+    public void testH160Merge() {
+        byte[] raw1 = Bytes.of(msg.substring(0, 1));
+        byte[] raw2 = Bytes.of(msg.substring(1));
+        byte[] hash = Hash.h160(raw1, raw2);
+
+        assertEquals(msgH160, Hex.encode(hash));
+
+        Key key = new Key();
+        assertArrayEquals(Hash.h160(key.getPublicKey()), key.toAddress());
+    }
 }
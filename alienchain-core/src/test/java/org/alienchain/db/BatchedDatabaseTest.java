@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.alienchain.db.BatchedDatabase.BatchedFactory;
+import org.alienchain.rules.TemporaryDatabaseRule;
+import org.alienchain.util.Bytes;
+import org.alienchain.util.ClosableIterator;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BatchedDatabaseTest {
+
+    private static final byte[] JOURNAL_KEY = Bytes.of((byte) 0xfe);
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
+
+    private BatchedFactory factory;
+
+    @Before
+    public void setUp() {
+        factory = new BatchedFactory(temporaryDBFactory, DatabaseName.INDEX, JOURNAL_KEY);
+    }
+
+  @Test
+    public void testStagedUntilCommit() {
+        byte[] key = Bytes.of("key");
+        byte[] value = Bytes.of("value");
+
+        factory.getDB(DatabaseName.ACCOUNT).put(key, value);
+        assertArrayEquals(value, factory.getDB(DatabaseName.ACCOUNT).get(key));
+        assertNull(temporaryDBFactory.getDB(DatabaseName.ACCOUNT).get(key));
+
+        factory.commit();
+        assertFalse(factory.getDB(DatabaseName.ACCOUNT).isDirty());
+        assertArrayEquals(value, temporaryDBFactory.getDB(DatabaseName.ACCOUNT).get(key));
+
+        factory.getDB(DatabaseName.ACCOUNT).delete(key);
+        assertNull(factory.getDB(DatabaseName.ACCOUNT).get(key));
+        factory.rollback();
+        assertArrayEquals(value, factory.getDB(DatabaseName.ACCOUNT).get(key));
+    }
+
+  @Test
+    public void testMergedIterator() {
+        Database raw = temporaryDBFactory.getDB(DatabaseName.VOTE);
+        raw.put(Bytes.of("a1"), Bytes.of("1"));
+        raw.put(Bytes.of("a3"), Bytes.of("3"));
+        raw.put(Bytes.of("a5"), Bytes.of("5"));
+
+        Database db = factory.getDB(DatabaseName.VOTE);
+        db.put(Bytes.of("a2"), Bytes.of("2"));
+        db.put(Bytes.of("a3"), Bytes.of("33"));
+        db.delete(Bytes.of("a5"));
+
+        List<String> list = new ArrayList<>();
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator(Bytes.of("a"));
+        while (itr.hasNext()) {
+            Entry<byte[], byte[]> e = itr.next();
+            list.add(Bytes.toString(e.getKey()) + "=" + Bytes.toString(e.getValue()));
+        }
+        itr.close();
+
+        assertEquals(Arrays.asList("a1=1", "a2=2", "a3=33"), list);
+    }
+
+  @Test
+    public void testRecoverFromJournal() {
+        byte[] key = Bytes.of("key");
+        byte[] value = Bytes.of("value");
+
+        // simulate a crash right after the journal database has been written
+        temporaryDBFactory.getDB(DatabaseName.DELEGATE).put(key, value);
+
+        List<Pair<byte[], byte[]>> account = new ArrayList<>();
+        account.add(Pair.of(key, value));
+        List<Pair<byte[], byte[]>> delegate = new ArrayList<>();
+        delegate.add(Pair.of(key, null));
+
+        EnumMap<DatabaseName, List<Pair<byte[], byte[]>>> batches = new EnumMap<>(DatabaseName.class);
+        batches.put(DatabaseName.ACCOUNT, account);
+        batches.put(DatabaseName.DELEGATE, delegate);
+        temporaryDBFactory.getDB(DatabaseName.INDEX).put(JOURNAL_KEY, factory.encodeJournal(batches));
+
+        // reopen
+        BatchedFactory recovered = new BatchedFactory(temporaryDBFactory, DatabaseName.INDEX, JOURNAL_KEY);
+        assertArrayEquals(value, recovered.getDB(DatabaseName.ACCOUNT).get(key));
+        assertNull(recovered.getDB(DatabaseName.DELEGATE).get(key));
+        assertNull(temporaryDBFactory.getDB(DatabaseName.INDEX).get(JOURNAL_KEY));
+    }
+
+  @Test
+    public void testWriteAhead() {
+        byte[] key = Bytes.of("key");
+        byte[] value = Bytes.of("value");
+        factory = new BatchedFactory(temporaryDBFactory, DatabaseName.INDEX, JOURNAL_KEY, DatabaseName.BLOCK);
+
+        factory.getDB(DatabaseName.BLOCK).put(key, value);
+        factory.getDB(DatabaseName.INDEX).put(key, value);
+        factory.commit();
+
+        assertArrayEquals(value, temporaryDBFactory.getDB(DatabaseName.BLOCK).get(key));
+        assertArrayEquals(value, temporaryDBFactory.getDB(DatabaseName.INDEX).get(key));
+        assertNull(temporaryDBFactory.getDB(DatabaseName.INDEX).get(JOURNAL_KEY));
+
+        // deletes are journaled
+        factory.getDB(DatabaseName.BLOCK).delete(key);
+        factory.getDB(DatabaseName.INDEX).delete(key);
+        factory.commit();
+
+        assertNull(temporaryDBFactory.getDB(DatabaseName.BLOCK).get(key));
+        assertNull(temporaryDBFactory.getDB(DatabaseName.INDEX).get(key));
+        assertNull(temporaryDBFactory.getDB(DatabaseName.INDEX).get(JOURNAL_KEY));
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+
+import org.alienchain.db.InstrumentedDatabase.InstrumentedFactory;
+import org.alienchain.db.InstrumentedDatabase.Op;
+import org.alienchain.db.InstrumentedDatabase.Stats;
+import org.alienchain.rules.TemporaryDatabaseRule;
+import org.alienchain.util.Bytes;
+import org.alienchain.util.ClosableIterator;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class InstrumentedDatabaseTest {
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
+
+  @Test
+    public void testStats() {
+        InstrumentedFactory factory = new InstrumentedFactory(temporaryDBFactory);
+        Database db = factory.getDB(DatabaseName.ACCOUNT);
+
+        db.put(Bytes.of("k1"), Bytes.of("value"));
+        db.updateBatch(Arrays.asList(Pair.of(Bytes.of("k2"), Bytes.of("v")), Pair.of(Bytes.of("k3"), null)));
+        assertArrayEquals(Bytes.of("value"), db.get(Bytes.of("k1")));
+        db.delete(Bytes.of("k1"));
+
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator(Bytes.of("k"));
+        while (itr.hasNext()) {
+            itr.next();
+        }
+        itr.close();
+
+        Stats stats = factory.getStats(DatabaseName.ACCOUNT);
+        assertEquals(1, stats.getCount(Op.GET));
+        assertEquals(1, stats.getCount(Op.PUT));
+        assertEquals(1, stats.getCount(Op.DELETE));
+        assertEquals(1, stats.getCount(Op.BATCH));
+        assertEquals(1, stats.getCount(Op.ITERATOR));
+        assertEquals(2, stats.getBatchedPairs());
+        assertEquals(7 + 3 + 2, stats.getBytesWritten());
+        assertEquals(5 + 3, stats.getBytesRead());
+
+        assertEquals(0, factory.getStats(DatabaseName.INDEX).getCount(Op.GET));
+        assertNotNull(factory.getEngineStats(DatabaseName.ACCOUNT));
+    }
+}
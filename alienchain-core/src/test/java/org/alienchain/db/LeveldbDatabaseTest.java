@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.alienchain.rules.TemporaryDatabaseRule;
+import org.alienchain.util.Bytes;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LeveldbDatabaseTest {
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
+
+    private Database db;
+
+    @Before
+    public void setUp() {
+        db = temporaryDBFactory.getDB(DatabaseName.INDEX);
+        for (String k : new String[] { "a1", "a2", "a3", "a4", "b1" }) {
+            db.put(Bytes.of(k), Bytes.of(k));
+        }
+    }
+
+    private static List<String> keys(List<Entry<byte[], byte[]>> entries) {
+        List<String> list = new ArrayList<>();
+        for (Entry<byte[], byte[]> e : entries) {
+            list.add(Bytes.toString(e.getKey()));
+        }
+        return list;
+    }
+
+  @Test
+    public void testMultiGet() {
+        List<byte[]> values = db.multiGet(Arrays.asList(Bytes.of("a2"), Bytes.of("zz"), Bytes.of("b1")));
+        assertEquals(3, values.size());
+        assertArrayEquals(Bytes.of("a2"), values.get(0));
+        assertNull(values.get(1));
+        assertArrayEquals(Bytes.of("b1"), values.get(2));
+    }
+
+  @Test
+    public void testRange() {
+        assertEquals(Arrays.asList("a2", "a3"), keys(db.range(Bytes.of("a2"), Bytes.of("a4"), 10, false)));
+        assertEquals(Arrays.asList("a1", "a2"), keys(db.range(Bytes.of("a"), Bytes.of("b"), 2, false)));
+        assertEquals(Arrays.asList("a1", "a2", "a3", "a4", "b1"), keys(db.range(null, null, 10, false)));
+    }
+
+  @Test
+    public void testRangeReverse() {
+        assertEquals(Arrays.asList("a3", "a2"), keys(db.range(Bytes.of("a2"), Bytes.of("a4"), 10, true)));
+        assertEquals(Arrays.asList("a4", "a3"), keys(db.range(Bytes.of("a"), Bytes.of("b"), 2, true)));
+        assertEquals(Arrays.asList("b1", "a4"), keys(db.range(Bytes.of("a"), Bytes.of("c"), 2, true)));
+        assertEquals(Arrays.asList("b1", "a4", "a3", "a2", "a1"), keys(db.range(null, null, 10, true)));
+    }
+
+  @Test
+    public void testBatchedRange() {
+        BatchedDatabase batched = new BatchedDatabase(db);
+        batched.put(Bytes.of("a0"), Bytes.of("a0"));
+        batched.delete(Bytes.of("a3"));
+
+        assertEquals(Arrays.asList("a0", "a1", "a2", "a4"), keys(batched.range(Bytes.of("a"), Bytes.of("b"), 10, false)));
+        assertEquals(Arrays.asList("a4", "a2", "a1", "a0"), keys(batched.range(Bytes.of("a"), Bytes.of("b"), 10, true)));
+
+        List<byte[]> values = batched.multiGet(Arrays.asList(Bytes.of("a0"), Bytes.of("a3"), Bytes.of("a4")));
+        assertArrayEquals(Bytes.of("a0"), values.get(0));
+        assertNull(values.get(1));
+        assertArrayEquals(Bytes.of("a4"), values.get(2));
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.alienchain.config.Config;
+import org.alienchain.db.exception.DatabaseException;
+import org.junit.Test;
+
+public class PipelinedMigrationTest {
+
+    private static class TestMigration extends PipelinedMigration<Long> {
+        private final long total;
+        private final long failAt;
+        private final List<Long> applied = new ArrayList<>();
+
+        TestMigration(long total, long failAt, List<Long> checkpoint) {
+            super(4, 8);
+            this.total = total;
+            this.failAt = failAt;
+            this.applied.addAll(checkpoint);
+        }
+
+        @Override
+        public void migrate(Config config, DatabaseFactory dbFactory) {
+            run();
+        }
+
+        @Override
+        protected long getCheckpoint() {
+            return applied.size();
+        }
+
+        @Override
+        protected long getTotal() {
+            return total;
+        }
+
+        @Override
+        protected Long load(long number) {
+            if (number == failAt) {
+                throw new DatabaseException("Invalid item #" + number);
+            }
+            return number * 2;
+        }
+
+        @Override
+        protected void apply(long number, Long item) {
+            assertEquals(applied.size() + 1, number);
+            applied.add(item);
+        }
+    }
+
+  @Test
+    public void testRunInOrder() {
+        TestMigration migration = new TestMigration(1000, -1, new ArrayList<>());
+        migration.migrate(null, null);
+
+        assertEquals(1000, migration.applied.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(2L * (i + 1), (long) migration.applied.get(i));
+        }
+    }
+
+  @Test
+    public void testResume() {
+        TestMigration migration = new TestMigration(100, 50, new ArrayList<>());
+        try {
+            migration.migrate(null, null);
+            fail("Migration should fail");
+        } catch (DatabaseException e) {
+            assertEquals("Invalid item #50", e.getMessage());
+        }
+        assertEquals(49, migration.applied.size());
+
+        migration = new TestMigration(100, -1, migration.applied);
+        migration.migrate(null, null);
+        assertEquals(100, migration.applied.size());
+        assertEquals(200L, (long) migration.applied.get(99));
+    }
+}
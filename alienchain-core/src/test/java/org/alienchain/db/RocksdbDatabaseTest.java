@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.alienchain.db.RocksdbDatabase.RocksdbFactory;
+import org.alienchain.util.Bytes;
+import org.alienchain.util.ClosableIterator;
+import org.apache.commons.lang3.tuple.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RocksdbDatabaseTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private RocksdbFactory factory;
+
+    @Before
+    public void setUp() {
+        factory = new RocksdbFactory(temporaryFolder.getRoot());
+    }
+
+    @After
+    public void tearDown() {
+        factory.close();
+    }
+
+  @Test
+    public void testGetPutDelete() {
+        Database db = factory.getDB(DatabaseName.INDEX);
+        byte[] key = Bytes.of("key");
+        byte[] value = Bytes.of("value");
+
+        assertNull(db.get(key));
+        db.put(key, value);
+        assertArrayEquals(value, db.get(key));
+
+        // column families are separate
+        assertNull(factory.getDB(DatabaseName.BLOCK).get(key));
+
+        db.delete(key);
+        assertNull(db.get(key));
+    }
+
+  @Test
+    public void testUpdateBatch() {
+        Database db = factory.getDB(DatabaseName.ACCOUNT);
+        db.put(Bytes.of("a"), Bytes.of("1"));
+
+        List<Pair<byte[], byte[]>> batch = new ArrayList<>();
+        batch.add(Pair.of(Bytes.of("a"), null));
+        batch.add(Pair.of(Bytes.of("b"), Bytes.of("2")));
+        db.updateBatch(batch);
+
+        assertNull(db.get(Bytes.of("a")));
+        assertArrayEquals(Bytes.of("2"), db.get(Bytes.of("b")));
+    }
+
+  @Test
+    public void testAtomicBatch() {
+        assertTrue(factory.isAtomicBatchSupported());
+
+        List<Pair<byte[], byte[]>> block = new ArrayList<>();
+        block.add(Pair.of(Bytes.of("key"), Bytes.of("block")));
+        List<Pair<byte[], byte[]>> index = new ArrayList<>();
+        index.add(Pair.of(Bytes.of("key"), Bytes.of("index")));
+
+        EnumMap<DatabaseName, List<Pair<byte[], byte[]>>> batches = new EnumMap<>(DatabaseName.class);
+        batches.put(DatabaseName.BLOCK, block);
+        batches.put(DatabaseName.INDEX, index);
+        factory.updateBatch(batches);
+
+        assertArrayEquals(Bytes.of("block"), factory.getDB(DatabaseName.BLOCK).get(Bytes.of("key")));
+        assertArrayEquals(Bytes.of("index"), factory.getDB(DatabaseName.INDEX).get(Bytes.of("key")));
+    }
+
+  @Test
+    public void testIterator() {
+        Database db = factory.getDB(DatabaseName.VOTE);
+        for (String k : new String[] { "a1", "a2", "b1" }) {
+            db.put(Bytes.of(k), Bytes.of(k));
+        }
+        factory.getDB(DatabaseName.DELEGATE).put(Bytes.of("a0"), Bytes.of("a0"));
+
+        List<String> keys = new ArrayList<>();
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator(Bytes.of("a"));
+        while (itr.hasNext()) {
+            keys.add(Bytes.toString(itr.next().getKey()));
+        }
+        itr.close();
+        assertEquals(Arrays.asList("a1", "a2", "b1"), keys);
+
+        List<String> reverse = new ArrayList<>();
+        for (Entry<byte[], byte[]> e : db.range(Bytes.of("a"), Bytes.of("b"), 10, true)) {
+            reverse.add(Bytes.toString(e.getKey()));
+        }
+        assertEquals(Arrays.asList("a2", "a1"), reverse);
+    }
+
+  @Test
+    public void testReopen() {
+        factory.getDB(DatabaseName.INDEX).put(Bytes.of("key"), Bytes.of("value"));
+        factory.close();
+
+        factory = new RocksdbFactory(temporaryFolder.getRoot());
+        assertArrayEquals(Bytes.of("value"), factory.getDB(DatabaseName.INDEX).get(Bytes.of("key")));
+        assertNull(factory.getDB(DatabaseName.BLOCK).get(Bytes.of("key")));
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.db;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.alienchain.db.SegmentDatabase.SegmentFactory;
+import org.alienchain.rules.TemporaryDatabaseRule;
+import org.alienchain.util.Bytes;
+import org.alienchain.util.ClosableIterator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SegmentDatabaseTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Rule
+    public TemporaryDatabaseRule temporaryDBFactory = new TemporaryDatabaseRule();
+
+    private static byte[] key(int type, long number) {
+        return Bytes.merge((byte) type, Bytes.of(number));
+    }
+
+  @Test
+    public void testPutGetDelete() throws IOException {
+        SegmentDatabase db = new SegmentDatabase(folder.newFolder(), 4);
+        assertTrue(db.isEmpty());
+        assertNull(db.get(key(0, 0)));
+
+        db.put(key(0, 0), Bytes.of("header0"));
+        db.put(key(1, 0), Bytes.of("txs0"));
+        db.put(key(0, 1), Bytes.of("header1"));
+        assertFalse(db.isEmpty());
+
+        assertArrayEquals(Bytes.of("header0"), db.get(key(0, 0)));
+        assertArrayEquals(Bytes.of("txs0"), db.get(key(1, 0)));
+        assertArrayEquals(Bytes.of("header1"), db.get(key(0, 1)));
+        assertNull(db.get(key(2, 0)));
+        assertNull(db.get(key(0, 2)));
+
+        db.delete(key(1, 0));
+        assertNull(db.get(key(1, 0)));
+
+        db.close();
+    }
+
+  @Test
+    public void testReopen() throws IOException {
+        File dir = folder.newFolder();
+        SegmentDatabase db = new SegmentDatabase(dir, 4);
+        for (long i = 0; i < 100; i++) {
+            db.put(key(0, i), Bytes.of(i));
+        }
+        db.close();
+
+        db = new SegmentDatabase(dir, 4);
+        for (long i = 0; i < 100; i++) {
+            assertArrayEquals(Bytes.of(i), db.get(key(0, i)));
+        }
+
+        // appends continue after the previous tail
+        db.put(key(3, 100), Bytes.of("votes"));
+        assertArrayEquals(Bytes.of(99L), db.get(key(0, 99)));
+        assertArrayEquals(Bytes.of("votes"), db.get(key(3, 100)));
+        db.close();
+    }
+
+  @Test
+    public void testIterator() throws IOException {
+        SegmentDatabase db = new SegmentDatabase(folder.newFolder(), 4);
+        db.put(key(1, 5), Bytes.of("a"));
+        db.put(key(0, 7), Bytes.of("b"));
+        db.put(key(1, 2), Bytes.of("c"));
+
+        int n = 0;
+        ClosableIterator<Entry<byte[], byte[]>> itr = db.iterator(Bytes.of((byte) 1));
+        while (itr.hasNext()) {
+            Entry<byte[], byte[]> e = itr.next();
+            assertEquals(1, e.getKey()[0]);
+            n++;
+        }
+        itr.close();
+        assertEquals(2, n);
+
+        db.close();
+    }
+
+  @Test
+    public void testCompaction() throws IOException {
+        File dir = folder.newFolder();
+        SegmentDatabase db = new SegmentDatabase(dir, 4, 1000);
+        for (long i = 0; i < 100; i++) {
+            db.put(key(0, i), new byte[10]);
+            db.put(key(1, i), new byte[40]);
+        }
+        int files = dir.list().length;
+
+        // pruning the bodies frees the sealed segments
+        for (long i = 0; i < 90; i++) {
+            db.delete(key(1, i));
+        }
+        assertTrue(dir.list().length < files);
+        for (long i = 0; i < 100; i++) {
+            assertArrayEquals(new byte[10], db.get(key(0, i)));
+        }
+        db.close();
+
+        db = new SegmentDatabase(dir, 4, 1000);
+        for (long i = 0; i < 100; i++) {
+            assertArrayEquals(new byte[10], db.get(key(0, i)));
+            assertEquals(i >= 90, db.get(key(1, i)) != null);
+        }
+        db.close();
+    }
+
+  @Test
+    public void testReadDuringCompaction() throws Exception {
+        SegmentDatabase db = new SegmentDatabase(folder.newFolder(), 4, 1000);
+        for (long i = 0; i < 100; i++) {
+            db.put(key(0, i), Bytes.of(i));
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> error = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                for (long i = 0; i < 100; i++) {
+                    byte[] value = db.get(key(0, i));
+                    if (!Arrays.equals(Bytes.of(i), value)) {
+                        error.compareAndSet(null, "Header " + i + " = " + Arrays.toString(value));
+                    }
+                }
+            }
+        });
+        reader.start();
+
+        // pruning the bodies over and over moves the headers to the tail
+        for (int round = 0; round < 50; round++) {
+            for (long i = 0; i < 100; i++) {
+                db.put(key(1, i), new byte[40]);
+            }
+            for (long i = 0; i < 100; i++) {
+                db.delete(key(1, i));
+            }
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(error.get());
+        db.close();
+    }
+
+  @Test
+    public void testImportBlocks() {
+        Database kv = temporaryDBFactory.getDB(DatabaseName.BLOCK);
+        kv.put(key(0, 0), Bytes.of("header0"));
+        kv.put(key(1, 0), Bytes.of("txs0"));
+
+        assertFalse(SegmentFactory.isImported(temporaryDBFactory.getDataDir()));
+        SegmentFactory factory = new SegmentFactory(temporaryDBFactory, 4);
+        assertTrue(SegmentFactory.isImported(temporaryDBFactory.getDataDir()));
+        assertArrayEquals(Bytes.of("header0"), factory.getDB(DatabaseName.BLOCK).get(key(0, 0)));
+        assertArrayEquals(Bytes.of("txs0"), factory.getDB(DatabaseName.BLOCK).get(key(1, 0)));
+
+        // the key-value copy is gone once the import is complete
+        assertNull(kv.get(key(0, 0)));
+        assertFalse(kv.iterator().hasNext());
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+  @Test
+    public void testBuckets() {
+        for (long v : new long[] { 0, 1, 7, 8, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(v <= LatencyHistogram.upperBoundOf(index));
+            assertTrue(index == 0 || v > LatencyHistogram.upperBoundOf(index - 1));
+        }
+    }
+
+  @Test
+    public void testPercentile() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentile(50));
+
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+
+        assertEquals(1000, h.getCount());
+        assertEquals(500_500, h.getMean());
+        assertEquals(1_000_000, h.getMax());
+
+        long p50 = h.getPercentile(50);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.125);
+        long p99 = h.getPercentile(99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+        assertEquals(1_000_000, h.getPercentile(100));
+    }
+}
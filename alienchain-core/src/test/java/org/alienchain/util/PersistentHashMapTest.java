@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentHashMapTest {
+
+  @Test
+    public void testPlus() {
+        Random r = new Random(1);
+        Map<Integer, Integer> expected = new HashMap<>();
+        PersistentHashMap<Integer, Integer> map = PersistentHashMap.empty();
+
+        for (int i = 0; i < 10000; i++) {
+            int k = r.nextInt(5000);
+            expected.put(k, i);
+            map = map.plus(k, i);
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+
+        Map<Integer, Integer> visited = new HashMap<>();
+        map.forEach(visited::put);
+        assertEquals(expected, visited);
+    }
+
+  @Test
+    public void testSnapshot() {
+        PersistentHashMap<String, String> m1 = PersistentHashMap.<String, String> empty().plus("a", "1");
+        PersistentHashMap<String, String> m2 = m1.plus("a", "2").plus("b", "3");
+
+        assertEquals("1", m1.get("a"));
+        assertFalse(m1.containsKey("b"));
+        assertEquals("2", m2.get("a"));
+        assertEquals(1, m1.size());
+        assertEquals(2, m2.size());
+    }
+
+  @Test
+    public void testNullValue() {
+        PersistentHashMap<String, String> map = PersistentHashMap.<String, String> empty().plus("a", null);
+
+        assertTrue(map.containsKey("a"));
+        assertNull(map.get("a"));
+        assertNull(map.getEntry("b"));
+    }
+
+  @Test
+    public void testCollisions() {
+        // "Aa" and "BB" have the same hash code
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        map = map.plus("Aa", 1).plus("BB", 2).plus("AaAa", 3).plus("BBBB", 4).plus("AaBB", 5);
+
+        assertEquals(5, map.size());
+        assertEquals(Integer.valueOf(1), map.get("Aa"));
+        assertEquals(Integer.valueOf(2), map.get("BB"));
+        assertEquals(Integer.valueOf(5), map.get("AaBB"));
+
+        map = map.plus("BB", 6);
+        assertEquals(5, map.size());
+        assertEquals(Integer.valueOf(6), map.get("BB"));
+    }
+}
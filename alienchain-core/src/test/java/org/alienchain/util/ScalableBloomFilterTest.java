@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2017-2018 The Alienchain Developers
+ *
+ * Distributed under the MIT software license, see the accompanying file
+ * LICENSE or https://opensource.org/licenses/mit-license.php
+ */
+package org.alienchain.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ScalableBloomFilterTest {
+
+  @Test
+    public void testNoFalseNegatives() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(100, 0.01);
+
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = Bytes.random(32);
+            keys.add(key);
+            filter.add(key);
+        }
+
+        // the filter has grown beyond the first stage
+        assertEquals(1000, filter.size());
+        for (byte[] key : keys) {
+            assertTrue(filter.mightContain(key));
+        }
+    }
+
+  @Test
+    public void testFalsePositiveRate() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01);
+        for (int i = 0; i < 4000; i++) {
+            filter.add(Bytes.random(32));
+        }
+
+        int positives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain(Bytes.random(32))) {
+                positives++;
+            }
+        }
+        assertTrue(positives < 500);
+    }
+
+  @Test
+    public void testSerialization() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(10, 0.01);
+        List<byte[]> keys = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            byte[] key = Bytes.random(32);
+            keys.add(key);
+            filter.add(key);
+        }
+
+        ScalableBloomFilter filter2 = ScalableBloomFilter.fromBytes(filter.toBytes());
+        assertEquals(filter.size(), filter2.size());
+        for (byte[] key : keys) {
+            assertTrue(filter2.mightContain(key));
+        }
+    }
+}